@@ -0,0 +1,97 @@
+package com.ios.icl.bench;
+
+import com.ios.icl.BinaryInvertedIndex;
+import com.ios.icl.IndexBuilder;
+import com.ios.icl.InvertedIndex;
+import com.ios.icl.QueryParser;
+import com.ios.icl.QueryPlanner;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Булевы запросы, как их выполняет BooleanSearch: разбор, план и вычисление по бинарному
+ * индексу вплоть до списка документов. {@code corpus} — индекс по {@code lemmas/} репозитория,
+ * число — синтетическая коллекция {@link SyntheticCorpus}. Запросы перебираются по кругу,
+ * режим SampleTime даёт распределение задержки (p50, p99).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BooleanSearchBenchmark {
+    private static final int QUERIES = 1024;
+
+    @Param({"corpus", "10000", "100000", "1000000"})
+    public String docs;
+
+    private final QueryParser parser = new QueryParser();
+    private Path file;
+    private QueryPlanner planner;
+    private int[] allDocs;
+    private String[] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("boolean-bench", ".bin");
+        if (docs.equals("corpus")) {
+            Map<String, SortedMap<Integer, Integer>> index = IndexBuilder.buildIndex(Path.of("lemmas"));
+            IndexBuilder.saveBinaryIndex(index, file);
+            queries = corpusQueries(index);
+        } else {
+            SyntheticCorpus corpus = new SyntheticCorpus(Integer.parseInt(docs), 42);
+            corpus.writeBinaryIndex(file);
+            queries = corpus.booleanQueries(QUERIES);
+        }
+        InvertedIndex index = BinaryInvertedIndex.open(file);
+        planner = new QueryPlanner(index);
+        allDocs = index.allDocs();
+    }
+
+    /**
+     * Те же формы запросов, что у синтетики, по терминам, встречающимся хотя бы в двух документах.
+     */
+    private static String[] corpusQueries(Map<String, SortedMap<Integer, Integer>> index) {
+        List<String> terms = new ArrayList<>();
+        index.forEach((term, postings) -> {
+            if (postings.size() > 1 && term.chars().allMatch(Character::isLetter)) terms.add(term);
+        });
+        terms.sort(null);
+        Random random = new Random(42);
+        String[] queries = new String[QUERIES];
+        for (int q = 0; q < QUERIES; q++) {
+            String a = terms.get(random.nextInt(terms.size()));
+            String b = terms.get(random.nextInt(terms.size()));
+            String c = terms.get(random.nextInt(terms.size()));
+            queries[q] = switch (q % 4) {
+                case 0 -> a + " AND " + b;
+                case 1 -> a + " OR " + b + " AND " + c;
+                case 2 -> a + " AND NOT " + b;
+                default -> "(" + a + " OR " + b + ") AND " + c;
+            };
+        }
+        return queries;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public int[] evaluate() {
+        String query = queries[next++ & (QUERIES - 1)];
+        return planner.plan(parser.parse(query)).execute().materialize(allDocs);
+    }
+}
@@ -0,0 +1,94 @@
+package com.ios.icl.bench;
+
+import com.ios.icl.CrawlEngine;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Пропускная способность {@link CrawlEngine} без сети: страницы отдаёт
+ * встроенный HTTP-сервер, каждая ссылается на несколько других.
+ * Результат в ops/s равен страницам в секунду. Без TCP_NODELAY на сервере
+ * каждый ответ ждал бы задержанного ACK (~40 мс), и мерился бы не обходчик.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+public class CrawlThroughputBenchmark {
+    private static final int PAGES = 500;
+    private static final String FILLER = "lorem ipsum dolor sit amet ".repeat(300);
+
+    @Param({"1", "4", "16"})
+    public int perHostConcurrency;
+
+    @Param({"0"})
+    public int perHostDelayMillis;
+
+    @Param({"0", "5"})
+    public int serverLatencyMillis;
+
+    private HttpServer server;
+    private String seed;
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/p/", exchange -> {
+            int page = Integer.parseInt(exchange.getRequestURI().getPath().substring(3));
+            StringBuilder html = new StringBuilder("<html><head><title>Page ").append(page)
+                    .append("</title></head><body><p>").append(FILLER).append("</p>");
+            for (int k = 1; k <= 5; k++) {
+                html.append("<a href=\"/p/").append((page * 31 + k) % PAGES).append("\">link</a>\n");
+            }
+            byte[] body = html.append("</body></html>").toString().getBytes(StandardCharsets.UTF_8);
+            if (serverLatencyMillis > 0) {
+                try {
+                    Thread.sleep(serverLatencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        seed = "http://127.0.0.1:" + server.getAddress().getPort() + "/p/0";
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGES)
+    public long crawl() throws InterruptedException {
+        CrawlEngine.Config config = CrawlEngine.Config.defaults()
+                .withMaxPages(PAGES)
+                .withMaxDepth(PAGES)
+                .withPerHost(perHostConcurrency, Duration.ofMillis(perHostDelayMillis));
+        AtomicLong bytes = new AtomicLong();
+        CrawlEngine.Stats stats;
+        try (CrawlEngine engine = new CrawlEngine(config)) {
+            stats = engine.crawl(List.of(seed), (docId, url, body) -> bytes.addAndGet(body.length));
+        }
+        if (stats.pages() != PAGES) throw new IllegalStateException("Crawled " + stats.pages() + " of " + PAGES);
+        return bytes.get();
+    }
+}
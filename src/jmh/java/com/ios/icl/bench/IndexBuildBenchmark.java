@@ -0,0 +1,63 @@
+package com.ios.icl.bench;
+
+import com.ios.icl.IndexBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Сборка инвертированного индекса {@link IndexBuilder} по lemmas-файлам: только в памяти
+ * и вместе с записью бинарного индекса. {@code corpus} — каталог {@code lemmas/} репозитория,
+ * число — синтетическая коллекция {@link SyntheticCorpus}, записанная во временный каталог.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class IndexBuildBenchmark {
+
+    @Param({"corpus", "10000"})
+    public String docs;
+
+    private Path work;
+    private Path lemmasDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        work = Files.createTempDirectory("index-bench");
+        if (docs.equals("corpus")) {
+            lemmasDir = Path.of("lemmas");
+        } else {
+            lemmasDir = work.resolve("lemmas");
+            new SyntheticCorpus(Integer.parseInt(docs), 42).writeLemmaFiles(lemmasDir);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(work)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public Map<String, SortedMap<Integer, Integer>> build() throws IOException {
+        return IndexBuilder.buildIndex(lemmasDir);
+    }
+
+    @Benchmark
+    public long buildAndWriteBinary() throws IOException {
+        Path file = work.resolve("inverted_index.bin");
+        IndexBuilder.saveBinaryIndex(IndexBuilder.buildIndex(lemmasDir), file);
+        return Files.size(file);
+    }
+}
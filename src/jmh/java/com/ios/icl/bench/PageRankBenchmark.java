@@ -0,0 +1,49 @@
+package com.ios.icl.bench;
+
+import com.ios.icl.LinkGraph;
+import com.ios.icl.LinkGraphBuilder;
+import com.ios.icl.PageRankEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Итерации {@link PageRankEngine} до сходимости с параметрами PageRankProcessor по умолчанию:
+ * с равномерного старта и с уже сошедшегося вектора (как после небольшого повторного обхода).
+ * {@code corpus} — граф по {@code pages/} и {@code index.txt} репозитория, число — синтетический
+ * граф {@link SyntheticCorpus} со средней исходящей степенью 10.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PageRankBenchmark {
+
+    @Param({"corpus", "10000", "100000", "1000000"})
+    public String pages;
+
+    private final PageRankEngine engine = new PageRankEngine(0.85, 1e-9, 200, 1_000_000);
+    private LinkGraph graph;
+    private double[] converged;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        graph = pages.equals("corpus")
+                ? new LinkGraphBuilder(LinkGraphBuilder.INDEX_FILE).build(LinkGraphBuilder.PAGES_DIR)
+                : new SyntheticCorpus(Integer.parseInt(pages), 42).linkGraph(10);
+        converged = engine.compute(graph).ranks();
+    }
+
+    @Benchmark
+    public PageRankEngine.Result uniformStart() {
+        return engine.compute(graph);
+    }
+
+    @Benchmark
+    public PageRankEngine.Result warmStart() {
+        return engine.compute(graph, converged);
+    }
+}
@@ -0,0 +1,83 @@
+package com.ios.icl.bench;
+
+import com.ios.icl.DocumentVectors;
+import com.ios.icl.PostingsIndex;
+import com.ios.icl.VectorSearchEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Косинусный top-10 по {@link PostingsIndex} на синтетической коллекции {@link SyntheticCorpus}:
+ * то, что делает searchByTokens после векторизации запроса, но на 10k–1M документов.
+ * Каждый вызов считает 16 запросов: по одному с MaxScore и полным подсчётом
+ * и одним пакетом {@link PostingsIndex#searchBatch}. Результат — на один запрос.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@OperationsPerInvocation(PostingsIndexBenchmark.BATCH)
+public class PostingsIndexBenchmark {
+    static final int BATCH = 16;
+    private static final int QUERIES = 1024;
+
+    @Param({"10000", "100000", "1000000"})
+    public int docs;
+
+    private PostingsIndex index;
+    private List<Map<String, Double>> queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticCorpus corpus = new SyntheticCorpus(docs, 42);
+        DocumentVectors vectors = corpus.vectors();
+        index = PostingsIndex.build(vectors);
+        queries = new ArrayList<>(QUERIES);
+        // Как в VectorSearchEngine: вес термина запроса (1 + ln tf)·idf, термины без повторов
+        for (String query : corpus.textQueries(QUERIES)) {
+            Map<String, Double> qVec = new HashMap<>();
+            for (String term : query.split(" ")) {
+                double idf = vectors.idf(term);
+                if (!Double.isNaN(idf)) qVec.put(term, idf);
+            }
+            queries.add(qVec);
+        }
+    }
+
+    private List<Map<String, Double>> nextBatch() {
+        int from = next;
+        next = (next + BATCH) & (QUERIES - 1);
+        return queries.subList(from, from + BATCH);
+    }
+
+    @Benchmark
+    public int maxScore() {
+        int found = 0;
+        for (Map<String, Double> qVec : nextBatch()) {
+            found += index.search(qVec, 10, PostingsIndex.Strategy.MAXSCORE).results().size();
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int exhaustive() {
+        int found = 0;
+        for (Map<String, Double> qVec : nextBatch()) {
+            found += index.search(qVec, 10, PostingsIndex.Strategy.EXHAUSTIVE).results().size();
+        }
+        return found;
+    }
+
+    @Benchmark
+    public List<List<VectorSearchEngine.Result>> batched() {
+        return index.searchBatch(nextBatch(), 10);
+    }
+}
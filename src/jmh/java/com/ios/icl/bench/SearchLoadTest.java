@@ -0,0 +1,83 @@
+package com.ios.icl.bench;
+
+import com.ios.icl.Lemmatizer;
+import com.ios.icl.SearchLatency;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Нагрузка на /api/search запущенного приложения: заданное число клиентов на виртуальных
+ * потоках шлёт запросы без пауз, в конце печатаются пропускная способность и p50/p99
+ * со стороны клиента. Запросы — случайные сочетания 1–3 словоформ из каталога lemmas/,
+ * так что кеш результатов почти не попадает.
+ * <p>
+ * Аргументы: [адрес приложения] [число клиентов] [число запросов] [scoring]. Запускается
+ * профилем bench из каталога проекта, где лежит lemmas/:
+ * {@code mvn -Pbench compile exec:exec -Dbench.main=com.ios.icl.bench.SearchLoadTest -Dbench.args="..."}.
+ */
+public class SearchLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        String base = args.length > 0 ? args[0] : "http://localhost:8080";
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int total = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+        String scoring = args.length > 3 ? args[3] : "cosine";
+
+        List<String> words = new ArrayList<>(Lemmatizer.loadDictionary(Paths.get("lemmas")).keySet());
+        words.sort(null);
+        Random random = new Random(42);
+        List<String> queries = new ArrayList<>(total);
+        for (int i = 0; i < total; i++) {
+            StringBuilder query = new StringBuilder();
+            for (int j = random.nextInt(3); j >= 0; j--) query.append(words.get(random.nextInt(words.size()))).append(' ');
+            queries.add(query.toString().strip());
+        }
+
+        SearchLatency latency = new SearchLatency();
+        AtomicInteger next = new AtomicInteger();
+        long start = System.nanoTime();
+        try (ExecutorService clientExecutor = Executors.newVirtualThreadPerTaskExecutor();
+             HttpClient client = HttpClient.newBuilder().executor(clientExecutor).build();
+             ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                pool.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < total; i = next.getAndIncrement()) {
+                        URI uri = URI.create(base + "/api/search?scoring=" + scoring + "&query="
+                                + URLEncoder.encode(queries.get(i), StandardCharsets.UTF_8));
+                        long t = System.nanoTime();
+                        int status;
+                        try {
+                            status = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.discarding())
+                                    .statusCode();
+                        } catch (Exception e) {
+                            status = -1;
+                        }
+                        latency.record(status == 200 ? "ok" : "status " + status, System.nanoTime() - t);
+                    }
+                    return null;
+                });
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d requests, %d clients, %s: %.1f s, %.0f req/s%n", total, clients, scoring, seconds, total / seconds);
+        for (Map.Entry<String, SearchLatency.Summary> e : latency.snapshot().entrySet()) {
+            SearchLatency.Summary s = e.getValue();
+            System.out.printf("%-10s %6d  p50 %7.2f ms  p99 %7.2f ms  max %7.2f ms%n",
+                    e.getKey(), s.count(), s.p50Millis(), s.p99Millis(), s.maxMillis());
+        }
+    }
+}
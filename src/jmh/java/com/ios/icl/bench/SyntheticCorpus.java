@@ -0,0 +1,212 @@
+package com.ios.icl.bench;
+
+import com.ios.icl.BinaryIndexWriter;
+import com.ios.icl.DocumentVectors;
+import com.ios.icl.LinkGraph;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Синтетическая коллекция для замеров на 10k–1M документов, которых нет в репозитории.
+ * Частоты терминов распределены по Ципфу (s = 1), словарь растёт по закону Хипса
+ * (~40·√токенов), у каждого документа {@link #TERMS_PER_DOC} различных терминов.
+ * Ссылки между страницами тянутся к популярным страницам так же по Ципфу.
+ * Всё детерминировано по seed, так что прогоны сравнимы.
+ * <p>
+ * Термины — {@code w} и номер в 36-ричной записи фиксированной ширины, поэтому
+ * лексикографический порядок совпадает с порядком номеров.
+ */
+public final class SyntheticCorpus {
+    public static final int TERMS_PER_DOC = 40;
+    private static final int TOKENS_PER_DOC = 200;
+
+    private final int docs;
+    private final int vocabulary;
+    private final double[] zipf;
+    // Термины документа d — terms[d * TERMS_PER_DOC ..], по возрастанию; частоты в том же порядке
+    private final int[] terms;
+    private final int[] freqs;
+    private final int[] docFrequency;
+    private final long seed;
+
+    public SyntheticCorpus(int docs, long seed) {
+        this.docs = docs;
+        this.seed = seed;
+        this.vocabulary = (int) Math.max(TERMS_PER_DOC * 4, 40 * Math.sqrt((double) docs * TOKENS_PER_DOC));
+        this.zipf = cumulativeZipf(vocabulary);
+        this.terms = new int[docs * TERMS_PER_DOC];
+        this.freqs = new int[docs * TERMS_PER_DOC];
+        this.docFrequency = new int[vocabulary];
+
+        Random random = new Random(seed);
+        int[] picked = new int[TERMS_PER_DOC];
+        for (int d = 0; d < docs; d++) {
+            int count = 0;
+            while (count < TERMS_PER_DOC) {
+                int term = sample(random);
+                boolean seen = false;
+                for (int i = 0; i < count && !seen; i++) seen = picked[i] == term;
+                if (!seen) picked[count++] = term;
+            }
+            Arrays.sort(picked);
+            int base = d * TERMS_PER_DOC;
+            for (int i = 0; i < TERMS_PER_DOC; i++) {
+                terms[base + i] = picked[i];
+                // Частые термины чаще повторяются и внутри документа
+                freqs[base + i] = 1 + (int) (-Math.log(1 - random.nextDouble()) * (picked[i] < 100 ? 4 : 1));
+                docFrequency[picked[i]]++;
+            }
+        }
+    }
+
+    private static double[] cumulativeZipf(int size) {
+        double[] cumulative = new double[size];
+        double sum = 0;
+        for (int r = 0; r < size; r++) {
+            sum += 1.0 / (r + 1);
+            cumulative[r] = sum;
+        }
+        for (int r = 0; r < size; r++) cumulative[r] /= sum;
+        return cumulative;
+    }
+
+    private int sample(Random random) {
+        int i = Arrays.binarySearch(zipf, random.nextDouble());
+        return Math.min(i >= 0 ? i : -i - 1, vocabulary - 1);
+    }
+
+    public int docs() {
+        return docs;
+    }
+
+    public int vocabulary() {
+        return vocabulary;
+    }
+
+    public static String term(int id) {
+        String digits = Integer.toString(id, 36);
+        return "w" + "0000".substring(Math.min(digits.length(), 4)) + digits;
+    }
+
+    /**
+     * TF-IDF векторы в формате tfidf-файлов: вес (1 + ln tf)·idf, idf = ln(N / df).
+     * Номера страниц — 1..docs.
+     */
+    public DocumentVectors vectors() {
+        DocumentVectors.Builder builder = new DocumentVectors.Builder();
+        for (int d = 0; d < docs; d++) {
+            for (int i = d * TERMS_PER_DOC; i < (d + 1) * TERMS_PER_DOC; i++) {
+                double idf = Math.log((double) docs / docFrequency[terms[i]]);
+                builder.add(term(terms[i]), idf, (float) ((1 + Math.log(freqs[i])) * idf));
+            }
+            builder.endDocument(d + 1);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Бинарный инвертированный индекс, как его пишет IndexBuilder.
+     */
+    public void writeBinaryIndex(Path file) throws IOException {
+        int[] offsets = new int[vocabulary + 1];
+        for (int term : terms) offsets[term + 1]++;
+        for (int t = 0; t < vocabulary; t++) offsets[t + 1] += offsets[t];
+        int[] postingDocs = new int[terms.length];
+        int[] postingForms = new int[terms.length];
+        int[] fill = Arrays.copyOf(offsets, vocabulary);
+        for (int i = 0; i < terms.length; i++) {
+            int at = fill[terms[i]]++;
+            postingDocs[at] = i / TERMS_PER_DOC + 1;
+            postingForms[at] = freqs[i];
+        }
+        try (BinaryIndexWriter writer = new BinaryIndexWriter(file)) {
+            for (int t = 0; t < vocabulary; t++) {
+                if (offsets[t] == offsets[t + 1]) continue;
+                writer.add(term(t), Arrays.copyOfRange(postingDocs, offsets[t], offsets[t + 1]),
+                        Arrays.copyOfRange(postingForms, offsets[t], offsets[t + 1]));
+            }
+        }
+    }
+
+    /**
+     * Файлы {@code lemmas<docId>.txt}, как их пишет TextProcessor: лемма и её словоформы,
+     * число словоформ равно частоте.
+     */
+    public void writeLemmaFiles(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        for (int d = 0; d < docs; d++) {
+            try (BufferedWriter writer = Files.newBufferedWriter(dir.resolve("lemmas" + (d + 1) + ".txt"))) {
+                for (int i = d * TERMS_PER_DOC; i < (d + 1) * TERMS_PER_DOC; i++) {
+                    String lemma = term(terms[i]);
+                    writer.write(lemma);
+                    for (int f = 0; f < freqs[i]; f++) writer.write(" " + lemma + (f == 0 ? "" : "s"));
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    /**
+     * Граф ссылок: у страницы в среднем avgOutDegree исходящих, цели выбираются по Ципфу
+     * (на первые страницы ссылаются чаще), около 5% страниц без исходящих ссылок.
+     */
+    public LinkGraph linkGraph(int avgOutDegree) {
+        Random random = new Random(seed + 1);
+        double[] popularity = cumulativeZipf(docs);
+        int[] docIds = new int[docs];
+        int[][] adjacency = new int[docs][];
+        for (int v = 0; v < docs; v++) {
+            docIds[v] = v + 1;
+            int degree = random.nextInt(20) == 0 ? 0 : random.nextInt(2 * avgOutDegree + 1);
+            int[] targets = new int[degree];
+            int count = 0;
+            for (int i = 0; i < degree; i++) {
+                int target = Arrays.binarySearch(popularity, random.nextDouble());
+                target = Math.min(target >= 0 ? target : -target - 1, docs - 1);
+                if (target != v) targets[count++] = target;
+            }
+            adjacency[v] = Arrays.stream(targets, 0, count).sorted().distinct().toArray();
+        }
+        return LinkGraph.fromAdjacency(docIds, adjacency);
+    }
+
+    /**
+     * Запросы из двух-трёх терминов, взятых по той же частоте, что и в документах.
+     */
+    public String[] textQueries(int count) {
+        Random random = new Random(seed + 2);
+        String[] queries = new String[count];
+        for (int q = 0; q < count; q++) {
+            int words = 2 + random.nextInt(2);
+            StringBuilder query = new StringBuilder(term(sample(random)));
+            for (int i = 1; i < words; i++) query.append(' ').append(term(sample(random)));
+            queries[q] = query.toString();
+        }
+        return queries;
+    }
+
+    /**
+     * Булевы запросы вида {@code a AND b}, {@code a OR b AND c}, {@code a AND NOT b}, {@code (a OR b) AND c}.
+     */
+    public String[] booleanQueries(int count) {
+        Random random = new Random(seed + 3);
+        String[] queries = new String[count];
+        for (int q = 0; q < count; q++) {
+            String a = term(sample(random));
+            String b = term(sample(random));
+            String c = term(sample(random));
+            queries[q] = switch (q % 4) {
+                case 0 -> a + " AND " + b;
+                case 1 -> a + " OR " + b + " AND " + c;
+                case 2 -> a + " AND NOT " + b;
+                default -> "(" + a + " OR " + b + ") AND " + c;
+            };
+        }
+        return queries;
+    }
+}
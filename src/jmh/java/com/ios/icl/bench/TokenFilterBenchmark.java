@@ -0,0 +1,119 @@
+package com.ios.icl.bench;
+
+import com.ios.icl.StopWords;
+import com.ios.icl.TokenFilter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Цепочка {@link TokenFilter} против прежней проверки токена: {@code toLowerCase}
+ * и два {@code String.matches} на каждое слово. Токены — смесь обычных слов, слов
+ * с заглавной буквы, стоп-слов, чисел и знаков препинания, как после токенизатора.
+ * Результат в ops/s равен токенам в секунду.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(TokenFilterBenchmark.TOKENS)
+public class TokenFilterBenchmark {
+    static final int TOKENS = 10_000;
+
+    private static final Set<String> LEGACY_STOP_WORDS = new HashSet<>(Arrays.asList(
+            "a", "an", "the", "and", "or", "but", "of", "at", "by", "for",
+            "with", "about", "to", "from", "in", "on", "that", "as", "it",
+            "is", "be", "are", "was", "were", "this", "which", "have", "has"
+    ));
+
+    private String[] tokens;
+    private String text;
+    private int[] starts;
+    private int[] ends;
+    private final TokenFilter filter = TokenFilter.defaults(StopWords.DEFAULT);
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        String[] stop = LEGACY_STOP_WORDS.toArray(new String[0]);
+        String[] punctuation = {",", ".", "(", ")", "--", "'s", "n't", ":"};
+        tokens = new String[TOKENS];
+        for (int i = 0; i < TOKENS; i++) {
+            int kind = random.nextInt(10);
+            tokens[i] = switch (kind) {
+                case 0, 1 -> stop[random.nextInt(stop.length)];
+                case 2 -> Integer.toString(random.nextInt(100_000));
+                case 3 -> punctuation[random.nextInt(punctuation.length)];
+                case 4 -> "x" + random.nextInt(100) + "y";
+                default -> {
+                    String word = word(random);
+                    yield kind == 5 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word;
+                }
+            };
+        }
+
+        StringBuilder sb = new StringBuilder();
+        starts = new int[TOKENS];
+        ends = new int[TOKENS];
+        for (int i = 0; i < TOKENS; i++) {
+            starts[i] = sb.length();
+            sb.append(tokens[i]);
+            ends[i] = sb.length();
+            sb.append(' ');
+        }
+        text = sb.toString();
+
+        if (legacyRegex() != chain()) throw new IllegalStateException("Filters disagree");
+    }
+
+    private static String word(Random random) {
+        int length = 2 + random.nextInt(10);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) chars[i] = (char) ('a' + random.nextInt(26));
+        return new String(chars);
+    }
+
+    private static boolean legacyIsValidToken(String token) {
+        return !LEGACY_STOP_WORDS.contains(token) &&
+                !token.matches(".*\\d.*") &&
+                token.matches("^[a-zA-Z']+$") &&
+                token.length() > 2;
+    }
+
+    @Benchmark
+    public int legacyRegex() {
+        int accepted = 0;
+        for (String token : tokens) {
+            String word = token.toLowerCase();
+            if (legacyIsValidToken(word)) accepted++;
+        }
+        return accepted;
+    }
+
+    /**
+     * Как в {@code Lemmatizer}: сначала фильтр, в нижний регистр — только принятые.
+     */
+    @Benchmark
+    public int chain() {
+        int accepted = 0;
+        for (String token : tokens) {
+            if (filter.accept(token) && !token.toLowerCase().isEmpty()) accepted++;
+        }
+        return accepted;
+    }
+
+    /**
+     * Токены как диапазоны одного текста, без отдельных строк.
+     */
+    @Benchmark
+    public int chainRange() {
+        int accepted = 0;
+        for (int i = 0; i < TOKENS; i++) {
+            if (filter.accept(text, starts[i], ends[i])) accepted++;
+        }
+        return accepted;
+    }
+}
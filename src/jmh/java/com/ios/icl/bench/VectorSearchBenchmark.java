@@ -0,0 +1,87 @@
+package com.ios.icl.bench;
+
+import com.ios.icl.Lemmatizer;
+import com.ios.icl.VectorSearchEngine;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link VectorSearchEngine} целиком на файлах репозитория ({@code tfidf_tokens/}, {@code tfidf_lemmas/},
+ * {@code lemmas/}): векторизация запроса, кеши и ранжирование по токенам, леммам и обоим сразу.
+ * <p>
+ * {@code cache=hit} гоняет по кругу 1024 запроса, и после первого круга они отдаются из кеша.
+ * {@code cache=miss} дописывает к каждому запросу несуществующий термин с новым номером:
+ * ключ кеша каждый раз новый, а кандидаты те же, что без него (меняется только норма запроса).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VectorSearchBenchmark {
+    private static final int QUERIES = 1024;
+
+    @Param({"tokens", "lemmas", "both"})
+    public String mode;
+
+    @Param({"miss", "hit"})
+    public String cache;
+
+    private VectorSearchEngine engine;
+    private String[] queries;
+    private int next;
+    private long unique;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        engine = new VectorSearchEngine();
+        engine.init();
+        // При ленивом старте леммы догружаются после init
+        while (true) {
+            try {
+                engine.searchByLemmas("warmup", 1);
+                break;
+            } catch (ResponseStatusException e) {
+                Thread.sleep(50);
+            }
+        }
+
+        List<String> words = new ArrayList<>(Lemmatizer.loadDictionary(Path.of("lemmas")).keySet());
+        words.sort(null);
+        Random random = new Random(42);
+        queries = new String[QUERIES];
+        for (int q = 0; q < QUERIES; q++) {
+            StringBuilder query = new StringBuilder(words.get(random.nextInt(words.size())));
+            for (int i = random.nextInt(3); i > 0; i--) query.append(' ').append(words.get(random.nextInt(words.size())));
+            queries[q] = query.toString();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    private String nextQuery() {
+        String query = queries[next++ & (QUERIES - 1)];
+        return cache.equals("miss") ? query + " zzq" + unique++ : query;
+    }
+
+    @Benchmark
+    public List<VectorSearchEngine.Result> search() {
+        String query = nextQuery();
+        return switch (mode) {
+            case "tokens" -> engine.searchByTokens(query, 10);
+            case "lemmas" -> engine.searchByLemmas(query, 10);
+            default -> engine.searchByBoth(query, 10);
+        };
+    }
+}
@@ -0,0 +1,150 @@
+package com.ios.icl;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Потоковая запись индекса в бинарный формат {@link BinaryInvertedIndex}.
+ * Термины должны поступать в порядке {@link String#compareTo}: постинги
+ * сразу уходят на диск, в памяти копится только словарь.
+ */
+public class BinaryIndexWriter implements Closeable {
+    private final FileChannel channel;
+    private final CountingOutputStream out;
+    private final ByteArrayOutputStream dict = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream blockIndex = new ByteArrayOutputStream();
+    private final BitSet allDocs = new BitSet();
+
+    private byte[] previousTerm;
+    private String previousTermString;
+    private long previousPostingsOffset;
+    private int termCount;
+
+    public BinaryIndexWriter(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.out = new CountingOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+        out.write(new byte[BinaryInvertedIndex.HEADER_SIZE]);
+    }
+
+    /**
+     * @param docs  номера документов по возрастанию
+     * @param forms число словоформ термина в соответствующих документах, см. {@link BinaryInvertedIndex}
+     */
+    public void add(String term, int[] docs, int[] forms) throws IOException {
+        if (previousTermString != null && previousTermString.compareTo(term) >= 0) {
+            throw new IllegalArgumentException("Terms must be added in sorted order: " + term);
+        }
+        if (docs.length != forms.length) {
+            throw new IllegalArgumentException("docs and forms differ in length for " + term);
+        }
+
+        long postingsOffset = out.count - BinaryInvertedIndex.HEADER_SIZE;
+        int last = 0;
+        for (int i = 0; i < docs.length; i++) {
+            if (i > 0 && docs[i] <= last) {
+                throw new IllegalArgumentException("Postings of " + term + " are not strictly ascending");
+            }
+            writeVInt(out, docs[i] - last);
+            writeVInt(out, forms[i]);
+            last = docs[i];
+            allDocs.set(docs[i]);
+        }
+
+        byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+        if (termCount % BinaryInvertedIndex.BLOCK_SIZE == 0) {
+            writeVLong(blockIndex, dict.size());
+            writeVInt(dict, bytes.length);
+            dict.write(bytes);
+            writeVLong(dict, postingsOffset);
+        } else {
+            int prefix = commonPrefix(previousTerm, bytes);
+            writeVInt(dict, prefix);
+            writeVInt(dict, bytes.length - prefix);
+            dict.write(bytes, prefix, bytes.length - prefix);
+            writeVLong(dict, postingsOffset - previousPostingsOffset);
+        }
+        writeVInt(dict, docs.length);
+
+        previousTerm = bytes;
+        previousTermString = term;
+        previousPostingsOffset = postingsOffset;
+        termCount++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            long dictOffset = out.count;
+            dict.writeTo(out);
+            long blockIndexOffset = out.count;
+            blockIndex.writeTo(out);
+            long docsOffset = out.count;
+            writeVInt(out, allDocs.cardinality());
+            int last = 0;
+            for (int doc = allDocs.nextSetBit(0); doc >= 0; doc = allDocs.nextSetBit(doc + 1)) {
+                writeVInt(out, doc - last);
+                last = doc;
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(BinaryInvertedIndex.HEADER_SIZE);
+            header.putInt(BinaryInvertedIndex.MAGIC)
+                    .putInt(BinaryInvertedIndex.VERSION)
+                    .putInt(termCount)
+                    .putInt(allDocs.cardinality())
+                    .putInt((termCount + BinaryInvertedIndex.BLOCK_SIZE - 1) / BinaryInvertedIndex.BLOCK_SIZE)
+                    .putLong(dictOffset)
+                    .putLong(blockIndexOffset)
+                    .putLong(docsOffset);
+            header.clear();
+            channel.write(header, 0);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int commonPrefix(byte[] a, byte[] b) {
+        int mismatch = Arrays.mismatch(a, b);
+        return mismatch < 0 ? a.length : mismatch;
+    }
+
+    static void writeVInt(OutputStream out, int value) throws IOException {
+        writeVLong(out, value & 0xFFFFFFFFL);
+    }
+
+    static void writeVLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
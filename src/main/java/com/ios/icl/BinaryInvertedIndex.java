@@ -0,0 +1,215 @@
+package com.ios.icl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Бинарный индекс, отображаемый в память через {@link FileChannel#map}.
+ * При открытии читается только заголовок, всё остальное декодируется по запросу.
+ * <pre>
+ * header     magic, version, termCount, docCount, blockCount, dictOffset, blockIndexOffset, docsOffset
+ * postings   на каждый термин: vint(docΔ) vint(forms) ...
+ * dict       блоки по {@value #BLOCK_SIZE} терминов с front coding:
+ *            первый термин целиком + vlong(offset), остальные vint(prefix) vint(suffixLen) suffix + vlong(offsetΔ);
+ *            после каждого термина vint(df)
+ * blockIndex vlong смещения каждого блока внутри dict
+ * docs       vint(count) и vint(docΔ) всех документов коллекции
+ * </pre>
+ * forms — сколько разных словоформ леммы встретилось в документе (столько слов после леммы
+ * в строке lemmas-файла), а не сколько раз она встретилась: lemmas-файлы повторов не хранят.
+ * Индекс, перегнанный из текстового ({@code IndexBuilder --from-text}), пишет 1. Настоящие
+ * частоты для ранжирования — в позиционном индексе, см. {@link PositionalIndex}.
+ */
+public class BinaryInvertedIndex implements InvertedIndex {
+    static final int MAGIC = 0x4F495058; // "OIPX"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int BLOCK_SIZE = 16;
+
+    private final ByteBuffer buffer;
+    private final int termCount;
+    private final int docCount;
+    private final long[] blockOffsets;
+    private final int dictOffset;
+    private final int docsOffset;
+    private volatile int[] allDocs;
+
+    private BinaryInvertedIndex(ByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC) throw new IllegalStateException("Not a binary inverted index");
+        if (buffer.getInt(4) != VERSION) throw new IllegalStateException("Unsupported index version " + buffer.getInt(4));
+        this.termCount = buffer.getInt(8);
+        this.docCount = buffer.getInt(12);
+        int blockCount = buffer.getInt(16);
+        this.dictOffset = (int) buffer.getLong(20);
+        int blockIndexOffset = (int) buffer.getLong(28);
+        this.docsOffset = (int) buffer.getLong(36);
+
+        this.blockOffsets = new long[blockCount];
+        Cursor c = new Cursor(blockIndexOffset);
+        for (int i = 0; i < blockCount; i++) blockOffsets[i] = c.readVLong();
+    }
+
+    /**
+     * Отображает файл в память; файлы больше 2 ГБ этим форматом не поддерживаются.
+     */
+    public static BinaryInvertedIndex open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new BinaryInvertedIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    @Override
+    public int[] postings(String term) {
+        TermInfo info = lookup(term);
+        if (info == null) return new int[0];
+        int[] docs = new int[info.df];
+        Cursor c = new Cursor((int) (HEADER_SIZE + info.postingsOffset));
+        int doc = 0;
+        for (int i = 0; i < docs.length; i++) {
+            doc += c.readVInt();
+            docs[i] = doc;
+            c.readVInt();
+        }
+        return docs;
+    }
+
+    /**
+     * @return число словоформ термина в документах в порядке {@link #postings(String)};
+     * это не частота термина, см. описание формата
+     */
+    public int[] formCounts(String term) {
+        TermInfo info = lookup(term);
+        if (info == null) return new int[0];
+        int[] forms = new int[info.df];
+        Cursor c = new Cursor((int) (HEADER_SIZE + info.postingsOffset));
+        for (int i = 0; i < forms.length; i++) {
+            c.readVInt();
+            forms[i] = c.readVInt();
+        }
+        return forms;
+    }
+
+    @Override
+    public int docFrequency(String term) {
+        TermInfo info = lookup(term);
+        return info == null ? 0 : info.df;
+    }
+
+    @Override
+    public int[] allDocs() {
+        int[] docs = allDocs;
+        if (docs == null) {
+            Cursor c = new Cursor(docsOffset);
+            docs = new int[c.readVInt()];
+            int doc = 0;
+            for (int i = 0; i < docs.length; i++) {
+                doc += c.readVInt();
+                docs[i] = doc;
+            }
+            allDocs = docs;
+        }
+        return docs;
+    }
+
+    @Override
+    public int termCount() {
+        return termCount;
+    }
+
+    public int docCount() {
+        return docCount;
+    }
+
+    private TermInfo lookup(String term) {
+        // Двоичный поиск блока по первому термину, затем линейный проход внутри блока
+        int lo = 0;
+        int hi = blockOffsets.length - 1;
+        int block = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = firstTerm(mid).compareTo(term);
+            if (cmp == 0) {
+                block = mid;
+                break;
+            }
+            if (cmp < 0) {
+                block = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (block < 0) return null;
+
+        Cursor c = new Cursor((int) (dictOffset + blockOffsets[block]));
+        int inBlock = Math.min(BLOCK_SIZE, termCount - block * BLOCK_SIZE);
+        byte[] current = new byte[0];
+        long offset = 0;
+        for (int i = 0; i < inBlock; i++) {
+            if (i == 0) {
+                current = c.readBytes(c.readVInt());
+                offset = c.readVLong();
+            } else {
+                int prefix = c.readVInt();
+                byte[] suffix = c.readBytes(c.readVInt());
+                byte[] next = Arrays.copyOf(current, prefix + suffix.length);
+                System.arraycopy(suffix, 0, next, prefix, suffix.length);
+                current = next;
+                offset += c.readVLong();
+            }
+            int df = c.readVInt();
+            int cmp = new String(current, StandardCharsets.UTF_8).compareTo(term);
+            if (cmp == 0) return new TermInfo(df, offset);
+            if (cmp > 0) return null;
+        }
+        return null;
+    }
+
+    private String firstTerm(int block) {
+        Cursor c = new Cursor((int) (dictOffset + blockOffsets[block]));
+        return new String(c.readBytes(c.readVInt()), StandardCharsets.UTF_8);
+    }
+
+    private record TermInfo(int df, long postingsOffset) {
+    }
+
+    /**
+     * Чтение по абсолютным смещениям, чтобы общий буфер можно было читать из нескольких потоков.
+     */
+    private final class Cursor {
+        int pos;
+
+        Cursor(int pos) {
+            this.pos = pos;
+        }
+
+        int readVInt() {
+            return (int) readVLong();
+        }
+
+        long readVLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(pos++);
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        byte[] readBytes(int length) {
+            byte[] bytes = new byte[length];
+            buffer.get(pos, bytes);
+            pos += length;
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.ios.icl;
+
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * BM25 и BM25F (поля «заголовок» и «тело») по позиционному индексу.
+ * <p>
+ * Частоты берутся прямо из постингов, длины документов — из таблицы документов индекса.
+ * Всё, что зависит только от документа, считается один раз при создании, поэтому вклад
+ * постинга — одно деление, а оценка документа — сумма вкладов терминов запроса без норм.
+ * <pre>
+ * BM25   idf · tf·(k1+1) / (tf + k1·(1 − b + b·len/avgLen))
+ * BM25F  tf' = w_title·tf_title / (1 − b_title + b_title·len_title/avgTitle) + tf_body / (1 − b + b·len_body/avgBody)
+ *        idf · tf'·(k1+1) / (tf' + k1)
+ * idf    ln(1 + (N − df + 0.5) / (df + 0.5))
+ * </pre>
+ * Заголовок — первые {@link PositionalIndex.DocLength#titleWords()} позиций документа.
+ */
+public class Bm25Scorer {
+
+    /**
+     * @param titleWeight во сколько раз слово заголовка весомее слова тела
+     * @param titleB      нормировка по длине для заголовка; b — для тела и документа целиком
+     */
+    public record Parameters(double k1, double b, double titleWeight, double titleB) {
+        public static final Parameters DEFAULT = new Parameters(1.2, 0.75, 3.0, 0.5);
+    }
+
+    private final PositionalIndex index;
+    private final Parameters params;
+    private final int docCount;
+    private final int[] titleWords;
+    // k1·(1 − b + b·len/avgLen) для BM25 и знаменатели нормировки полей для BM25F, по номеру документа
+    private final double[] docNorm;
+    private final double[] titleNorm;
+    private final double[] bodyNorm;
+    private final PostingsIndex.Accumulator.Pool accumulators;
+    private final QueryCache<String, PositionalIndex.Postings> postingsCache;
+
+    public Bm25Scorer(PositionalIndex index, Parameters params) {
+        this(index, params, 10_000);
+    }
+
+    /**
+     * @param postingsCacheSize сколько декодированных списков постингов держать между запросами;
+     *                          индекс неизменяем, поэтому срока жизни у записей нет. 0 — без кеша
+     */
+    public Bm25Scorer(PositionalIndex index, Parameters params, int postingsCacheSize) {
+        this.index = index;
+        this.params = params;
+        SortedMap<Integer, PositionalIndex.DocLength> lengths = index.docLengths();
+        this.docCount = Math.max(lengths.size(), index.docCount());
+        int size = lengths.isEmpty() ? 1 : lengths.lastKey() + 1;
+        this.titleWords = new int[size];
+        this.docNorm = new double[size];
+        this.titleNorm = new double[size];
+        this.bodyNorm = new double[size];
+
+        double avgLength = lengths.values().stream().mapToInt(PositionalIndex.DocLength::words).average().orElse(0);
+        double avgTitle = lengths.values().stream().mapToInt(PositionalIndex.DocLength::titleWords).average().orElse(0);
+        double avgBody = lengths.values().stream().mapToInt(l -> l.words() - l.titleWords()).average().orElse(0);
+        Arrays.fill(docNorm, params.k1());
+        Arrays.fill(titleNorm, 1);
+        Arrays.fill(bodyNorm, 1);
+        lengths.forEach((doc, length) -> {
+            titleWords[doc] = length.titleWords();
+            docNorm[doc] = params.k1() * normalization(params.b(), length.words(), avgLength);
+            titleNorm[doc] = normalization(params.titleB(), length.titleWords(), avgTitle);
+            bodyNorm[doc] = normalization(params.b(), length.words() - length.titleWords(), avgBody);
+        });
+        this.accumulators = new PostingsIndex.Accumulator.Pool(size);
+        this.postingsCache = postingsCacheSize > 0 ? new QueryCache<>(postingsCacheSize, Duration.ZERO) : null;
+    }
+
+    /**
+     * @return статистика кеша постингов либо null, если он выключен
+     */
+    public QueryCache.Stats postingsCacheStats() {
+        return postingsCache == null ? null : postingsCache.stats();
+    }
+
+    /**
+     * @return примерный объём норм документов в куче; сам позиционный индекс отображён в память вне кучи
+     */
+    public long estimatedBytes() {
+        return 4L * titleWords.length + 8L * (docNorm.length + titleNorm.length + bodyNorm.length);
+    }
+
+    private PositionalIndex.Postings postings(String term) {
+        return postingsCache == null ? index.postings(term) : postingsCache.get(term, index::postings);
+    }
+
+    private static double normalization(double b, int length, double average) {
+        return average == 0 ? 1 : 1 - b + b * length / average;
+    }
+
+    public Parameters parameters() {
+        return params;
+    }
+
+    public double idf(int df) {
+        return Math.log(1 + (docCount - df + 0.5) / (df + 0.5));
+    }
+
+    /**
+     * Term-at-a-time по постингам терминов запроса.
+     *
+     * @param queryTerms термин → сколько раз он встретился в запросе
+     * @param fields     BM25F с отдельными полями вместо BM25 по документу целиком
+     */
+    public List<VectorSearchEngine.Result> search(Map<String, Integer> queryTerms, int topK, boolean fields) {
+        if (topK <= 0 || queryTerms.isEmpty()) return List.of();
+        PostingsIndex.Accumulator acc = accumulators.acquire();
+        try {
+            double k1 = params.k1();
+            for (var e : queryTerms.entrySet()) {
+                PositionalIndex.Postings p = postings(e.getKey());
+                if (p.size() == 0) continue;
+                double weight = e.getValue() * idf(p.size()) * (k1 + 1);
+                int[] docs = p.docs();
+                for (int i = 0; i < docs.length; i++) {
+                    int doc = docs[i];
+                    int tf = p.freq(i);
+                    if (fields) {
+                        int inTitle = titleWords[doc] == 0 ? 0 : p.countBelow(i, titleWords[doc]);
+                        double pseudo = params.titleWeight() * inTitle / titleNorm[doc] + (tf - inTitle) / bodyNorm[doc];
+                        acc.add(doc, weight * pseudo / (pseudo + k1));
+                    } else {
+                        acc.add(doc, weight * tf / (tf + docNorm[doc]));
+                    }
+                }
+            }
+
+            TopKCollector top = new TopKCollector(topK);
+            for (int i = 0; i < acc.touchedCount; i++) {
+                int doc = acc.touched[i];
+                top.offer(doc, acc.scores[doc]);
+            }
+            List<VectorSearchEngine.Result> results = new ArrayList<>();
+            for (TopKCollector.Entry entry : top.drain()) {
+                results.add(new VectorSearchEngine.Result(entry.doc(), entry.score()));
+            }
+            return results;
+        } finally {
+            accumulators.release(acc);
+        }
+    }
+}
@@ -7,8 +7,13 @@ import java.util.stream.Collectors;
 
 public class BooleanSearch {
     private static final String INDEX_FILE = "inverted_index.txt";
-    private final Map<String, Set<Integer>> index = new HashMap<>();
-    private final Set<Integer> allDocs = new HashSet<>();
+    private static final String BINARY_INDEX_FILE = IndexBuilder.BINARY_INDEX_FILE;
+    private static final String POSITIONAL_INDEX_FILE = IndexBuilder.POSITIONAL_INDEX_FILE;
+    private static final String EXPLAIN_PREFIX = "explain ";
+    private final QueryParser parser = new QueryParser();
+    private InvertedIndex index;
+    private QueryPlanner planner;
+    private int[] allDocs;
 
     public static void main(String[] args) throws IOException {
         BooleanSearch searcher = new BooleanSearch();
@@ -16,24 +21,23 @@ public class BooleanSearch {
         searcher.runConsole();
     }
 
+    /**
+     * Бинарный индекс отображается в память, текстовый остаётся запасным вариантом.
+     * Без позиционного индекса фразы и NEAR недоступны, остальные запросы работают.
+     */
     private void loadIndex() throws IOException {
-        Files.lines(Paths.get(INDEX_FILE)).forEach(line -> {
-            String[] parts = line.split(":");
-            if (parts.length != 2) return;
-
-            String term = parts[0];
-            Set<Integer> docs = Arrays.stream(parts[1].split(","))
-                .map(Integer::parseInt)
-                .collect(Collectors.toSet());
-
-            index.put(term, docs);
-            allDocs.addAll(docs);
-        });
+        Path binary = Paths.get(BINARY_INDEX_FILE);
+        index = Files.exists(binary)
+                ? BinaryInvertedIndex.open(binary)
+                : TextInvertedIndex.load(Paths.get(INDEX_FILE));
+        allDocs = index.allDocs();
+        Path positional = Paths.get(POSITIONAL_INDEX_FILE);
+        planner = new QueryPlanner(index, Files.exists(positional) ? PositionalIndex.open(positional) : null);
     }
 
     private void runConsole() {
         Scanner scanner = new Scanner(System.in);
-        System.out.println("Boolean Search (AND/OR/NOT, use parentheses)");
+        System.out.println("Boolean Search (AND/OR/NOT, \"phrase\", a NEAR/k b, use parentheses; prefix with 'explain' to see the plan)");
 
         while (true) {
             System.out.print("Query> ");
@@ -42,10 +46,14 @@ public class BooleanSearch {
             if (query.equalsIgnoreCase("exit")) break;
             
             try {
-                Set<Integer> result = evaluate(query);
-                System.out.println("Results: " + result.stream()
-                    .sorted()
-                    .map(Object::toString)
+                if (query.toLowerCase().startsWith(EXPLAIN_PREFIX)) {
+                    System.out.print(explain(query.substring(EXPLAIN_PREFIX.length())));
+                    System.out.println();
+                    continue;
+                }
+                int[] result = evaluate(query);
+                System.out.println("Results: " + Arrays.stream(result)
+                    .mapToObj(Integer::toString)
                     .collect(Collectors.joining(", ")));
             } catch (Exception e) {
                 System.out.println("Error: " + e.getMessage());
@@ -54,88 +62,16 @@ public class BooleanSearch {
         scanner.close();
     }
 
-    private Set<Integer> evaluate(String query) {
-        return parseExpression(query.toLowerCase()
-            .replaceAll("\\s+", " ")
-            .replace("(", " ( ")
-            .replace(")", " ) "));
-    }
-
-    private Set<Integer> parseExpression(String expr) {
-        Stack<Set<Integer>> stack = new Stack<>();
-        Stack<String> ops = new Stack<>();
-        
-        for (String token : expr.split("\\s+")) {
-            if (token.isEmpty()) continue;
-            
-            switch (token) {
-                case "(":
-                    ops.push(token);
-                    break;
-                case ")":
-                    while (!ops.peek().equals("(")) 
-                        stack.push(applyOp(ops.pop(), stack.pop(), stack.pop()));
-                    ops.pop();
-                    break;
-                case "and":
-                case "or":
-                case "not":
-                    while (!ops.isEmpty() && precedence(ops.peek()) >= precedence(token)) 
-                        stack.push(applyOp(ops.pop(), stack.pop(), stack.pop()));
-                    ops.push(token);
-                    break;
-                default:
-                    stack.push(getDocsForTerm(token));
-            }
-        }
-
-        while (!ops.isEmpty()) 
-            stack.push(applyOp(ops.pop(), stack.pop(), stack.pop()));
-
-        return stack.pop();
-    }
-
-    private Set<Integer> applyOp(String op, Set<Integer> b, Set<Integer> a) {
-        switch (op) {
-            case "and": return intersection(a, b);
-            case "or": return union(a, b);
-            case "not": return difference(a, b);
-            default: throw new IllegalArgumentException("Unknown operator: " + op);
-        }
-    }
-
-    private Set<Integer> getDocsForTerm(String term) {
-        if (term.startsWith("not")) {
-            String cleanTerm = term.substring(3);
-            return difference(allDocs, index.getOrDefault(cleanTerm, Collections.emptySet()));
-        }
-        return index.getOrDefault(term, Collections.emptySet());
-    }
-
-    private int precedence(String op) {
-        switch (op) {
-            case "not": return 3;
-            case "and": return 2;
-            case "or": return 1;
-            default: return 0;
-        }
-    }
-
-    private Set<Integer> union(Set<Integer> a, Set<Integer> b) {
-        Set<Integer> result = new HashSet<>(a);
-        result.addAll(b);
-        return result;
-    }
-
-    private Set<Integer> intersection(Set<Integer> a, Set<Integer> b) {
-        Set<Integer> result = new HashSet<>(a);
-        result.retainAll(b);
-        return result;
+    private int[] evaluate(String query) {
+        return planner.plan(parser.parse(query)).execute().materialize(allDocs);
     }
 
-    private Set<Integer> difference(Set<Integer> a, Set<Integer> b) {
-        Set<Integer> result = new HashSet<>(a);
-        result.removeAll(b);
-        return result;
+    /**
+     * Выполняет запрос и возвращает план с оценками и фактическими мощностями узлов.
+     */
+    private String explain(String query) {
+        QueryPlanner.Plan plan = planner.plan(parser.parse(query));
+        int[] result = plan.execute().materialize(allDocs);
+        return plan.explain() + "Results: " + result.length;
     }
 }
\ No newline at end of file
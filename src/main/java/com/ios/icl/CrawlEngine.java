@@ -0,0 +1,294 @@
+package com.ios.icl;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Параллельный обходчик на виртуальных потоках и {@link HttpClient}.
+ * <ul>
+ *     <li>очередь адресов (frontier) ограничена: если она заполнена, новые ссылки отбрасываются;</li>
+ *     <li>на каждый хост — не больше perHostConcurrency одновременных запросов
+ *     и не чаще одного запроса в perHostDelay;</li>
+ *     <li>найденные ссылки добавляются в очередь до глубины maxDepth от стартовых адресов.</li>
+ * </ul>
+ * Номер документа — порядковый номер адреса в очереди, а не момент окончания скачивания:
+ * стартовые адреса получают номера по порядку, ссылки страницы — по порядку на странице, и
+ * ссылки страницы встают в очередь только после ссылок всех страниц с меньшими номерами.
+ * Поэтому при тех же ответах сервера у адреса тот же номер, сколько бы запросов ни шло
+ * параллельно. Номера адресов, которые не скачались или оказались не HTML, остаются пропусками.
+ * Движок можно запускать несколько раз; после работы его нужно закрыть, чтобы освободить
+ * соединения HttpClient и его потоки.
+ */
+public class CrawlEngine implements AutoCloseable {
+
+    /**
+     * @param maxPages           сколько страниц сохранить
+     * @param maxDepth           глубина перехода по ссылкам; 0 — только стартовые адреса
+     * @param maxConcurrency     всего одновременных запросов
+     * @param perHostConcurrency одновременных запросов к одному хосту
+     * @param perHostDelay       минимальный интервал между запросами к одному хосту
+     * @param frontierCapacity   размер очереди адресов
+     */
+    public record Config(int maxPages, int maxDepth, int maxConcurrency, int perHostConcurrency,
+                         Duration perHostDelay, int frontierCapacity, Duration timeout, String userAgent) {
+
+        public static Config defaults() {
+            return new Config(100, 0, 64, 4, Duration.ofMillis(100), 10_000, Duration.ofSeconds(5), "Mozilla/5.0");
+        }
+
+        public Config withMaxPages(int maxPages) {
+            return new Config(maxPages, maxDepth, maxConcurrency, perHostConcurrency, perHostDelay,
+                    frontierCapacity, timeout, userAgent);
+        }
+
+        public Config withMaxDepth(int maxDepth) {
+            return new Config(maxPages, maxDepth, maxConcurrency, perHostConcurrency, perHostDelay,
+                    frontierCapacity, timeout, userAgent);
+        }
+
+        public Config withPerHost(int perHostConcurrency, Duration perHostDelay) {
+            return new Config(maxPages, maxDepth, maxConcurrency, perHostConcurrency, perHostDelay,
+                    frontierCapacity, timeout, userAgent);
+        }
+    }
+
+    /**
+     * Получатель скачанных HTML-страниц; вызывается из нескольких потоков.
+     */
+    @FunctionalInterface
+    public interface PageSink {
+        void accept(int docId, String url, byte[] body) throws IOException;
+    }
+
+    public record Stats(int pages, int errors, int skipped, int dropped, long bytes, long nanos) {
+        public double pagesPerSecond() {
+            return nanos == 0 ? 0 : pages * 1e9 / nanos;
+        }
+    }
+
+    private record Task(URI uri, int depth, int docId) {
+    }
+
+    /**
+     * Ссылки обработанной страницы, ждущие своей очереди.
+     */
+    private record Links(List<URI> uris, int depth) {
+    }
+
+    private final Config config;
+    private final ExecutorService clientExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final HttpClient client;
+
+    public CrawlEngine(Config config) {
+        this.config = config;
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(config.timeout())
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(clientExecutor)
+                .build();
+    }
+
+    /**
+     * Дожидается завершения начатых запросов и закрывает клиент и его потоки.
+     */
+    @Override
+    public void close() {
+        client.close();
+        clientExecutor.close();
+    }
+
+    public Stats crawl(List<String> seeds, PageSink sink) throws InterruptedException {
+        return new Crawl(sink).run(seeds);
+    }
+
+    /**
+     * Состояние одного обхода.
+     */
+    private final class Crawl {
+        private final PageSink sink;
+        private final BlockingQueue<Task> frontier = new ArrayBlockingQueue<>(config.frontierCapacity());
+        private final Set<String> seen = ConcurrentHashMap.newKeySet();
+        private final Map<String, HostGate> hosts = new ConcurrentHashMap<>();
+        private final Semaphore slots = new Semaphore(config.maxConcurrency());
+        // Задачи в очереди плюс выполняющиеся: ноль означает, что обход закончен
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicInteger saved = new AtomicInteger();
+        private final AtomicInteger errors = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicInteger dropped = new AtomicInteger();
+        private final AtomicLong bytes = new AtomicLong();
+        // Номера по порядку постановки в очередь; ссылки выпускаются в очередь по возрастанию номера страницы
+        private int discovered;
+        private int nextRelease = 1;
+        private final Map<Integer, Links> finished = new HashMap<>();
+
+        Crawl(PageSink sink) {
+            this.sink = sink;
+        }
+
+        Stats run(List<String> seeds) throws InterruptedException {
+            long start = System.nanoTime();
+            for (String seed : seeds) {
+                try {
+                    enqueue(URI.create(seed.trim()), 0);
+                } catch (IllegalArgumentException e) {
+                    errors.incrementAndGet();
+                }
+            }
+
+            try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+                while (saved.get() < config.maxPages()) {
+                    Task task = frontier.poll(20, TimeUnit.MILLISECONDS);
+                    if (task == null) {
+                        if (pending.get() == 0) break;
+                        continue;
+                    }
+                    slots.acquire();
+                    workers.submit(() -> {
+                        try {
+                            process(task);
+                        } finally {
+                            slots.release();
+                            pending.decrementAndGet();
+                        }
+                    });
+                }
+            }
+            return new Stats(Math.min(saved.get(), config.maxPages()), errors.get(), skipped.get(), dropped.get(),
+                    bytes.get(), System.nanoTime() - start);
+        }
+
+        private synchronized void enqueue(URI uri, int depth) {
+            String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase(Locale.ROOT);
+            if (!scheme.equals("http") && !scheme.equals("https") || uri.getHost() == null) return;
+            URI clean = stripFragment(uri);
+            if (!seen.add(clean.toString())) return;
+            pending.incrementAndGet();
+            if (frontier.offer(new Task(clean, depth, discovered + 1))) {
+                discovered++;
+            } else {
+                pending.decrementAndGet();
+                dropped.incrementAndGet();
+            }
+        }
+
+        /**
+         * Ссылки страницы встают в очередь, когда обработаны все страницы с меньшими номерами.
+         */
+        private synchronized void finish(Task task, List<URI> links) {
+            finished.put(task.docId(), new Links(links, task.depth() + 1));
+            for (Links next; (next = finished.remove(nextRelease)) != null; nextRelease++) {
+                for (URI uri : next.uris()) enqueue(uri, next.depth());
+            }
+        }
+
+        private void process(Task task) {
+            List<URI> links = new ArrayList<>();
+            try {
+                fetch(task, links);
+            } finally {
+                finish(task, links);
+            }
+        }
+
+        private void fetch(Task task, List<URI> links) {
+            if (saved.get() >= config.maxPages()) return;
+            HostGate gate = hosts.computeIfAbsent(task.uri().getHost(), h -> new HostGate());
+            HttpResponse<byte[]> response;
+            try {
+                gate.acquire();
+                try {
+                    HttpRequest request = HttpRequest.newBuilder(task.uri())
+                            .timeout(config.timeout())
+                            .header("User-Agent", config.userAgent())
+                            .GET()
+                            .build();
+                    response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                } finally {
+                    gate.release();
+                }
+            } catch (IOException e) {
+                errors.incrementAndGet();
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            String contentType = response.headers().firstValue("Content-Type").orElse("");
+            if (response.statusCode() != 200 || !contentType.startsWith("text/html")) {
+                skipped.incrementAndGet();
+                return;
+            }
+            if (saved.incrementAndGet() > config.maxPages()) return;
+            byte[] body = response.body();
+            bytes.addAndGet(body.length);
+            try {
+                sink.accept(task.docId(), task.uri().toString(), body);
+            } catch (IOException e) {
+                errors.incrementAndGet();
+            }
+
+            if (task.depth() < config.maxDepth()) {
+                URI base = response.uri();
+                for (String href : LinkGraphBuilder.extractHrefs(new String(body, StandardCharsets.UTF_8))) {
+                    try {
+                        links.add(base.resolve(href.replace(" ", "%20")));
+                    } catch (IllegalArgumentException ignored) {
+                        // битая ссылка на странице
+                    }
+                }
+            }
+        }
+    }
+
+    private static URI stripFragment(URI uri) {
+        if (uri.getRawFragment() == null) return uri;
+        String s = uri.toString();
+        return URI.create(s.substring(0, s.indexOf('#')));
+    }
+
+    /**
+     * Ограничение параллелизма и частоты запросов к одному хосту.
+     */
+    private final class HostGate {
+        private final Semaphore permits = new Semaphore(config.perHostConcurrency());
+        private long nextSlot;
+
+        void acquire() throws InterruptedException {
+            permits.acquire();
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long slot = Math.max(now, nextSlot);
+                nextSlot = slot + config.perHostDelay().toNanos();
+                wait = slot - now;
+            }
+            if (wait <= 0) return;
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        void release() {
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.ios.icl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Неизменяемое множество номеров документов на отсортированном {@code int[]}.
+ * Отрицание не материализуется: множество помечается как дополнение,
+ * и вычитание из коллекции откладывается до {@link #materialize(int[])}.
+ */
+public final class DocIdSet {
+    private static final int[] NO_DOCS = new int[0];
+    public static final DocIdSet EMPTY = new DocIdSet(NO_DOCS, false);
+
+    private final int[] docs;
+    private final boolean complement;
+
+    private DocIdSet(int[] docs, boolean complement) {
+        this.docs = docs;
+        this.complement = complement;
+    }
+
+    /**
+     * @param sortedDocs номера по возрастанию без повторов; массив не копируется
+     */
+    public static DocIdSet of(int[] sortedDocs) {
+        return sortedDocs.length == 0 ? EMPTY : new DocIdSet(sortedDocs, false);
+    }
+
+    public boolean isComplement() {
+        return complement;
+    }
+
+    /**
+     * Для дополнения — число исключённых документов.
+     */
+    public int rawSize() {
+        return docs.length;
+    }
+
+    public int estimatedSize(int universeSize) {
+        return complement ? Math.max(universeSize - docs.length, 0) : docs.length;
+    }
+
+    public boolean isEmpty() {
+        return !complement && docs.length == 0;
+    }
+
+    public DocIdSet not() {
+        return new DocIdSet(docs, !complement);
+    }
+
+    public DocIdSet and(DocIdSet other) {
+        if (!complement && !other.complement) return of(intersect(docs, other.docs));
+        if (!complement) return of(difference(docs, other.docs));
+        if (!other.complement) return of(difference(other.docs, docs));
+        return new DocIdSet(union(docs, other.docs), true);
+    }
+
+    public DocIdSet or(DocIdSet other) {
+        if (!complement && !other.complement) return of(union(docs, other.docs));
+        if (!complement) return new DocIdSet(difference(other.docs, docs), true);
+        if (!other.complement) return new DocIdSet(difference(docs, other.docs), true);
+        return new DocIdSet(intersect(docs, other.docs), true);
+    }
+
+    public DocIdSet andNot(DocIdSet other) {
+        return and(other.not());
+    }
+
+    /**
+     * Пересечение нескольких множеств: положительные пересекаются
+     * по возрастанию размера, отрицательные вычитаются одним объединением в конце.
+     */
+    public static DocIdSet intersectAll(List<DocIdSet> sets) {
+        if (sets.size() == 1) return sets.get(0);
+        List<DocIdSet> positive = new ArrayList<>();
+        int[] excluded = NO_DOCS;
+        for (DocIdSet set : sets) {
+            if (set.isEmpty()) return EMPTY;
+            if (set.complement) excluded = union(excluded, set.docs);
+            else positive.add(set);
+        }
+        if (positive.isEmpty()) return new DocIdSet(excluded, true);
+
+        positive.sort(Comparator.comparingInt(DocIdSet::rawSize));
+        int[] result = positive.get(0).docs;
+        for (int i = 1; i < positive.size() && result.length > 0; i++) {
+            result = intersect(result, positive.get(i).docs);
+        }
+        return of(difference(result, excluded));
+    }
+
+    /**
+     * @param universe все документы коллекции по возрастанию
+     */
+    public int[] materialize(int[] universe) {
+        return complement ? difference(universe, docs) : docs;
+    }
+
+    /**
+     * Проходит по меньшему списку и галопом ищет его элементы в большем.
+     */
+    static int[] intersect(int[] a, int[] b) {
+        if (a.length > b.length) return intersect(b, a);
+        if (a.length == 0) return NO_DOCS;
+        int[] out = new int[a.length];
+        int n = 0;
+        int from = 0;
+        for (int doc : a) {
+            from = gallop(b, from, doc);
+            if (from == b.length) break;
+            if (b[from] == doc) out[n++] = doc;
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    static int[] union(int[] a, int[] b) {
+        if (a.length == 0) return b;
+        if (b.length == 0) return a;
+        int[] out = new int[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) out[n++] = a[i++];
+            else if (a[i] > b[j]) out[n++] = b[j++];
+            else {
+                out[n++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length) out[n++] = a[i++];
+        while (j < b.length) out[n++] = b[j++];
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    static int[] difference(int[] a, int[] b) {
+        if (a.length == 0 || b.length == 0) return a;
+        int[] out = new int[a.length];
+        int n = 0;
+        int from = 0;
+        for (int doc : a) {
+            from = gallop(b, from, doc);
+            if (from == b.length || b[from] != doc) out[n++] = doc;
+        }
+        return n == out.length ? a : Arrays.copyOf(out, n);
+    }
+
+    /**
+     * @return первая позиция не меньше from, где arr[pos] >= target, либо arr.length
+     */
+    static int gallop(int[] arr, int from, int target) {
+        if (from >= arr.length || arr[from] >= target) return from;
+        int step = 1;
+        int lo = from;
+        int hi = from + 1;
+        while (hi < arr.length && arr[hi] < target) {
+            lo = hi;
+            step <<= 1;
+            hi = from + step;
+        }
+        hi = Math.min(hi, arr.length);
+        int idx = Arrays.binarySearch(arr, lo + 1, hi, target);
+        return idx >= 0 ? idx : -idx - 1;
+    }
+}
@@ -0,0 +1,181 @@
+package com.ios.icl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * TF-IDF векторы документов в разреженном виде (CSR): номера терминов и веса всех
+ * документов лежат подряд в двух массивах, документ d занимает [offset(d), offset(d + 1)).
+ * Вместо карты карт со строковыми ключами и упакованными Double — int[] и float[].
+ * <p>
+ * Документы нумеруются 0..docCount-1 по возрастанию номера страницы, термины —
+ * через общий {@link TermDictionary}. Нулевые веса не хранятся: на косинус они не влияют.
+ */
+public class DocumentVectors {
+    private final TermDictionary dictionary;
+    private final double[] idf;
+    private final int[] docIds;
+    private final int[] offsets;
+    private final int[] terms;
+    private final float[] weights;
+
+    private DocumentVectors(TermDictionary dictionary, double[] idf, int[] docIds, int[] offsets, int[] terms, float[] weights) {
+        this.dictionary = dictionary;
+        this.idf = idf;
+        this.docIds = docIds;
+        this.offsets = offsets;
+        this.terms = terms;
+        this.weights = weights;
+    }
+
+    /**
+     * Читает файлы {@code <prefix><docId>.txt} со строками {@code термин idf tfidf}.
+     * idf термина берётся из первого документа, где он встретился.
+     */
+    public static DocumentVectors load(Path dir, String prefix) throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(p -> {
+                        String name = p.getFileName().toString();
+                        return name.startsWith(prefix) && name.endsWith(".txt");
+                    })
+                    .sorted(Comparator.comparingInt(p -> docId(p, prefix)))
+                    .toList();
+        }
+
+        Builder builder = new Builder();
+        LineFields fields = new LineFields();
+        for (Path file : files) {
+            try (BufferedReader reader = Files.newBufferedReader(file)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String name = fields.reset(line).next();
+                    String idf = fields.next();
+                    String weight = fields.next();
+                    if (weight == null) continue;
+                    builder.add(name.toLowerCase(), Double.parseDouble(idf), Float.parseFloat(weight));
+                }
+            }
+            builder.endDocument(docId(file, prefix));
+        }
+        return builder.build();
+    }
+
+    private static int docId(Path file, String prefix) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring(prefix.length(), name.length() - 4));
+    }
+
+    public int docCount() {
+        return docIds.length;
+    }
+
+    /**
+     * @return номер страницы документа d
+     */
+    public int docId(int doc) {
+        return docIds[doc];
+    }
+
+    public int termCount() {
+        return dictionary.size();
+    }
+
+    /**
+     * @return idf термина либо NaN, если его нет ни в одном документе
+     */
+    public double idf(String term) {
+        int id = dictionary.id(term);
+        return id < 0 ? Double.NaN : idf[id];
+    }
+
+    TermDictionary dictionary() {
+        return dictionary;
+    }
+
+    int offset(int doc) {
+        return offsets[doc];
+    }
+
+    int term(int i) {
+        return terms[i];
+    }
+
+    float weight(int i) {
+        return weights[i];
+    }
+
+    /**
+     * @return примерный объём в куче вместе со словарём терминов
+     */
+    public long estimatedBytes() {
+        return dictionary.estimatedBytes() + 8L * idf.length
+                + 4L * (docIds.length + offsets.length + terms.length + weights.length);
+    }
+
+    /**
+     * @return сколько ненулевых весов хранится во всех документах
+     */
+    public int nonZeros() {
+        return terms.length;
+    }
+
+    /**
+     * Векторы, собранные в памяти: термины документа добавляются через {@link #add},
+     * затем документ закрывается {@link #endDocument}. Документы — по возрастанию номера страницы.
+     * Так же собираются векторы из файлов в {@link #load}.
+     */
+    public static final class Builder {
+        private final TermDictionary dictionary = new TermDictionary(1 << 12);
+        private double[] idf = new double[1 << 12];
+        private int[] docIds = new int[16];
+        private int[] offsets = new int[17];
+        private int docs;
+        private int[] terms = new int[1 << 12];
+        private float[] weights = new float[1 << 12];
+        private int size;
+
+        /**
+         * idf термина берётся из первого документа, где он встретился; нулевой вес не хранится.
+         */
+        public Builder add(String term, double termIdf, float weight) {
+            int known = dictionary.size();
+            int id = dictionary.add(term);
+            if (id == known) {
+                if (id == idf.length) idf = Arrays.copyOf(idf, id * 2);
+                idf[id] = termIdf;
+            }
+            if (weight == 0) return this;
+            if (size == terms.length) {
+                terms = Arrays.copyOf(terms, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            terms[size] = id;
+            weights[size] = weight;
+            size++;
+            return this;
+        }
+
+        public Builder endDocument(int docId) {
+            if (docs == docIds.length) {
+                docIds = Arrays.copyOf(docIds, docs * 2);
+                offsets = Arrays.copyOf(offsets, docs * 2 + 1);
+            }
+            docIds[docs] = docId;
+            offsets[++docs] = size;
+            return this;
+        }
+
+        public DocumentVectors build() {
+            dictionary.trim();
+            return new DocumentVectors(dictionary, Arrays.copyOf(idf, dictionary.size()), Arrays.copyOf(docIds, docs),
+                    Arrays.copyOf(offsets, docs + 1), Arrays.copyOf(terms, size), Arrays.copyOf(weights, size));
+        }
+    }
+}
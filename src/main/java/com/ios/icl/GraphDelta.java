@@ -0,0 +1,52 @@
+package com.ios.icl;
+
+import java.util.*;
+
+/**
+ * Изменения графа ссылок между двумя обходами.
+ * Удаление страницы удаляет и все её рёбра; рёбра задаются номерами документов.
+ */
+public record GraphDelta(Set<Integer> addedPages, Set<Integer> removedPages,
+                         List<Edge> addedEdges, List<Edge> removedEdges) {
+
+    public record Edge(int from, int to) {
+    }
+
+    public boolean isEmpty() {
+        return addedPages.isEmpty() && removedPages.isEmpty() && addedEdges.isEmpty() && removedEdges.isEmpty();
+    }
+
+    /**
+     * Разница между текущими исходящими ссылками страниц и новыми, извлечёнными при повторном обходе.
+     *
+     * @param graph    текущий граф
+     * @param outLinks новые исходящие ссылки перекачанных страниц (номера документов)
+     * @param allPages все документы после обхода
+     */
+    public static GraphDelta between(LinkGraph graph, Map<Integer, int[]> outLinks, Set<Integer> allPages) {
+        Set<Integer> added = new TreeSet<>();
+        for (int docId : allPages) {
+            if (graph.node(docId) < 0) added.add(docId);
+        }
+        Set<Integer> removed = new TreeSet<>();
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            if (!allPages.contains(graph.docId(node))) removed.add(graph.docId(node));
+        }
+
+        List<Edge> addedEdges = new ArrayList<>();
+        List<Edge> removedEdges = new ArrayList<>();
+        outLinks.forEach((from, targets) -> {
+            Set<Integer> now = new HashSet<>();
+            for (int to : targets) now.add(to);
+            int node = graph.node(from);
+            if (node >= 0) {
+                for (int target : graph.neighbours(node)) {
+                    int to = graph.docId(target);
+                    if (!now.remove(to)) removedEdges.add(new Edge(from, to));
+                }
+            }
+            for (int to : now) addedEdges.add(new Edge(from, to));
+        });
+        return new GraphDelta(added, removed, addedEdges, removedEdges);
+    }
+}
@@ -0,0 +1,24 @@
+package com.ios.icl;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+public class HealthController {
+
+    @Autowired
+    private StartupTracker startup;
+
+    /**
+     * Готовность по частям: индекс токенов, леммы, словарь лемм, BM25, ранги. 503 — пока
+     * не готов индекс токенов; остальные части могут ещё грузиться, а поиск по токенам уже работает.
+     */
+    @GetMapping("/api/health")
+    public ResponseEntity<StartupTracker.Health> health() {
+        StartupTracker.Health health = startup.health();
+        return ResponseEntity.status(health.acceptingTraffic() ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE).body(health);
+    }
+}
@@ -0,0 +1,399 @@
+package com.ios.icl;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Извлекает из HTML текст и ссылки за один проход по байтам страницы.
+ * <ul>
+ *     <li>разметка выбрасывается, содержимое script, style, noscript, template и svg пропускается целиком;</li>
+ *     <li>служебные блоки — nav, header, footer, aside, form и элементы с классами вроде
+ *     navbox и mw-editsection — в текст не попадают;</li>
+ *     <li>на границах блочных элементов ставится пустая строка, чтобы CoreNLP резал там предложения;</li>
+ *     <li>пробелы схлопываются, сущности ({@code &amp;}, {@code &#8212;}) раскодируются;</li>
+ *     <li>href всех {@code <a>}, включая служебные блоки, собираются для графа ссылок.</li>
+ * </ul>
+ * Все маркеры разметки — ASCII, а в UTF-8 байты многобайтных символов ASCII не пересекают,
+ * поэтому текст копируется байтами и декодируется один раз в конце.
+ */
+public final class HtmlTextExtractor {
+
+    /**
+     * @param title содержимое {@code <title>}; оно же первым абзацем входит в text
+     * @param hrefs значения href в порядке появления, с раскодированными сущностями
+     */
+    public record Extracted(String title, String text, List<String> hrefs) {
+    }
+
+    private static final Set<String> RAW_TEXT = Set.of("script", "style", "noscript", "template", "svg", "textarea");
+    private static final Set<String> BOILERPLATE = Set.of("nav", "header", "footer", "aside", "form", "button", "select");
+    private static final Set<String> BOILERPLATE_CLASSES = Set.of(
+            "navbox", "noprint", "mw-editsection", "mw-jump-link", "catlinks", "printfooter", "metadata");
+    private static final Set<String> BLOCK = Set.of(
+            "p", "div", "br", "li", "ul", "ol", "dl", "dt", "dd", "h1", "h2", "h3", "h4", "h5", "h6",
+            "table", "tr", "td", "th", "caption", "section", "article", "main", "blockquote", "pre", "hr",
+            "figure", "figcaption", "body");
+    private static final Set<String> VOID = Set.of(
+            "area", "base", "br", "col", "embed", "hr", "img", "input", "link", "meta", "source", "track", "wbr");
+    private static final Map<String, String> ENTITIES = Map.ofEntries(
+            Map.entry("amp", "&"), Map.entry("lt", "<"), Map.entry("gt", ">"), Map.entry("quot", "\""),
+            Map.entry("apos", "'"), Map.entry("nbsp", " "), Map.entry("ndash", "–"), Map.entry("mdash", "—"),
+            Map.entry("hellip", "…"), Map.entry("lsquo", "‘"), Map.entry("rsquo", "’"), Map.entry("ldquo", "“"),
+            Map.entry("rdquo", "”"), Map.entry("laquo", "«"), Map.entry("raquo", "»"), Map.entry("middot", "·"),
+            Map.entry("times", "×"), Map.entry("copy", "©"), Map.entry("reg", "®"), Map.entry("shy", ""));
+
+    private final byte[] html;
+    private final int n;
+    private byte[] out;
+    private int length;
+    private final List<String> hrefs = new ArrayList<>();
+    private String title = "";
+    // Открытый служебный элемент и глубина вложенности одноимённых тегов внутри него
+    private String skipTag;
+    private int skipNesting;
+
+    private HtmlTextExtractor(byte[] html) {
+        this.html = html;
+        this.n = html.length;
+        this.out = new byte[Math.max(16, html.length / 4)];
+    }
+
+    public static Extracted extract(byte[] html) {
+        return new HtmlTextExtractor(html).run();
+    }
+
+    public static Extracted extract(String html) {
+        return extract(html.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Extracted run() {
+        int i = 0;
+        while (i < n) {
+            byte b = html[i];
+            if (b == '<') {
+                i = tag(i);
+            } else if (b == '&') {
+                i = entity(i, skipTag == null);
+            } else {
+                if (skipTag == null) {
+                    if (b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f') space();
+                    else append(b);
+                }
+                i++;
+            }
+        }
+        while (length > 0 && isSpace(out[length - 1])) length--;
+        int start = 0;
+        while (start < length && isSpace(out[start])) start++;
+        return new Extracted(title, new String(out, start, length - start, StandardCharsets.UTF_8), hrefs);
+    }
+
+    /**
+     * Разбирает тег, начинающийся в {@code at}; возвращает позицию после него.
+     */
+    private int tag(int at) {
+        if (startsWith(at, "<!--")) {
+            int end = indexOf("-->", at + 4);
+            return end < 0 ? n : end + 3;
+        }
+        int i = at + 1;
+        boolean closing = i < n && html[i] == '/';
+        if (closing) i++;
+        int nameStart = i;
+        while (i < n && isNameChar(html[i])) i++;
+        if (i == nameStart) {
+            if (i < n && (html[i] == '!' || html[i] == '?')) return skipPast(i, '>');
+            if (skipTag == null) append((byte) '<');
+            return at + 1;
+        }
+        String name = lowerAscii(nameStart, i);
+        int end = tagEnd(i);
+        boolean selfClosing = end > 0 && html[end - 1] == '/';
+        int next = Math.min(end + 1, n);
+
+        if (!closing && name.equals("a")) {
+            String href = attribute(i, end, "href");
+            if (href != null && !href.isEmpty()) hrefs.add(href);
+        }
+        if (!closing && RAW_TEXT.contains(name) && !selfClosing) {
+            int close = indexOfIgnoreCase("</" + name, next);
+            return close < 0 ? n : skipPast(close, '>');
+        }
+        if (!closing && name.equals("title")) {
+            int close = indexOfIgnoreCase("</title", next);
+            int textEnd = close < 0 ? n : close;
+            title = decode(next, textEnd).strip().replaceAll("\\s+", " ");
+            if (skipTag == null) {
+                append(title.getBytes(StandardCharsets.UTF_8));
+                paragraph();
+            }
+            return close < 0 ? n : skipPast(close, '>');
+        }
+
+        if (skipTag != null) {
+            if (name.equals(skipTag) && !VOID.contains(name) && !selfClosing) {
+                skipNesting += closing ? -1 : 1;
+                if (skipNesting == 0) skipTag = null;
+            }
+            return next;
+        }
+        if (!closing && !selfClosing && !VOID.contains(name)
+                && (BOILERPLATE.contains(name) || hasBoilerplateClass(i, end))) {
+            skipTag = name;
+            skipNesting = 1;
+            return next;
+        }
+        if (BLOCK.contains(name)) paragraph();
+        return next;
+    }
+
+    private boolean hasBoilerplateClass(int from, int to) {
+        String classes = attribute(from, to, "class");
+        if (classes == null) return false;
+        for (String c : classes.split("\\s+")) {
+            if (BOILERPLATE_CLASSES.contains(c)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Позиция закрывающей {@code >} тега с учётом кавычек в значениях атрибутов.
+     */
+    private int tagEnd(int from) {
+        byte quote = 0;
+        for (int i = from; i < n; i++) {
+            byte b = html[i];
+            if (quote != 0) {
+                if (b == quote) quote = 0;
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                return i;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Значение атрибута name внутри тега [from, to), с раскодированными сущностями.
+     */
+    private String attribute(int from, int to, String name) {
+        int i = from;
+        while (i < to) {
+            while (i < to && (isSpace(html[i]) || html[i] == '/')) i++;
+            int nameStart = i;
+            while (i < to && html[i] != '=' && !isSpace(html[i])) i++;
+            if (i == nameStart && i < to && html[i] != '=') {
+                i++;
+                continue;
+            }
+            boolean match = i - nameStart == name.length() && regionMatchesIgnoreCase(nameStart, name);
+            while (i < to && isSpace(html[i])) i++;
+            if (i >= to || html[i] != '=') continue;
+            i++;
+            while (i < to && isSpace(html[i])) i++;
+            int valueStart;
+            int valueEnd;
+            if (i < to && (html[i] == '"' || html[i] == '\'')) {
+                byte quote = html[i];
+                valueStart = i + 1;
+                valueEnd = valueStart;
+                while (valueEnd < to && html[valueEnd] != quote) valueEnd++;
+                i = valueEnd + 1;
+            } else {
+                valueStart = i;
+                while (i < to && !isSpace(html[i])) i++;
+                valueEnd = i;
+            }
+            if (match) return decode(valueStart, valueEnd);
+        }
+        return null;
+    }
+
+    /**
+     * Раскодирует сущность в позиции {@code at}; нераспознанная {@code &} остаётся как есть.
+     */
+    private int entity(int at, boolean emit) {
+        int i = at + 1;
+        int limit = Math.min(n, at + 12);
+        while (i < limit && html[i] != ';' && html[i] != '&' && html[i] != '<' && !isSpace(html[i])) i++;
+        String value = i < limit && html[i] == ';' ? entityValue(at + 1, i) : null;
+        if (value == null) {
+            if (emit) append((byte) '&');
+            return at + 1;
+        }
+        if (emit) {
+            if (value.equals(" ")) space();
+            else append(value.getBytes(StandardCharsets.UTF_8));
+        }
+        return i + 1;
+    }
+
+    private String entityValue(int from, int to) {
+        if (to - from >= 2 && html[from] == '#') {
+            try {
+                boolean hex = html[from + 1] == 'x' || html[from + 1] == 'X';
+                String digits = new String(html, hex ? from + 2 : from + 1, to - (hex ? from + 2 : from + 1),
+                        StandardCharsets.US_ASCII);
+                int code = Integer.parseInt(digits, hex ? 16 : 10);
+                if (code == 0xA0) return " ";
+                return Character.isValidCodePoint(code) ? new String(Character.toChars(code)) : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return ENTITIES.get(new String(html, from, to - from, StandardCharsets.US_ASCII));
+    }
+
+    private String decode(int from, int to) {
+        int amp = from;
+        while (amp < to && html[amp] != '&') amp++;
+        if (amp == to) return new String(html, from, to - from, StandardCharsets.UTF_8);
+        HtmlTextExtractor inner = new HtmlTextExtractor(Arrays.copyOfRange(html, from, to));
+        int i = 0;
+        while (i < inner.n) {
+            if (inner.html[i] == '&') {
+                i = inner.entity(i, true);
+            } else {
+                inner.append(inner.html[i]);
+                i++;
+            }
+        }
+        return new String(inner.out, 0, inner.length, StandardCharsets.UTF_8);
+    }
+
+    private void space() {
+        if (length > 0 && !isSpace(out[length - 1])) append((byte) ' ');
+    }
+
+    /**
+     * Пустая строка: граница предложения для ssplit.newlineIsSentenceBreak=two.
+     */
+    private void paragraph() {
+        while (length > 0 && out[length - 1] == ' ') length--;
+        if (length == 0 || (length >= 2 && out[length - 1] == '\n' && out[length - 2] == '\n')) return;
+        append((byte) '\n');
+        append((byte) '\n');
+    }
+
+    private void append(byte b) {
+        if (length == out.length) out = Arrays.copyOf(out, out.length * 2);
+        out[length++] = b;
+    }
+
+    private void append(byte[] bytes) {
+        for (byte b : bytes) append(b);
+    }
+
+    private int skipPast(int from, char c) {
+        for (int i = from; i < n; i++) {
+            if (html[i] == c) return i + 1;
+        }
+        return n;
+    }
+
+    private boolean startsWith(int at, String s) {
+        return at + s.length() <= n && regionMatchesIgnoreCase(at, s);
+    }
+
+    private int indexOf(String s, int from) {
+        for (int i = from; i + s.length() <= n; i++) {
+            if (html[i] == s.charAt(0) && regionMatchesIgnoreCase(i, s)) return i;
+        }
+        return -1;
+    }
+
+    private int indexOfIgnoreCase(String s, int from) {
+        for (int i = from; i + s.length() <= n; i++) {
+            if (html[i] == '<' && regionMatchesIgnoreCase(i, s)) return i;
+        }
+        return -1;
+    }
+
+    private boolean regionMatchesIgnoreCase(int at, String s) {
+        for (int k = 0; k < s.length(); k++) {
+            int b = html[at + k];
+            if (b >= 'A' && b <= 'Z') b += 'a' - 'A';
+            if (b != s.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    private String lowerAscii(int from, int to) {
+        char[] chars = new char[to - from];
+        for (int i = from; i < to; i++) {
+            int b = html[i];
+            chars[i - from] = (char) (b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b);
+        }
+        return new String(chars);
+    }
+
+    private static boolean isNameChar(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9');
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f';
+    }
+
+    /**
+     * Замер до/после на каталоге страниц: объём текста, скорость извлечения, словарь
+     * и скорость лемматизации по сырому HTML и по извлечённому тексту.
+     * Аргументы: [каталог страниц] [сколько самых маленьких страниц прогнать полным режимом].
+     */
+    public static void main(String[] args) throws Exception {
+        Path dir = Paths.get(args.length > 0 ? args[0] : "pages");
+        int fullSample = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        List<byte[]> pages = new ArrayList<>();
+        try (var files = Files.list(dir)) {
+            for (var file : files.filter(Files::isRegularFile).sorted().toList()) {
+                pages.add(Files.readAllBytes(file));
+            }
+        }
+
+        long bytes = 0;
+        long chars = 0;
+        List<String> raw = new ArrayList<>();
+        List<String> text = new ArrayList<>();
+        long start = System.nanoTime();
+        for (byte[] page : pages) text.add(extract(page).text());
+        long extractNanos = System.nanoTime() - start;
+        for (int i = 0; i < pages.size(); i++) {
+            raw.add(new String(pages.get(i), StandardCharsets.UTF_8));
+            bytes += pages.get(i).length;
+            chars += text.get(i).length();
+        }
+        System.out.printf("%d pages: %.1f MB of HTML -> %.1f MB of text in %d ms (%.0f MB/s)%n",
+                pages.size(), bytes / 1e6, chars / 1e6, extractNanos / 1_000_000, bytes / 1e3 / (extractNanos / 1e6));
+
+        var dictionary = Lemmatizer.loadDictionary(Paths.get("lemmas"));
+        for (Lemmatizer.Mode mode : Lemmatizer.Mode.values()) {
+            List<Integer> sample = IntStream.range(0, pages.size()).boxed()
+                    .sorted(Comparator.comparingInt(i -> pages.get(i).length))
+                    .limit(mode == Lemmatizer.Mode.FULL ? fullSample : pages.size())
+                    .toList();
+            for (boolean extracted : new boolean[]{false, true}) {
+                List<String> input = sample.stream().map(i -> extracted ? text.get(i) : raw.get(i)).toList();
+                try (Lemmatizer lemmatizer = new Lemmatizer(mode, Runtime.getRuntime().availableProcessors(), dictionary)) {
+                    long t = System.nanoTime();
+                    var futures = input.stream().map(lemmatizer::submit).toList();
+                    Set<String> tokens = new HashSet<>();
+                    Set<String> lemmas = new HashSet<>();
+                    for (var future : futures) {
+                        TextProcessor.Analysis analysis = future.get();
+                        tokens.addAll(analysis.tokens());
+                        lemmas.addAll(analysis.lemmas().keySet());
+                    }
+                    double seconds = (System.nanoTime() - t) / 1e9;
+                    System.out.printf("%-10s %-9s %3d docs %8.2f s %8.2f docs/s  tokens %6d  lemmas %6d%n",
+                            mode, extracted ? "extracted" : "raw", input.size(), seconds, input.size() / seconds,
+                            tokens.size(), lemmas.size());
+                }
+            }
+        }
+    }
+}
@@ -4,52 +4,172 @@ import java.io.*;
 import java.nio.file.*;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class IndexBuilder {
     private static final String INDEX_FILE = "inverted_index.txt";
+    static final String BINARY_INDEX_FILE = "inverted_index.bin";
+    static final String POSITIONAL_INDEX_FILE = "positional_index.bin";
 
+    /**
+     * По умолчанию индекс строится сегментами, см. {@link SegmentedIndexBuilder}:
+     * {@code --threads=N} — потоки (по умолчанию по числу ядер), {@code --memory-mb=N} — бюджет
+     * сегментов в памяти (по умолчанию четверть кучи), {@code --in-memory} — прежняя сборка
+     * одного словаря в куче. {@code --metrics=<файл>}: записать пропускную способность
+     * и время записи в формате Prometheus.
+     */
     public static void main(String[] args) throws IOException {
-        Map<String, Set<Integer>> index = new HashMap<>();
-        buildIndex("выкачка", index);
-        saveIndex(index);
+        boolean fromText = false;
+        boolean inMemory = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+        for (String arg : args) {
+            if (arg.equals("--from-text")) fromText = true;
+            else if (arg.equals("--in-memory")) inMemory = true;
+            else if (arg.startsWith("--threads=")) threads = Integer.parseInt(arg.substring(10));
+            else if (arg.startsWith("--memory-mb=")) memoryBudget = Long.parseLong(arg.substring(12)) << 20;
+        }
+        // --from-text: перегнать уже построенный inverted_index.txt в бинарный формат
+        if (fromText) {
+            convertTextIndex();
+        } else if (!inMemory) {
+            SegmentedIndexBuilder.Stats stats = new SegmentedIndexBuilder(threads, memoryBudget, Paths.get("."))
+                    .build(Paths.get("выкачка"), Paths.get(BINARY_INDEX_FILE), Paths.get(INDEX_FILE));
+            System.out.println("Indexed " + stats);
+        } else {
+            Map<String, SortedMap<Integer, Integer>> index = buildIndex(Paths.get("выкачка"));
+            long start = System.nanoTime();
+            saveIndex(index);
+            long binaryStart = System.nanoTime();
+            saveBinaryIndex(index);
+            long end = System.nanoTime();
+            writeTimer(INDEX_FILE).recordNanos(binaryStart - start);
+            writeTimer(BINARY_INDEX_FILE).recordNanos(end - binaryStart);
+            Metrics.GLOBAL.gauge("pipeline_index_terms", "Terms in the built inverted index", index::size);
+        }
+        Metrics.GLOBAL.writeIfRequested(args);
+    }
+
+    private static Metrics.Histogram writeTimer(String file) {
+        return Metrics.GLOBAL.timer("pipeline_write_seconds", "Writing an index file", "file", file);
     }
 
-    private static void buildIndex(String dir, Map<String, Set<Integer>> index) throws IOException {
-        Files.list(Paths.get(dir))
-             .filter(p -> p.getFileName().toString().startsWith("lemmas"))
-             .forEach(p -> processLemmaFile(p, index));
+    /**
+     * Индекс по lemmas-файлам каталога: лемма → документ → число словоформ леммы в документе
+     * (это не частота: lemmas-файл хранит каждую словоформу один раз).
+     */
+    public static Map<String, SortedMap<Integer, Integer>> buildIndex(Path dir) throws IOException {
+        long start = System.nanoTime();
+        Map<String, SortedMap<Integer, Integer>> index = new HashMap<>();
+        List<Path> lemmaFiles;
+        try (Stream<Path> files = Files.list(dir)) {
+            lemmaFiles = files.filter(p -> p.getFileName().toString().startsWith("lemmas")).toList();
+        }
+        lemmaFiles.forEach(p -> processLemmaFile(p, index));
+        Metrics.GLOBAL.recordStage("index", lemmaFiles.size(), System.nanoTime() - start);
+        return index;
     }
 
-    private static void processLemmaFile(Path file, Map<String, Set<Integer>> index) {
-        try {
-            int docId = extractDocId(file);
-            Files.lines(file).forEach(line -> processIndexLine(line, docId, index));
+    private static void processLemmaFile(Path file, Map<String, SortedMap<Integer, Integer>> index) {
+        int docId = extractDocId(file);
+        try (Stream<String> lines = Files.lines(file)) {
+            lines.forEach(line -> processIndexLine(line, docId, index));
         } catch (IOException e) {
             System.err.println("Error processing: " + file);
         }
     }
 
-    private static int extractDocId(Path file) {
+    static int extractDocId(Path file) {
         String name = file.getFileName().toString();
         return Integer.parseInt(name.replace("lemmas", "").replace(".txt", ""));
     }
 
-    private static void processIndexLine(String line, int docId, Map<String, Set<Integer>> index) {
+    /**
+     * Значение постинга — число словоформ леммы в строке lemmas-файла, см. {@link BinaryInvertedIndex}.
+     */
+    private static void processIndexLine(String line, int docId, Map<String, SortedMap<Integer, Integer>> index) {
         String[] parts = line.split(" ");
         if (parts.length < 1) return;
         
         String lemma = parts[0];
-        index.computeIfAbsent(lemma, k -> new TreeSet<>()).add(docId);
+        index.computeIfAbsent(lemma, k -> new TreeMap<>()).merge(docId, Math.max(parts.length - 1, 1), Integer::sum);
+    }
+
+    /**
+     * Добавляет документ по уже посчитанным леммам — так же, как строки его lemmas-файла.
+     */
+    static void addDocument(Map<String, SortedMap<Integer, Integer>> index, int docId,
+                            Map<String, ? extends Collection<String>> lemmas) {
+        lemmas.forEach((lemma, forms) ->
+                index.computeIfAbsent(lemma, k -> new TreeMap<>()).merge(docId, Math.max(forms.size(), 1), Integer::sum));
+    }
+
+    /**
+     * Добавляет позиции лемм документа в позиционный индекс: лемма → документ → позиции.
+     */
+    static void addPositions(Map<String, SortedMap<Integer, int[]>> index, int docId, Map<String, int[]> positions) {
+        positions.forEach((lemma, docPositions) -> index.computeIfAbsent(lemma, k -> new TreeMap<>()).put(docId, docPositions));
     }
 
-    private static void saveIndex(Map<String, Set<Integer>> index) throws IOException {
+    static void saveIndex(Map<String, SortedMap<Integer, Integer>> index) throws IOException {
         try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(INDEX_FILE))) {
-            for (Map.Entry<String, Set<Integer>> entry : index.entrySet()) {
+            for (Map.Entry<String, SortedMap<Integer, Integer>> entry : index.entrySet()) {
                 writer.write(entry.getKey() + ":" + 
-                    entry.getValue().stream()
+                    entry.getValue().keySet().stream()
                         .map(Object::toString)
                         .collect(Collectors.joining(",")) + "\n");
             }
         }
     }
-}
\ No newline at end of file
+
+    static void saveBinaryIndex(Map<String, SortedMap<Integer, Integer>> index) throws IOException {
+        saveBinaryIndex(index, Paths.get(BINARY_INDEX_FILE));
+    }
+
+    public static void saveBinaryIndex(Map<String, SortedMap<Integer, Integer>> index, Path file) throws IOException {
+        try (BinaryIndexWriter writer = new BinaryIndexWriter(file)) {
+            for (String term : new TreeSet<>(index.keySet())) {
+                SortedMap<Integer, Integer> postings = index.get(term);
+                writer.add(term,
+                        postings.keySet().stream().mapToInt(Integer::intValue).toArray(),
+                        postings.values().stream().mapToInt(Integer::intValue).toArray());
+            }
+        }
+    }
+
+    static void savePositionalIndex(Map<String, SortedMap<Integer, int[]>> index,
+                                    SortedMap<Integer, PositionalIndex.DocLength> lengths,
+                                    StopWords stopWords) throws IOException {
+        // Индекс читается через mmap, возможно работающим приложением: старый файл не переписывается
+        // на месте, а подменяется готовым новым, и уже открытые отображения остаются целыми
+        Path target = Paths.get(POSITIONAL_INDEX_FILE);
+        Path temp = target.resolveSibling(POSITIONAL_INDEX_FILE + ".tmp");
+        try (PositionalIndexWriter writer = new PositionalIndexWriter(temp, stopWords)) {
+            for (Map.Entry<Integer, PositionalIndex.DocLength> entry : lengths.entrySet()) {
+                writer.document(entry.getKey(), entry.getValue().words(), entry.getValue().titleWords());
+            }
+            for (String term : new TreeSet<>(index.keySet())) {
+                SortedMap<Integer, int[]> postings = index.get(term);
+                writer.add(term,
+                        postings.keySet().stream().mapToInt(Integer::intValue).toArray(),
+                        postings.values().toArray(new int[0][]));
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void convertTextIndex() throws IOException {
+        TextInvertedIndex text = TextInvertedIndex.load(Paths.get(INDEX_FILE));
+        long start = System.nanoTime();
+        try (BinaryIndexWriter writer = new BinaryIndexWriter(Paths.get(BINARY_INDEX_FILE))) {
+            for (Map.Entry<String, int[]> entry : text.sortedTerms().entrySet()) {
+                // В текстовом индексе только номера документов: число словоформ неизвестно
+                int[] forms = new int[entry.getValue().length];
+                Arrays.fill(forms, 1);
+                writer.add(entry.getKey(), entry.getValue(), forms);
+            }
+        }
+        writeTimer(BINARY_INDEX_FILE).recordNanos(System.nanoTime() - start);
+        System.out.println("Converted " + text.termCount() + " terms to " + BINARY_INDEX_FILE);
+    }
+}
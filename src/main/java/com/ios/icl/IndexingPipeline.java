@@ -0,0 +1,336 @@
+package com.ios.icl;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Потоковый конвейер вместо цепочки WebCrawler → TextProcessor → IndexBuilder → TFIDFCalculator,
+ * где каждая программа перечитывает с диска всё, что записала предыдущая.
+ * <p>
+ * Документ проходит стадии fetch → analyze (текст из HTML, токены и леммы) → index → stats (частоты термов).
+ * Стадии связаны ограниченными очередями: если следующая не успевает, {@code put}
+ * блокирует предыдущую, и обход сам притормаживает. У каждой стадии свой пул потоков;
+ * периодически печатаются пропускная способность стадий и заполненность очередей.
+ * <p>
+ * На выходе те же файлы, что читают поиск и PageRank: index.txt, инвертированный и позиционный индексы,
+ * lemmas/, tfidf_tokens/, tfidf_lemmas/ и граф ссылок. Страницы и списки токенов
+ * в каталог выкачка пишутся только с флагом {@code --keep-intermediate}.
+ */
+public class IndexingPipeline {
+    private static final Path URLS_FILE = Paths.get("urls.txt");
+    private static final String INTERMEDIATE_DIR = "выкачка";
+    private static final Path LEMMAS_DIR = Paths.get("lemmas");
+    private static final Path TOKENS_TFIDF_DIR = Paths.get("tfidf_tokens");
+    private static final Path LEMMAS_TFIDF_DIR = Paths.get("tfidf_lemmas");
+
+    /**
+     * @param analyzeThreads потоков токенизации и лемматизации — самой тяжёлой стадии
+     * @param fastLemmas     леммы из словаря по каталогу lemmas, без разметки частей речи
+     * @param stopWords      файл со стоп-словами или null для встроенного списка
+     * @param queueCapacity  размер каждой очереди между стадиями
+     * @param reportSeconds  как часто печатать состояние стадий
+     */
+    public record Options(int maxPages, int maxDepth, int analyzeThreads, boolean fastLemmas, Path stopWords,
+                          int queueCapacity, boolean keepIntermediate, int reportSeconds) {
+
+        public static Options parse(String[] args) {
+            List<String> positional = new ArrayList<>();
+            boolean keep = false;
+            boolean fast = false;
+            Path stopWords = null;
+            int threads = Runtime.getRuntime().availableProcessors();
+            int queue = 64;
+            for (String arg : args) {
+                if (arg.equals("--keep-intermediate")) keep = true;
+                else if (arg.equals("--fast-lemmas")) fast = true;
+                else if (arg.startsWith("--stopwords=")) stopWords = Paths.get(arg.substring(12));
+                else if (arg.startsWith("--analyze-threads=")) threads = Integer.parseInt(arg.substring(18));
+                else if (arg.startsWith("--queue=")) queue = Integer.parseInt(arg.substring(8));
+                else positional.add(arg);
+            }
+            int maxPages = positional.size() > 0 ? Integer.parseInt(positional.get(0)) : 100;
+            int maxDepth = positional.size() > 1 ? Integer.parseInt(positional.get(1)) : 0;
+            return new Options(maxPages, maxDepth, threads, fast, stopWords, queue, keep, 5);
+        }
+    }
+
+    private record Page(int docId, String url, byte[] body) {
+    }
+
+    private record Analyzed(int docId, TextProcessor.Analysis analysis, int titleLength, List<String> hrefs) {
+    }
+
+    private final Options options;
+    private final StopWords stopWords;
+    private final Lemmatizer lemmatizer;
+
+    // Состояние стадий index и stats; каждая из них работает в один поток
+    private final Map<String, SortedMap<Integer, Integer>> index = new HashMap<>();
+    private final Map<String, SortedMap<Integer, int[]>> positional = new HashMap<>();
+    private final SortedMap<Integer, PositionalIndex.DocLength> lengths = new TreeMap<>();
+    private final Map<String, Integer> tokenDocFrequency = new HashMap<>();
+    private final Map<String, Integer> lemmaDocFrequency = new HashMap<>();
+    private final SortedMap<Integer, Analyzed> documents = new TreeMap<>();
+    private final Map<Integer, String> urls = new ConcurrentSkipListMap<>();
+
+    private final Stage<Analyzed> stats;
+    private final Stage<Analyzed> indexing;
+    private final Stage<Page> analyze;
+
+    public IndexingPipeline(Options options) throws IOException {
+        this.options = options;
+        this.stopWords = options.stopWords() == null ? StopWords.DEFAULT : StopWords.load(options.stopWords());
+        this.lemmatizer = new Lemmatizer(options.fastLemmas() ? Lemmatizer.Mode.DICTIONARY : Lemmatizer.Mode.FULL,
+                options.analyzeThreads(),
+                options.fastLemmas() ? Lemmatizer.loadDictionary(LEMMAS_DIR) : Map.of(),
+                TokenFilter.defaults(stopWords));
+        this.stats = new Stage<>("stats", 1, options.queueCapacity(), this::collectStats);
+        this.indexing = new Stage<>("index", 1, options.queueCapacity(), this::addToIndex);
+        this.analyze = new Stage<>("analyze", options.analyzeThreads(), options.queueCapacity(), this::analyze);
+    }
+
+    /**
+     * Аргументы: [число страниц] [глубина] [--keep-intermediate] [--analyze-threads=N]
+     * [--fast-lemmas] [--stopwords=файл] [--queue=N].
+     */
+    public static void main(String[] args) throws Exception {
+        List<String> seeds = Files.readAllLines(URLS_FILE).stream()
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .toList();
+        new IndexingPipeline(Options.parse(args)).run(seeds);
+    }
+
+    public void run(List<String> seeds) throws Exception {
+        long start = System.nanoTime();
+        if (options.keepIntermediate()) Files.createDirectories(Paths.get(INTERMEDIATE_DIR));
+        LongAdder fetched = new LongAdder();
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        reporter.scheduleAtFixedRate(() -> report(fetched, start),
+                options.reportSeconds(), options.reportSeconds(), TimeUnit.SECONDS);
+
+        stats.start();
+        indexing.start();
+        analyze.start();
+        CrawlEngine.Config config = CrawlEngine.Config.defaults()
+                .withMaxPages(options.maxPages())
+                .withMaxDepth(options.maxDepth());
+        CrawlEngine.Stats crawl;
+        try (CrawlEngine engine = new CrawlEngine(config)) {
+            crawl = engine.crawl(seeds, (docId, url, body) -> {
+                urls.put(docId, url);
+                if (options.keepIntermediate()) Files.write(Paths.get(INTERMEDIATE_DIR, docId + ".txt"), body);
+                try {
+                    analyze.put(new Page(docId, url, body));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while queueing page " + docId, e);
+                }
+                fetched.increment();
+            });
+        }
+
+        // Стадии закрываются по порядку: следующая получает сигнал, когда предыдущая всё отдала
+        analyze.finish();
+        indexing.finish();
+        stats.finish();
+        lemmatizer.close();
+        reporter.shutdownNow();
+        report(fetched, start);
+
+        long writeStart = System.nanoTime();
+        writeOutputs();
+        System.out.printf("Fetched %d pages (%d errors, %d skipped, %d dropped) at %.1f pages/s%n",
+                crawl.pages(), crawl.errors(), crawl.skipped(), crawl.dropped(), crawl.pagesPerSecond());
+        System.out.printf("Indexed %d documents, %d lemmas; outputs written in %d ms, total %d ms%n",
+                documents.size(), index.size(), (System.nanoTime() - writeStart) / 1_000_000,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void analyze(Page page) throws Exception {
+        HtmlTextExtractor.Extracted extracted = HtmlTextExtractor.extract(page.body());
+        CompletableFuture<Integer> titleLength = TextProcessor.titleLength(lemmatizer, extracted.title());
+        TextProcessor.Analysis analysis = lemmatizer.analyze(extracted.text());
+        if (options.keepIntermediate()) {
+            TextProcessor.write(analysis, Paths.get(INTERMEDIATE_DIR, "tokens" + page.docId() + ".txt"),
+                    Paths.get(INTERMEDIATE_DIR, "lemmas" + page.docId() + ".txt"));
+        }
+        indexing.put(new Analyzed(page.docId(), analysis, titleLength.get(), extracted.hrefs()));
+    }
+
+    private void addToIndex(Analyzed doc) throws InterruptedException {
+        IndexBuilder.addDocument(index, doc.docId(), doc.analysis().lemmas());
+        IndexBuilder.addPositions(positional, doc.docId(), doc.analysis().positions());
+        lengths.put(doc.docId(), new PositionalIndex.DocLength(doc.analysis().length(), doc.titleLength()));
+        stats.put(doc);
+    }
+
+    private void collectStats(Analyzed doc) {
+        doc.analysis().tokens().forEach(token -> tokenDocFrequency.merge(token, 1, Integer::sum));
+        doc.analysis().lemmas().keySet().forEach(lemma -> lemmaDocFrequency.merge(lemma, 1, Integer::sum));
+        documents.put(doc.docId(), doc);
+    }
+
+    /**
+     * TF-IDF зависит от числа документов, поэтому считается, когда все стадии закончили.
+     * Граф ссылок сохраняется после index.txt, чтобы PageRank не перестраивал его по страницам.
+     */
+    private void writeOutputs() throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(LinkGraphBuilder.INDEX_FILE)) {
+            for (Map.Entry<Integer, String> entry : urls.entrySet()) {
+                if (documents.containsKey(entry.getKey())) writer.write(entry.getKey() + " " + entry.getValue() + "\n");
+            }
+        }
+        IndexBuilder.saveIndex(index);
+        IndexBuilder.saveBinaryIndex(index);
+        IndexBuilder.savePositionalIndex(positional, lengths, stopWords);
+
+        prepareDir(LEMMAS_DIR, "lemmas");
+        prepareDir(TOKENS_TFIDF_DIR, "tfidf_tokens");
+        prepareDir(LEMMAS_TFIDF_DIR, "tfidf_lemmas");
+        int total = documents.size();
+        documents.values().parallelStream().forEach(doc -> {
+            TextProcessor.Analysis analysis = doc.analysis();
+            Map<String, Integer> tokenFreq = TFIDFCalculator.termFrequencies(analysis.tokens());
+            int totalTokens = analysis.tokens().size();
+            try {
+                TextProcessor.writeLemmas(analysis, LEMMAS_DIR.resolve("lemmas" + doc.docId() + ".txt"));
+                Files.write(TOKENS_TFIDF_DIR.resolve("tfidf_tokens" + doc.docId() + ".txt"),
+                        TFIDFCalculator.tokenScores(tokenFreq, totalTokens, tokenDocFrequency, total));
+                Files.write(LEMMAS_TFIDF_DIR.resolve("tfidf_lemmas" + doc.docId() + ".txt"),
+                        TFIDFCalculator.lemmaScores(analysis.lemmas(), tokenFreq, totalTokens, lemmaDocFrequency, total));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        Map<Integer, List<String>> hrefs = new HashMap<>();
+        documents.forEach((docId, doc) -> hrefs.put(docId, doc.hrefs()));
+        Map<Integer, String> indexed = new TreeMap<>(urls);
+        indexed.keySet().retainAll(documents.keySet());
+        new LinkGraphBuilder(indexed).build(hrefs).save(LinkGraphBuilder.GRAPH_FILE);
+    }
+
+    /**
+     * Убирает файлы прошлого прогона, иначе документы, которых больше нет, остались бы в поиске.
+     */
+    private static void prepareDir(Path dir, String prefix) throws IOException {
+        Files.createDirectories(dir);
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(prefix) && name.endsWith(".txt")) Files.delete(file);
+            }
+        }
+    }
+
+    private void report(LongAdder fetched, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("[%6.1fs] %-8s %6d docs %7.1f doc/s%n",
+                seconds, "fetch", fetched.sum(), fetched.sum() / seconds));
+        for (Stage<?> stage : List.of(analyze, indexing, stats)) {
+            sb.append(String.format("          %s%n", stage.describe(seconds)));
+        }
+        System.out.print(sb);
+    }
+
+    /**
+     * Стадия конвейера: входная очередь и пул потоков, которые её разбирают.
+     */
+    static final class Stage<T> {
+
+        @FunctionalInterface
+        interface Handler<T> {
+            void handle(T item) throws Exception;
+        }
+
+        private final String name;
+        private final int threads;
+        private final BlockingQueue<T> queue;
+        private final Handler<T> handler;
+        private final ExecutorService pool;
+        private final LongAdder processed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder busyNanos = new LongAdder();
+        private final AtomicInteger maxDepth = new AtomicInteger();
+        private volatile boolean closed;
+
+        Stage(String name, int threads, int capacity, Handler<T> handler) {
+            this.name = name;
+            this.threads = threads;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.handler = handler;
+            this.pool = Executors.newFixedThreadPool(threads, Thread.ofPlatform().name(name + "-", 0).factory());
+        }
+
+        void start() {
+            for (int i = 0; i < threads; i++) pool.execute(this::work);
+        }
+
+        /**
+         * Блокируется, пока в очереди нет места.
+         */
+        void put(T item) throws InterruptedException {
+            queue.put(item);
+            maxDepth.accumulateAndGet(queue.size(), Math::max);
+        }
+
+        /**
+         * Больше элементов не будет: дожидается, пока очередь опустеет и потоки завершатся.
+         */
+        void finish() throws InterruptedException {
+            closed = true;
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        private void work() {
+            try {
+                while (true) {
+                    T item = queue.poll(50, TimeUnit.MILLISECONDS);
+                    if (item == null) {
+                        // closed читается раньше isEmpty: после закрытия новых элементов не появится
+                        if (closed && queue.isEmpty()) return;
+                        continue;
+                    }
+                    long start = System.nanoTime();
+                    try {
+                        handler.handle(item);
+                        processed.increment();
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        failed.increment();
+                        System.err.println("Stage " + name + " failed: " + e.getMessage());
+                    } finally {
+                        busyNanos.add(System.nanoTime() - start);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Обработано документов, пропускная способность, очередь (сейчас / максимум / ёмкость)
+         * и загрузка потоков стадии.
+         */
+        String describe(double seconds) {
+            long done = processed.sum();
+            double busy = seconds == 0 ? 0 : busyNanos.sum() / 1e9 / seconds / threads;
+            return String.format("%-8s %6d docs %7.1f doc/s  queue %3d/%3d/%3d  busy %3.0f%%  threads %d%s",
+                    name, done, seconds == 0 ? 0 : done / seconds, queue.size(), maxDepth.get(),
+                    queue.size() + queue.remainingCapacity(), busy * 100, threads,
+                    failed.sum() == 0 ? "" : "  failed " + failed.sum());
+        }
+    }
+}
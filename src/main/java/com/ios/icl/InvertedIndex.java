@@ -0,0 +1,21 @@
+package com.ios.icl;
+
+/**
+ * Булев инвертированный индекс: термин → отсортированный список документов.
+ */
+public interface InvertedIndex {
+
+    /**
+     * @return номера документов по возрастанию; пустой массив, если термина нет
+     */
+    int[] postings(String term);
+
+    int docFrequency(String term);
+
+    /**
+     * @return все документы коллекции по возрастанию
+     */
+    int[] allDocs();
+
+    int termCount();
+}
@@ -0,0 +1,307 @@
+package com.ios.icl;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.POSTaggerAnnotator;
+import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+import edu.stanford.nlp.process.Morphology;
+import edu.stanford.nlp.util.CoreMap;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Лемматизация документов на собственном пуле потоков.
+ * <p>
+ * У каждого рабочего потока свой конвейер CoreNLP: токенизатор, теггер частей речи
+ * и {@link Morphology}, поэтому потоки не делят изменяемого состояния. Мелкие документы,
+ * скопившиеся в очереди, теггер размечает за один вызов. Леммы кешируются по паре
+ * (слово, часть речи) — морфологический анализ каждой пары выполняется один раз.
+ * <p>
+ * В режиме {@link Mode#DICTIONARY} теггер не запускается: текст только токенизируется,
+ * а лемма берётся из готового словаря словоформ (см. {@link #loadDictionary(Path)}).
+ */
+public class Lemmatizer implements AutoCloseable {
+
+    public enum Mode {
+        /** токенизация, разметка частей речи и морфологический анализ */
+        FULL,
+        /** токенизация и поиск леммы в словаре */
+        DICTIONARY
+    }
+
+    /** Документы короче этого объединяются в одну разметку. */
+    private static final int BATCH_CHARS = 16_000;
+
+    private record Request(String text, CompletableFuture<TextProcessor.Analysis> result) {
+    }
+
+    private final Mode mode;
+    private final Map<String, String> dictionary;
+    private final TokenFilter filter;
+    private final Map<String, String> lemmaCache = new ConcurrentHashMap<>();
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService workers;
+    private final LongAdder documents = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    public Lemmatizer(Mode mode, int threads, Map<String, String> dictionary) {
+        this(mode, threads, dictionary, TokenFilter.defaults());
+    }
+
+    /**
+     * @param threads    число рабочих потоков и экземпляров конвейера
+     * @param dictionary словоформа → лемма; нужен только для {@link Mode#DICTIONARY}
+     * @param filter     какие токены попадают в результат
+     */
+    public Lemmatizer(Mode mode, int threads, Map<String, String> dictionary, TokenFilter filter) {
+        this.mode = mode;
+        this.dictionary = dictionary;
+        this.filter = filter;
+        this.workers = Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("lemmatizer-", 0).factory());
+        for (int i = 0; i < threads; i++) workers.execute(new Worker()::run);
+    }
+
+    public static Lemmatizer full() {
+        return new Lemmatizer(Mode.FULL, Runtime.getRuntime().availableProcessors(), Map.of());
+    }
+
+    public static Lemmatizer dictionary(Map<String, String> dictionary) {
+        return new Lemmatizer(Mode.DICTIONARY, Runtime.getRuntime().availableProcessors(), dictionary);
+    }
+
+    /**
+     * Словарь словоформ из lemmas-файлов ({@code лемма форма1 форма2 ...}).
+     * Если форма встречается у нескольких лемм, берётся самая частая.
+     */
+    public static Map<String, String> loadDictionary(Path lemmasDir) throws IOException {
+        Map<String, Map<String, Integer>> counts = new HashMap<>();
+        LineFields fields = new LineFields();
+        try (Stream<Path> files = Files.list(lemmasDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (!file.getFileName().toString().startsWith("lemmas")) continue;
+                for (String line : Files.readAllLines(file)) {
+                    String lemma = fields.reset(line).next();
+                    for (String form = fields.next(); form != null; form = fields.next()) {
+                        counts.computeIfAbsent(form, k -> new HashMap<>()).merge(lemma, 1, Integer::sum);
+                    }
+                }
+            }
+        }
+        Map<String, String> dictionary = new HashMap<>();
+        counts.forEach((form, lemmas) -> dictionary.put(form, Collections.max(lemmas.entrySet(),
+                Map.Entry.<String, Integer>comparingByValue()
+                        .thenComparing(Map.Entry.comparingByKey(Comparator.reverseOrder()))).getKey()));
+        return dictionary;
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    public CompletableFuture<TextProcessor.Analysis> submit(String text) {
+        Request request = new Request(text, new CompletableFuture<>());
+        queue.add(request);
+        return request.result();
+    }
+
+    /**
+     * Синхронный вариант {@link #submit(String)}.
+     */
+    public TextProcessor.Analysis analyze(String text) throws InterruptedException, ExecutionException {
+        return submit(text).get();
+    }
+
+    public long documents() {
+        return documents.sum();
+    }
+
+    /**
+     * Сколько пачек обработано; меньше числа документов, если мелкие документы объединялись.
+     */
+    public long batches() {
+        return batches.sum();
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.result().completeExceptionally(new CancellationException("Lemmatizer closed"));
+        }
+    }
+
+    /**
+     * Настройки токенизатора рабочего потока. Пустая строка между блоками, которую оставляет
+     * {@link HtmlTextExtractor}, — граница предложения: заголовок или пункт списка без точки
+     * не склеивается с соседним блоком в одно предложение для теггера.
+     */
+    static Properties pipelineProperties(Mode mode) {
+        Properties props = new Properties();
+        props.setProperty("annotators", mode == Mode.FULL ? "tokenize, ssplit" : "tokenize");
+        props.setProperty("ssplit.newlineIsSentenceBreak", "two");
+        return props;
+    }
+
+    private final class Worker {
+        private final StanfordCoreNLP splitter;
+        private final POSTaggerAnnotator tagger;
+        private final Morphology morphology = new Morphology();
+
+        Worker() {
+            this.splitter = new StanfordCoreNLP(pipelineProperties(mode));
+            this.tagger = mode == Mode.FULL ? new POSTaggerAnnotator(false) : null;
+        }
+
+        void run() {
+            try {
+                while (true) {
+                    List<Request> batch = new ArrayList<>();
+                    Request first = queue.take();
+                    batch.add(first);
+                    int chars = first.text().length();
+                    Request next;
+                    while (chars < BATCH_CHARS && (next = queue.poll()) != null) {
+                        batch.add(next);
+                        chars += next.text().length();
+                    }
+                    process(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void process(List<Request> batch) {
+            List<Request> accepted = new ArrayList<>();
+            List<Annotation> annotations = new ArrayList<>();
+            for (Request request : batch) {
+                try {
+                    Annotation annotation = new Annotation(request.text());
+                    splitter.annotate(annotation);
+                    accepted.add(request);
+                    annotations.add(annotation);
+                } catch (RuntimeException e) {
+                    request.result().completeExceptionally(e);
+                }
+            }
+            try {
+                if (mode == Mode.FULL) tag(annotations);
+                batches.increment();
+                for (int i = 0; i < accepted.size(); i++) {
+                    accepted.get(i).result().complete(collect(annotations.get(i)));
+                    documents.increment();
+                }
+            } catch (RuntimeException e) {
+                accepted.forEach(request -> request.result().completeExceptionally(e));
+            }
+        }
+
+        /**
+         * Предложения всех документов пачки размечаются одним вызовом теггера; метки
+         * попадают в те же токены, что лежат в аннотациях отдельных документов.
+         */
+        private void tag(List<Annotation> annotations) {
+            List<CoreMap> sentences = new ArrayList<>();
+            for (Annotation annotation : annotations) {
+                sentences.addAll(annotation.get(CoreAnnotations.SentencesAnnotation.class));
+            }
+            Annotation combined = new Annotation("");
+            combined.set(CoreAnnotations.SentencesAnnotation.class, sentences);
+            tagger.annotate(combined);
+        }
+
+        /**
+         * Позиция — порядковый номер слова в тексте. Отфильтрованные слова оставляют
+         * пропуск, знаки препинания позиции не занимают.
+         */
+        private TextProcessor.Analysis collect(Annotation annotation) {
+            Set<String> uniqueTokens = new TreeSet<>();
+            Map<String, Set<String>> lemmaMap = new TreeMap<>();
+            Map<String, List<Integer>> positions = new HashMap<>();
+            int position = -1;
+            for (CoreLabel token : annotation.get(CoreAnnotations.TokensAnnotation.class)) {
+                if (!isWord(token.word())) continue;
+                position++;
+                if (!filter.accept(token.word())) continue;
+                String word = token.word().toLowerCase();
+                String lemma = lemma(token, word);
+                uniqueTokens.add(word);
+                lemmaMap.computeIfAbsent(lemma, k -> new TreeSet<>()).add(word);
+                positions.computeIfAbsent(lemma, k -> new ArrayList<>()).add(position);
+            }
+            Map<String, int[]> lemmaPositions = new HashMap<>();
+            positions.forEach((lemma, list) -> lemmaPositions.put(lemma, list.stream().mapToInt(Integer::intValue).toArray()));
+            return new TextProcessor.Analysis(uniqueTokens, lemmaMap, lemmaPositions, position + 1);
+        }
+
+        private String lemma(CoreLabel token, String lowercase) {
+            if (mode == Mode.DICTIONARY) {
+                String lemma = dictionary.get(lowercase);
+                return lemma != null ? lemma : morphology.stem(token.word()).toLowerCase();
+            }
+            String tag = token.tag();
+            return lemmaCache.computeIfAbsent(token.word() + '\0' + tag,
+                    k -> morphology.lemma(token.word(), tag).toLowerCase());
+        }
+    }
+
+    /**
+     * Занимает ли токен позицию: слово или число, но не знак препинания.
+     */
+    static boolean isWord(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (Character.isLetterOrDigit(token.charAt(i))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Замер пропускной способности обоих режимов на одних и тех же документах.
+     * Аргументы: [каталог с документами] [сколько документов] [каталог lemmas-файлов для словаря].
+     */
+    public static void main(String[] args) throws Exception {
+        Path dir = Paths.get(args.length > 0 ? args[0] : "pages");
+        int limit = args.length > 1 ? Integer.parseInt(args[1]) : Integer.MAX_VALUE;
+        Path lemmasDir = Paths.get(args.length > 2 ? args[2] : "lemmas");
+        List<String> texts = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.filter(Files::isRegularFile).sorted().limit(limit).toList()) {
+                texts.add(Files.readString(file));
+            }
+        }
+
+        Map<Mode, List<TextProcessor.Analysis>> results = new EnumMap<>(Mode.class);
+        for (Mode mode : Mode.values()) {
+            Map<String, String> dictionary = mode == Mode.DICTIONARY ? loadDictionary(lemmasDir) : Map.of();
+            try (Lemmatizer lemmatizer = new Lemmatizer(mode, Runtime.getRuntime().availableProcessors(), dictionary)) {
+                long start = System.nanoTime();
+                List<CompletableFuture<TextProcessor.Analysis>> futures = texts.stream().map(lemmatizer::submit).toList();
+                List<TextProcessor.Analysis> analyses = new ArrayList<>();
+                for (CompletableFuture<TextProcessor.Analysis> future : futures) analyses.add(future.get());
+                double seconds = (System.nanoTime() - start) / 1e9;
+                results.put(mode, analyses);
+                System.out.printf("%-10s %d docs in %.2f s: %.2f docs/s (%d batches)%n",
+                        mode, texts.size(), seconds, texts.size() / seconds, lemmatizer.batches());
+            }
+        }
+
+        long same = 0;
+        long total = 0;
+        for (int i = 0; i < texts.size(); i++) {
+            Map<String, Set<String>> full = results.get(Mode.FULL).get(i).lemmas();
+            Set<String> fast = results.get(Mode.DICTIONARY).get(i).lemmas().keySet();
+            total += full.size();
+            same += full.keySet().stream().filter(fast::contains).count();
+        }
+        System.out.printf("Dictionary mode reproduces %.1f%% of full-mode lemmas%n", total == 0 ? 100 : 100.0 * same / total);
+    }
+}
@@ -0,0 +1,28 @@
+package com.ios.icl;
+
+/**
+ * Поля строки, разделённые пробелами и табуляцией, по одному за вызов:
+ * без регулярного выражения и без массива частей, как у {@link String#split}.
+ */
+final class LineFields {
+    private String line = "";
+    private int pos;
+
+    LineFields reset(String line) {
+        this.line = line;
+        this.pos = 0;
+        return this;
+    }
+
+    /**
+     * @return следующее поле либо null, если строка кончилась
+     */
+    String next() {
+        int length = line.length();
+        while (pos < length && line.charAt(pos) <= ' ') pos++;
+        if (pos == length) return null;
+        int start = pos;
+        while (pos < length && line.charAt(pos) > ' ') pos++;
+        return line.substring(start, pos);
+    }
+}
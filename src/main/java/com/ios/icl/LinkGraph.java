@@ -0,0 +1,173 @@
+package com.ios.icl;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Граф ссылок между страницами в формате CSR (compressed sparse row).
+ * Вершины — порядковые номера 0..n-1, номер документа хранится в {@link #docId(int)}.
+ * Исходящие рёбра вершины v лежат в {@code targets[offsets[v] .. offsets[v + 1])}.
+ */
+public final class LinkGraph {
+    private static final int MAGIC = 0x4F49504C; // "OIPL"
+    private static final int VERSION = 1;
+
+    private final int[] docIds;
+    private final int[] offsets;
+    private final int[] targets;
+
+    /**
+     * @param docIds  номера документов по порядковым номерам вершин, по возрастанию
+     * @param offsets границы списков смежности, длина n + 1
+     * @param targets порядковые номера вершин, на которые ведут рёбра
+     */
+    public LinkGraph(int[] docIds, int[] offsets, int[] targets) {
+        if (offsets.length != docIds.length + 1 || offsets[docIds.length] != targets.length) {
+            throw new IllegalArgumentException("Inconsistent CSR arrays");
+        }
+        for (int v = 1; v < docIds.length; v++) {
+            if (docIds[v - 1] >= docIds[v]) throw new IllegalArgumentException("Doc ids must be ascending");
+        }
+        this.docIds = docIds;
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+    /**
+     * Собирает CSR из списков смежности; рёбра каждой вершины сортируются.
+     */
+    public static LinkGraph fromAdjacency(int[] docIds, int[][] adjacency) {
+        int[] offsets = new int[docIds.length + 1];
+        for (int v = 0; v < docIds.length; v++) offsets[v + 1] = offsets[v] + adjacency[v].length;
+        int[] targets = new int[offsets[docIds.length]];
+        for (int v = 0; v < docIds.length; v++) {
+            int[] sorted = adjacency[v].clone();
+            Arrays.sort(sorted);
+            System.arraycopy(sorted, 0, targets, offsets[v], sorted.length);
+        }
+        return new LinkGraph(docIds, offsets, targets);
+    }
+
+    public int nodeCount() {
+        return docIds.length;
+    }
+
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    public int docId(int node) {
+        return docIds[node];
+    }
+
+    /**
+     * @return порядковый номер вершины или -1, если документа нет в графе
+     */
+    public int node(int docId) {
+        int v = Arrays.binarySearch(docIds, docId);
+        return v >= 0 ? v : -1;
+    }
+
+    public int degree(int node) {
+        return offsets[node + 1] - offsets[node];
+    }
+
+    public int[] offsets() {
+        return offsets;
+    }
+
+    public int[] targets() {
+        return targets;
+    }
+
+    public int[] neighbours(int node) {
+        return Arrays.copyOfRange(targets, offsets[node], offsets[node + 1]);
+    }
+
+    /**
+     * Граф с обращёнными рёбрами: из исходящих списков получаются входящие.
+     */
+    public LinkGraph transpose() {
+        int n = docIds.length;
+        int[] counts = new int[n + 1];
+        for (int t : targets) counts[t + 1]++;
+        for (int v = 0; v < n; v++) counts[v + 1] += counts[v];
+        int[] fill = Arrays.copyOf(counts, n);
+        int[] reversed = new int[targets.length];
+        for (int v = 0; v < n; v++) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) reversed[fill[targets[e]]++] = v;
+        }
+        return new LinkGraph(docIds, counts, reversed);
+    }
+
+    /**
+     * Новый граф с применёнными изменениями; исходный не меняется.
+     */
+    public LinkGraph apply(GraphDelta delta) {
+        TreeSet<Integer> docs = new TreeSet<>();
+        for (int docId : docIds) docs.add(docId);
+        docs.removeAll(delta.removedPages());
+        docs.addAll(delta.addedPages());
+        int[] newDocIds = docs.stream().mapToInt(Integer::intValue).toArray();
+
+        Set<GraphDelta.Edge> removedEdges = new HashSet<>(delta.removedEdges());
+        Map<Integer, Set<Integer>> addedEdges = new HashMap<>();
+        for (GraphDelta.Edge edge : delta.addedEdges()) {
+            addedEdges.computeIfAbsent(edge.from(), k -> new TreeSet<>()).add(edge.to());
+        }
+
+        int[][] adjacency = new int[newDocIds.length][];
+        for (int v = 0; v < newDocIds.length; v++) {
+            int from = newDocIds[v];
+            Set<Integer> out = new TreeSet<>();
+            int old = node(from);
+            if (old >= 0) {
+                for (int e = offsets[old]; e < offsets[old + 1]; e++) {
+                    int to = docIds[targets[e]];
+                    if (!removedEdges.contains(new GraphDelta.Edge(from, to))) out.add(to);
+                }
+            }
+            out.addAll(addedEdges.getOrDefault(from, Set.of()));
+            out.remove(from);
+            adjacency[v] = out.stream()
+                    .mapToInt(to -> Arrays.binarySearch(newDocIds, to))
+                    .filter(to -> to >= 0)
+                    .toArray();
+        }
+        return fromAdjacency(newDocIds, adjacency);
+    }
+
+    public void save(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(docIds.length);
+            out.writeInt(targets.length);
+            for (int docId : docIds) out.writeInt(docId);
+            for (int offset : offsets) out.writeInt(offset);
+            for (int target : targets) out.writeInt(target);
+        }
+    }
+
+    public static LinkGraph load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not a link graph file: " + file);
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("Unsupported link graph version " + version);
+            int n = in.readInt();
+            int m = in.readInt();
+            int[] docIds = readInts(in, n);
+            int[] offsets = readInts(in, n + 1);
+            int[] targets = readInts(in, m);
+            return new LinkGraph(docIds, offsets, targets);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in, int count) throws IOException {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) values[i] = in.readInt();
+        return values;
+    }
+}
@@ -0,0 +1,222 @@
+package com.ios.icl;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Строит граф ссылок за один проход по страницам: каждая страница читается
+ * ровно один раз, из неё извлекаются все {@code <a href>}, ссылки разрешаются
+ * относительно адреса страницы и сопоставляются с документами из index.txt.
+ */
+public class LinkGraphBuilder {
+    public static final Path INDEX_FILE = Path.of("index.txt");
+    public static final Path PAGES_DIR = Path.of("pages");
+    public static final Path GRAPH_FILE = Path.of("link_graph.bin");
+
+    private final Map<String, Integer> docsByUrl = new HashMap<>();
+    private final Map<Integer, URI> urls = new TreeMap<>();
+
+    public LinkGraphBuilder(Path indexFile) throws IOException {
+        try (Stream<String> lines = Files.lines(indexFile)) {
+            lines.forEach(line -> {
+                String[] split = line.split(" ");
+                if (split.length < 2) return;
+                add(Integer.parseInt(split[0]), split[1]);
+            });
+        }
+    }
+
+    /**
+     * @param urls адреса документов, как в index.txt
+     */
+    public LinkGraphBuilder(Map<Integer, String> urls) {
+        urls.forEach(this::add);
+    }
+
+    private void add(int docId, String url) {
+        URI uri = URI.create(url);
+        urls.put(docId, uri);
+        docsByUrl.put(normalize(uri), docId);
+    }
+
+    public static void main(String[] args) throws IOException {
+        long start = System.nanoTime();
+        LinkGraph graph = new LinkGraphBuilder(INDEX_FILE).build(PAGES_DIR);
+        graph.save(GRAPH_FILE);
+        System.out.printf("Link graph: %d pages, %d links in %d ms -> %s%n",
+                graph.nodeCount(), graph.edgeCount(), (System.nanoTime() - start) / 1_000_000, GRAPH_FILE);
+    }
+
+    public static LinkGraph loadOrBuild() throws IOException {
+        return loadOrBuild(INDEX_FILE, PAGES_DIR, GRAPH_FILE);
+    }
+
+    /**
+     * Граф из сохранённого файла, если он не старее index.txt и страниц, иначе строится и сохраняется
+     * заново. Страницы сравниваются по времени изменения каждого файла и самого каталога: так
+     * замечаются и перекачанные страницы, и удалённые.
+     */
+    static LinkGraph loadOrBuild(Path indexFile, Path pagesDir, Path graphFile) throws IOException {
+        if (Files.exists(graphFile)
+                && Files.getLastModifiedTime(graphFile).compareTo(newestInput(indexFile, pagesDir)) >= 0) {
+            return LinkGraph.load(graphFile);
+        }
+        LinkGraph graph = new LinkGraphBuilder(indexFile).build(pagesDir);
+        graph.save(graphFile);
+        return graph;
+    }
+
+    private static FileTime newestInput(Path indexFile, Path pagesDir) throws IOException {
+        FileTime newest = Files.getLastModifiedTime(indexFile);
+        if (!Files.isDirectory(pagesDir)) return newest;
+        newest = max(newest, Files.getLastModifiedTime(pagesDir));
+        try (Stream<Path> pages = Files.list(pagesDir)) {
+            for (Path page : (Iterable<Path>) pages::iterator) newest = max(newest, Files.getLastModifiedTime(page));
+        }
+        return newest;
+    }
+
+    private static FileTime max(FileTime a, FileTime b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
+    /**
+     * @param pagesDir каталог со страницами {@code <docId>.txt}
+     */
+    public LinkGraph build(Path pagesDir) {
+        return build(docId -> outgoing(docId, pagesDir));
+    }
+
+    /**
+     * Граф по уже извлечённым ссылкам, без чтения страниц с диска.
+     *
+     * @param hrefs значения href по номерам документов
+     */
+    public LinkGraph build(Map<Integer, List<String>> hrefs) {
+        return build(docId -> outgoing(docId, hrefs.getOrDefault(docId, List.of())));
+    }
+
+    private LinkGraph build(IntFunction<int[]> outgoing) {
+        int[] docIds = docIds();
+        int[][] adjacency = new int[docIds.length][];
+        // Каждая задача пишет только в свою ячейку adjacency, общих изменяемых структур нет
+        IntStream.range(0, docIds.length).parallel().forEach(v -> {
+            int[] targets = outgoing.apply(docIds[v]);
+            adjacency[v] = Arrays.stream(targets).map(to -> Arrays.binarySearch(docIds, to)).toArray();
+        });
+        return LinkGraph.fromAdjacency(docIds, adjacency);
+    }
+
+    /**
+     * @return все документы из index.txt по возрастанию
+     */
+    public int[] docIds() {
+        return urls.keySet().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Исходящие ссылки одной страницы — номера документов по возрастанию, без ссылок на себя.
+     */
+    public int[] outgoing(int docId, Path pagesDir) {
+        Path page = pagesDir.resolve(docId + ".txt");
+        if (!Files.exists(page)) return new int[0];
+        String html;
+        try {
+            html = new String(Files.readAllBytes(page), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return outgoing(docId, extractHrefs(html));
+    }
+
+    int[] outgoing(int docId, List<String> hrefs) {
+        URI base = urls.get(docId);
+        TreeSet<Integer> targets = new TreeSet<>();
+        for (String href : hrefs) {
+            Integer target = resolve(base, href);
+            if (target != null && target != docId) targets.add(target);
+        }
+        return targets.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    Integer resolve(URI base, String href) {
+        try {
+            return docsByUrl.get(normalize(base.resolve(href.replace(" ", "%20"))));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Ключ для сравнения адресов: хост и декодированный путь, без схемы, запроса и якоря.
+     */
+    static String normalize(URI uri) {
+        String host = uri.getHost() == null ? "" : uri.getHost().toLowerCase(Locale.ROOT);
+        String path = uri.getPath() == null || uri.getPath().isEmpty() ? "/" : uri.getPath();
+        return host + path;
+    }
+
+    /**
+     * Значения href всех тегов {@code <a>} за один проход по тексту.
+     */
+    static List<String> extractHrefs(String html) {
+        List<String> hrefs = new ArrayList<>();
+        int n = html.length();
+        int i = 0;
+        while ((i = html.indexOf('<', i)) >= 0 && i + 2 < n) {
+            char c = html.charAt(i + 1);
+            if ((c != 'a' && c != 'A') || !Character.isWhitespace(html.charAt(i + 2))) {
+                i++;
+                continue;
+            }
+            int end = html.indexOf('>', i);
+            if (end < 0) break;
+            String href = attribute(html, i + 2, end, "href");
+            if (href != null && !href.isEmpty()) hrefs.add(href);
+            i = end + 1;
+        }
+        return hrefs;
+    }
+
+    private static String attribute(String html, int from, int to, String name) {
+        int i = from;
+        while (i < to) {
+            int at = indexOfIgnoreCase(html, name, i, to);
+            if (at < 0) return null;
+            int j = at + name.length();
+            boolean boundary = Character.isWhitespace(html.charAt(at - 1));
+            while (j < to && Character.isWhitespace(html.charAt(j))) j++;
+            if (!boundary || j >= to || html.charAt(j) != '=') {
+                i = at + name.length();
+                continue;
+            }
+            j++;
+            while (j < to && Character.isWhitespace(html.charAt(j))) j++;
+            if (j >= to) return null;
+            char quote = html.charAt(j);
+            if (quote == '"' || quote == '\'') {
+                int close = html.indexOf(quote, j + 1);
+                return close < 0 || close > to ? null : html.substring(j + 1, close);
+            }
+            int k = j;
+            while (k < to && !Character.isWhitespace(html.charAt(k))) k++;
+            return html.substring(j, k);
+        }
+        return null;
+    }
+
+    private static int indexOfIgnoreCase(String s, String needle, int from, int to) {
+        for (int i = from; i + needle.length() <= to; i++) {
+            if (s.regionMatches(true, i, needle, 0, needle.length())) return i;
+        }
+        return -1;
+    }
+}
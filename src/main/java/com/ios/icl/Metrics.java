@@ -0,0 +1,216 @@
+package com.ios.icl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Счётчики, датчики и гистограммы в текстовом формате Prometheus (0.0.4). Общий реестр
+ * {@link #GLOBAL} пишут и приложение, и консольные программы: приложение отдаёт его
+ * по {@code GET /metrics}, а программы индексации с ключом {@code --metrics=<файл>}
+ * сохраняют его в файл для textfile-коллектора node_exporter.
+ * <p>
+ * Запись без блокировок. Метрику с метками лучше получить один раз и держать в поле,
+ * а не искать по имени на каждом запросе.
+ */
+public final class Metrics {
+    public static final Metrics GLOBAL = new Metrics();
+
+    /**
+     * Границы гистограмм времени в секундах: от 50 мкс до минуты.
+     */
+    static final double[] SECONDS = {5e-5, 1e-4, 2.5e-4, 5e-4, 1e-3, 2.5e-3, 5e-3, 1e-2, 2.5e-2, 5e-2,
+            0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+    /**
+     * Границы гистограмм количества (кандидаты, итерации): 1, 3, 10, 30 … 10⁶.
+     */
+    static final double[] COUNTS = {1, 3, 10, 30, 100, 300, 1e3, 3e3, 1e4, 3e4, 1e5, 3e5, 1e6};
+
+    public static final class Counter {
+        private final DoubleAdder value = new DoubleAdder();
+
+        public void increment() {
+            value.add(1);
+        }
+
+        public void add(double amount) {
+            value.add(amount);
+        }
+    }
+
+    /**
+     * Корзины хранятся без накопления, последняя — для значений больше всех границ;
+     * накопленные суммы (le) считаются при выдаче.
+     */
+    public static final class Histogram {
+        private final double[] bounds;
+        private final LongAdder[] buckets;
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private Histogram(double[] bounds) {
+            this.bounds = bounds;
+            this.buckets = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        public void observe(double value) {
+            int i = Arrays.binarySearch(bounds, value);
+            buckets[i < 0 ? -i - 1 : i].increment();
+            sum.add(value);
+        }
+
+        public void recordNanos(long nanos) {
+            observe(nanos / 1e9);
+        }
+    }
+
+    private record Family(String help, String type, Map<String, Object> children) {
+    }
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param labels пары имя, значение
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return child(name, help, "counter", labels, Counter::new);
+    }
+
+    /**
+     * Счётчик, который ведёт сам компонент (например, статистика кеша). Повторная
+     * регистрация с теми же метками заменяет источник.
+     */
+    public void counter(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "counter").children().put(labels(labels), value);
+    }
+
+    /**
+     * Повторная регистрация с теми же метками заменяет источник: новый экземпляр компонента
+     * вытесняет старый.
+     */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "gauge").children().put(labels(labels), value);
+    }
+
+    /**
+     * Гистограмма времени в секундах, границы {@link #SECONDS}.
+     */
+    public Histogram timer(String name, String help, String... labels) {
+        return child(name, help, "histogram", labels, () -> new Histogram(SECONDS));
+    }
+
+    public Histogram histogram(String name, String help, double[] bounds, String... labels) {
+        return child(name, help, "histogram", labels, () -> new Histogram(bounds));
+    }
+
+    /**
+     * Пакетный этап: сколько документов обработано и сколько секунд он шёл. Пропускная
+     * способность — отношение скоростей двух счётчиков, в том числе за несколько запусков.
+     */
+    public void recordStage(String stage, long documents, long nanos) {
+        counter("pipeline_documents_total", "Documents processed by a batch stage", "stage", stage).add(documents);
+        counter("pipeline_stage_seconds_total", "Wall time spent in a batch stage", "stage", stage).add(nanos / 1e9);
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, n -> new Family(help, type, new ConcurrentSkipListMap<>()));
+        if (!family.type().equals(type)) throw new IllegalArgumentException(name + " is already a " + family.type());
+        return family;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T child(String name, String help, String type, String[] labels, Supplier<T> create) {
+        return (T) family(name, help, type).children().computeIfAbsent(labels(labels), k -> create.get());
+    }
+
+    private static String labels(String[] labels) {
+        if (labels.length % 2 != 0) throw new IllegalArgumentException("Labels must be name/value pairs");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) sb.append(',');
+            sb.append(labels[i]).append("=\"");
+            for (char c : labels[i + 1].toCharArray()) {
+                switch (c) {
+                    case '\\' -> sb.append("\\\\");
+                    case '"' -> sb.append("\\\"");
+                    case '\n' -> sb.append("\\n");
+                    default -> sb.append(c);
+                }
+            }
+            sb.append('"');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return все метрики в текстовом формате Prometheus, семейства по алфавиту
+     */
+    public String scrape() {
+        StringBuilder sb = new StringBuilder();
+        families.forEach((name, family) -> {
+            sb.append("# HELP ").append(name).append(' ').append(family.help()).append('\n');
+            sb.append("# TYPE ").append(name).append(' ').append(family.type()).append('\n');
+            family.children().forEach((labels, metric) -> {
+                switch (metric) {
+                    case Counter c -> sample(sb, name, labels, c.value.sum());
+                    case DoubleSupplier s -> sample(sb, name, labels, s.getAsDouble());
+                    case Histogram h -> histogram(sb, name, labels, h);
+                    default -> throw new IllegalStateException(metric.getClass().getName());
+                }
+            });
+        });
+        return sb.toString();
+    }
+
+    private static void histogram(StringBuilder sb, String name, String labels, Histogram h) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < h.buckets.length; i++) {
+            cumulative += h.buckets[i].sum();
+            String le = i < h.bounds.length ? format(h.bounds[i]) : "+Inf";
+            sample(sb, name + "_bucket", prefix + "le=\"" + le + "\"", cumulative);
+        }
+        sample(sb, name + "_sum", labels, h.sum.sum());
+        sample(sb, name + "_count", labels, cumulative);
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, double value) {
+        sb.append(name);
+        if (!labels.isEmpty()) sb.append('{').append(labels).append('}');
+        sb.append(' ').append(format(value)).append('\n');
+    }
+
+    static String format(double value) {
+        if (Double.isNaN(value)) return "NaN";
+        if (Double.isInfinite(value)) return value > 0 ? "+Inf" : "-Inf";
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+    /**
+     * Ключ {@code --metrics=<файл>}: записывает реестр в файл через временный рядом,
+     * чтобы коллектор не прочитал его наполовину. Без ключа ничего не делает.
+     */
+    public void writeIfRequested(String[] args) {
+        for (String arg : args) {
+            if (!arg.startsWith("--metrics=")) continue;
+            Path file = Path.of(arg.substring(10)).toAbsolutePath();
+            try {
+                Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                Files.writeString(tmp, scrape());
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
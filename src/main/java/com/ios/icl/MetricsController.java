@@ -0,0 +1,17 @@
+package com.ios.icl;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+public class MetricsController {
+
+    /**
+     * Все метрики {@link Metrics#GLOBAL} для Prometheus: время этапов поиска по режимам,
+     * загрузка и размеры индекса, итерации PageRank, кеши и отказы /api/search.
+     */
+    @GetMapping(value = "/metrics", produces = "text/plain; version=0.0.4; charset=utf-8")
+    public String metrics() {
+        return Metrics.GLOBAL.scrape();
+    }
+}
@@ -0,0 +1,28 @@
+package com.ios.icl;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.util.List;
+
+@RestController
+@RequestMapping("/pagerank")
+public class PageRankController {
+
+    @Autowired
+    private PageRankProcessor pageRankProcessor;
+
+    /**
+     * Пересчёт рангов после повторного обхода перечисленных страниц
+     * (новые документы из index.txt подхватываются автоматически).
+     */
+    @PostMapping("/refresh")
+    public PageRankProcessor.UpdateStats refresh(@RequestParam(value = "docs", required = false) List<Integer> docs)
+            throws IOException {
+        return pageRankProcessor.refreshPages(docs == null ? List.of() : docs);
+    }
+}
@@ -0,0 +1,157 @@
+package com.ios.icl;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * PageRank степенным методом по графу в CSR.
+ * <p>
+ * Каждая итерация — якобиевский проход по входящим рёбрам:
+ * {@code r'[v] = (1 - d) / N + d * (Σ r[u] / out[u] + dangling / N)},
+ * где dangling — суммарный ранг страниц без исходящих ссылок, который
+ * раздаётся всем поровну. Итерации останавливаются, когда L1-норма
+ * изменения вектора падает ниже tolerance. Для больших графов проход
+ * делится между ядрами через fork-join.
+ */
+public class PageRankEngine {
+    private final double damping;
+    private final double tolerance;
+    private final int maxIterations;
+    private final int parallelThreshold;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param parallelThreshold число рёбер, начиная с которого проход распараллеливается
+     */
+    public PageRankEngine(double damping, double tolerance, int maxIterations, int parallelThreshold) {
+        this.damping = damping;
+        this.tolerance = tolerance;
+        this.maxIterations = maxIterations;
+        this.parallelThreshold = parallelThreshold;
+        this.pool = ForkJoinPool.commonPool();
+    }
+
+    /**
+     * @param ranks      ранги по вершинам графа, в сумме 1
+     * @param iterations сколько проходов понадобилось
+     * @param delta      L1-изменение на последнем проходе
+     */
+    public record Result(double[] ranks, int iterations, double delta, long nanos) {
+        public boolean converged(double tolerance) {
+            return delta < tolerance;
+        }
+    }
+
+    public Result compute(LinkGraph graph) {
+        int n = graph.nodeCount();
+        double[] uniform = new double[n];
+        Arrays.fill(uniform, n == 0 ? 0 : 1.0 / n);
+        return compute(graph, uniform);
+    }
+
+    /**
+     * @param initial стартовый вектор; нормируется к сумме 1
+     */
+    public Result compute(LinkGraph graph, double[] initial) {
+        long start = System.nanoTime();
+        int n = graph.nodeCount();
+        if (n == 0) return new Result(new double[0], 0, 0, System.nanoTime() - start);
+
+        LinkGraph incoming = graph.transpose();
+        int[] outDegree = new int[n];
+        for (int v = 0; v < n; v++) outDegree[v] = graph.degree(v);
+
+        double[] ranks = normalize(initial.clone());
+        double[] next = new double[n];
+        double[] contribution = new double[n];
+        boolean parallel = graph.edgeCount() >= parallelThreshold;
+
+        int iteration = 0;
+        double delta = Double.MAX_VALUE;
+        while (iteration < maxIterations && delta >= tolerance) {
+            double dangling = 0;
+            for (int v = 0; v < n; v++) {
+                if (outDegree[v] == 0) {
+                    dangling += ranks[v];
+                    contribution[v] = 0;
+                } else {
+                    contribution[v] = ranks[v] / outDegree[v];
+                }
+            }
+            double base = (1 - damping) / n + damping * dangling / n;
+
+            Sweep sweep = new Sweep(incoming.offsets(), incoming.targets(), contribution, ranks, next,
+                    base, damping, 0, n, parallel ? Math.max(n / (4 * pool.getParallelism()), 1024) : n);
+            delta = parallel ? pool.invoke(sweep) : sweep.compute();
+
+            double[] swap = ranks;
+            ranks = next;
+            next = swap;
+            iteration++;
+        }
+        return new Result(ranks, iteration, delta, System.nanoTime() - start);
+    }
+
+    private static double[] normalize(double[] vector) {
+        double sum = 0;
+        for (double v : vector) sum += v;
+        if (sum <= 0) {
+            Arrays.fill(vector, 1.0 / vector.length);
+            return vector;
+        }
+        for (int i = 0; i < vector.length; i++) vector[i] /= sum;
+        return vector;
+    }
+
+    /**
+     * Пересчёт рангов вершин [from, to); возвращает L1-изменение на этом отрезке.
+     */
+    private static final class Sweep extends RecursiveTask<Double> {
+        private final int[] offsets;
+        private final int[] sources;
+        private final double[] contribution;
+        private final double[] ranks;
+        private final double[] next;
+        private final double base;
+        private final double damping;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        Sweep(int[] offsets, int[] sources, double[] contribution, double[] ranks, double[] next,
+              double base, double damping, int from, int to, int grain) {
+            this.offsets = offsets;
+            this.sources = sources;
+            this.contribution = contribution;
+            this.ranks = ranks;
+            this.next = next;
+            this.base = base;
+            this.damping = damping;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected Double compute() {
+            if (to - from > grain) {
+                int mid = (from + to) >>> 1;
+                Sweep left = new Sweep(offsets, sources, contribution, ranks, next, base, damping, from, mid, grain);
+                Sweep right = new Sweep(offsets, sources, contribution, ranks, next, base, damping, mid, to, grain);
+                left.fork();
+                double rightDelta = right.compute();
+                return left.join() + rightDelta;
+            }
+            double delta = 0;
+            for (int v = from; v < to; v++) {
+                double sum = 0;
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) sum += contribution[sources[e]];
+                double rank = base + damping * sum;
+                delta += Math.abs(rank - ranks[v]);
+                next[v] = rank;
+            }
+            return delta;
+        }
+    }
+}
@@ -1,10 +1,13 @@
 package com.ios.icl;
 
 import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.io.IOException;
-import java.net.URI;
+import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
@@ -12,15 +15,64 @@ import java.util.stream.Stream;
 
 @Component
 public class PageRankProcessor {
-    public Map<Integer, PageRank> indexMap = new HashMap<>();
-    public Map<Integer, Double> pageRanks = new HashMap<>();
+    private static final Logger log = LoggerFactory.getLogger(PageRankProcessor.class);
+    static final Path RANKS_FILE = Path.of("page_ranks.bin");
+
+    // Заменяется целиком при пересчёте: адреса и ранги читатель всегда берёт из одного пересчёта
+    private volatile Ranks ranks = new Ranks(Map.of(), Map.of());
+    private LinkGraph graph;
+    private volatile PageRankEngine.Result lastResult;
+    private final Metrics.Histogram computeTimer =
+            Metrics.GLOBAL.timer("pagerank_compute_seconds", "PageRank iterations until convergence");
+    private final Metrics.Histogram iterations =
+            Metrics.GLOBAL.histogram("pagerank_iterations", "PageRank iterations per computation", Metrics.COUNTS);
+
+    @Value("${pagerank.damping:0.85}")
+    private double damping = 0.85;
+
+    @Value("${pagerank.tolerance:1e-9}")
+    private double tolerance = 1e-9;
+
+    @Value("${pagerank.max-iterations:200}")
+    private int maxIterations = 200;
+
+    @Value("${pagerank.parallel-threshold:1000000}")
+    private int parallelThreshold = 1_000_000;
+
+    /**
+     * Отдавать ранги из page_ranks.bin сразу, а пересчитывать их в фоне.
+     */
+    @Value("${pagerank.lazy-startup:true}")
+    private boolean lazyStartup = true;
+
+    @Autowired
+    private StartupTracker startup = new StartupTracker();
 
     @PostConstruct
     public void init() {
-        initRanks();
-    }
-
-    record OrderedFile(Path path, int index) {
+        Metrics.GLOBAL.gauge("pagerank_pages", "Pages with a published rank", () -> ranks.scores().size());
+        Metrics.GLOBAL.gauge("pagerank_last_iterations", "Iterations of the last PageRank computation",
+                () -> lastResult == null ? Double.NaN : lastResult.iterations());
+        Metrics.GLOBAL.gauge("pagerank_last_delta", "L1 delta of the last PageRank iteration",
+                () -> lastResult == null ? Double.NaN : lastResult.delta());
+        if (!lazyStartup) {
+            startup.loading("pageRank");
+            initRanks();
+            startup.ready("pageRank");
+            return;
+        }
+        startup.loading("rankVector");
+        startup.loading("pageRank");
+        publishSaved();
+        startup.ready("rankVector");
+        Thread.ofPlatform().name("pagerank-init").daemon().start(() -> {
+            try {
+                recompute();
+                startup.ready("pageRank");
+            } catch (RuntimeException e) {
+                startup.failed("pageRank", e);
+            }
+        });
     }
 
     /**
@@ -29,78 +81,176 @@ public class PageRankProcessor {
     public record PageRank(String pageUrl, List<Integer> referencedDocs) {
     }
 
-    public void initRanks() {
+    /**
+     * @param pages  документ → адрес и ссылающиеся на него документы
+     * @param scores документ → PageRank
+     */
+    public record Ranks(Map<Integer, PageRank> pages, Map<Integer, Double> scores) {
+    }
+
+    public Ranks ranks() {
+        return ranks;
+    }
 
+    /**
+     * @param iterations сколько проходов понадобилось до сходимости
+     * @param millis     время пересчёта вместе с применением изменений
+     */
+    public record UpdateStats(int iterations, long millis, double delta,
+                              int addedPages, int removedPages, int addedEdges, int removedEdges) {
+    }
 
-        try (Stream<String> lines = Files.lines(Path.of("index.txt"))) {
-            lines.forEach(line -> {
-                String[] split = line.split(" ");
-                indexMap.put(Integer.parseInt(split[0]), new PageRank(split[1], new ArrayList<>()));
-            });
+    /**
+     * Граф берётся из link_graph.bin, итерации стартуют с сохранённого вектора рангов, если он есть.
+     */
+    public synchronized void initRanks() {
+        try {
+            graph = LinkGraphBuilder.loadOrBuild();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        recompute();
+    }
+
+    /**
+     * Итерации по текущему графу от текущего вектора рангов.
+     */
+    private synchronized void recompute() {
+        PageRankEngine.Result result = engine().compute(graph, warmStart(graph));
+        publish(result);
+        log.info("PageRank: {} pages, {} links, {} iterations, L1 delta {}, {} ms",
+                graph.nodeCount(), graph.edgeCount(), result.iterations(), result.delta(), result.nanos() / 1_000_000);
+    }
 
-        try (Stream<Path> pages = Files.list(Path.of("pages"))) {
-            pages
-                    .map(path -> new OrderedFile(path,
-                            Integer.parseInt(path.getFileName().toString().replaceAll("[a-z.]", ""))))
-                    .parallel()
-                    .forEach(file -> {
-                        String resourceName = URI.create(indexMap.get(file.index).pageUrl()).getPath();
-                        try {
-                            Files.list(Path.of("pages")).filter(path ->
-                                            Integer.parseInt(path.getFileName().toString().replaceAll("[a-z.]", "")) != file.index)
-                                    .parallel()
-                                    .forEach(f -> {
-                                        try {
-                                            Files.lines(f)
-                                                    .filter(l -> l.contains(String.format("<a href=\"%s\"", resourceName)))
-                                                    .findAny()
-                                                    .ifPresent(l -> {
-                                                        int index = Integer.parseInt(f.getFileName().toString().replaceAll("[a-z.]", ""));
-                                                        indexMap.get(file.index).referencedDocs().add(index);
-                                                    });
-
-                                        } catch (IOException e) {
-                                            throw new RuntimeException(e);
-                                        }
-                                    });
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    });
+    /**
+     * Применяет изменения графа и досчитывает ранги от текущего вектора, а не с нуля.
+     */
+    public synchronized UpdateStats update(GraphDelta delta) {
+        long start = System.nanoTime();
+        graph = graph.apply(delta);
+        try {
+            graph.save(LinkGraphBuilder.GRAPH_FILE);
         } catch (IOException e) {
-            throw new RuntimeException(e);
-        } finally {
-            int i = 0;
+            throw new UncheckedIOException(e);
         }
+        PageRankEngine.Result result = engine().compute(graph, warmStart(graph));
+        publish(result);
 
-        double d = 0.85;
-        double c = (1 - d) / 100;
+        UpdateStats stats = new UpdateStats(result.iterations(), (System.nanoTime() - start) / 1_000_000,
+                result.delta(), delta.addedPages().size(), delta.removedPages().size(),
+                delta.addedEdges().size(), delta.removedEdges().size());
+        log.info("PageRank update: {}", stats);
+        return stats;
+    }
 
-        for (int i = 0; i < 100; i++) {
-            for (Map.Entry<Integer, PageRank> indexMapEntry : indexMap.entrySet()) {
+    /**
+     * Перечитывает ссылки перекачанных страниц и новых документов из index.txt
+     * и применяет разницу с текущим графом.
+     */
+    public synchronized UpdateStats refreshPages(Collection<Integer> docIds) throws IOException {
+        LinkGraphBuilder builder = new LinkGraphBuilder(LinkGraphBuilder.INDEX_FILE);
+        Set<Integer> allPages = new TreeSet<>();
+        for (int docId : builder.docIds()) allPages.add(docId);
 
-                double pageRank = indexMapEntry.getValue().referencedDocs().stream()
-                        .filter(docId -> getPageOutgoingRefs(docId) != 0)
-                        .mapToDouble(docId -> pageRanks.getOrDefault(docId, 0.01) / getPageOutgoingRefs(docId))
-                        .sum();
+        Set<Integer> changed = new TreeSet<>(docIds);
+        for (int docId : allPages) {
+            if (graph.node(docId) < 0) changed.add(docId);
+        }
+        Map<Integer, int[]> outLinks = new HashMap<>();
+        for (int docId : changed) {
+            if (allPages.contains(docId)) outLinks.put(docId, builder.outgoing(docId, LinkGraphBuilder.PAGES_DIR));
+        }
+        return update(GraphDelta.between(graph, outLinks, allPages));
+    }
 
-                pageRanks.put(indexMapEntry.getKey(), pageRank);
-            }
+    /**
+     * Ранги прошлого запуска из page_ranks.bin без пересчёта, чтобы поиск мог упорядочивать
+     * выдачу, пока идут итерации. Новые страницы до пересчёта получают ранг 0.
+     */
+    private synchronized void publishSaved() {
+        try {
+            graph = LinkGraphBuilder.loadOrBuild();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        this.ranks = new Ranks(pages(), loadRanks());
+        log.info("PageRank: published {} saved ranks, recomputing in background", ranks.scores().size());
+    }
 
+    private PageRankEngine engine() {
+        return new PageRankEngine(damping, tolerance, maxIterations, parallelThreshold);
+    }
 
-        int i = 0;
+    /**
+     * Стартовый вектор из текущих рангов, а при их отсутствии — из page_ranks.bin.
+     * Новые страницы получают равную долю 1 / N.
+     */
+    private double[] warmStart(LinkGraph graph) {
+        Map<Integer, Double> previous = ranks.scores().isEmpty() ? loadRanks() : ranks.scores();
+        double[] initial = new double[graph.nodeCount()];
+        for (int node = 0; node < initial.length; node++) {
+            initial[node] = previous.getOrDefault(graph.docId(node), 1.0 / initial.length);
+        }
+        return initial;
+    }
 
+    private void publish(PageRankEngine.Result result) {
+        lastResult = result;
+        computeTimer.recordNanos(result.nanos());
+        iterations.observe(result.iterations());
+        Metrics.GLOBAL.counter("pagerank_computations_total", "PageRank computations by outcome",
+                "converged", Boolean.toString(result.converged(tolerance))).increment();
+        Map<Integer, Double> ranks = new HashMap<>();
+        for (int node = 0; node < graph.nodeCount(); node++) ranks.put(graph.docId(node), result.ranks()[node]);
+        this.ranks = new Ranks(pages(), ranks);
+        saveRanks(ranks);
     }
 
-    private int getPageOutgoingRefs(int docId) {
-        return (int) indexMap.values().stream()
-                .map(PageRank::referencedDocs)
-                .flatMap(Collection::stream)
-                .filter(index -> docId == index)
-                .count();
+    /**
+     * Адреса страниц из index.txt и входящие ссылки по текущему графу.
+     */
+    private Map<Integer, PageRank> pages() {
+        LinkGraph incoming = graph.transpose();
+        Map<Integer, PageRank> pages = new HashMap<>();
+        try (Stream<String> lines = Files.lines(LinkGraphBuilder.INDEX_FILE)) {
+            lines.forEach(line -> {
+                String[] split = line.split(" ");
+                int docId = Integer.parseInt(split[0]);
+                int node = incoming.node(docId);
+                List<Integer> referencedDocs = new ArrayList<>();
+                if (node >= 0) {
+                    for (int source : incoming.neighbours(node)) referencedDocs.add(incoming.docId(source));
+                }
+                pages.put(docId, new PageRank(split[1], referencedDocs));
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return pages;
+    }
+
+    private static Map<Integer, Double> loadRanks() {
+        if (!Files.exists(RANKS_FILE)) return Map.of();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(RANKS_FILE)))) {
+            int n = in.readInt();
+            Map<Integer, Double> ranks = new HashMap<>(n * 4 / 3 + 1);
+            for (int i = 0; i < n; i++) ranks.put(in.readInt(), in.readDouble());
+            return ranks;
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable {}: {}", RANKS_FILE, e.getMessage());
+            return Map.of();
+        }
+    }
+
+    private static void saveRanks(Map<Integer, Double> ranks) {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(RANKS_FILE)))) {
+            out.writeInt(ranks.size());
+            for (Map.Entry<Integer, Double> entry : new TreeMap<>(ranks).entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeDouble(entry.getValue());
+            }
+        } catch (IOException e) {
+            log.warn("Could not save {}: {}", RANKS_FILE, e.getMessage());
+        }
     }
 }
@@ -0,0 +1,259 @@
+package com.ios.icl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Позиционный индекс, отображаемый в память. Позиции декодируются только
+ * для документов, прошедших пересечение по номерам.
+ * <pre>
+ * header   magic, version, termCount, docCount, dictOffset, termsOffset, docsOffset, stopWordsOffset
+ * postings на каждый термин: vint(docΔ) vint(freq) vint(positionBytes) по всем документам,
+ *          затем позиции этих документов подряд: vint(posΔ) ..., отсчёт заново в каждом документе
+ * dict     на каждый термин: vint(len) term vlong(offset) vint(df)
+ * terms    int32 смещения терминов внутри dict, в порядке {@link String#compareTo}
+ * docs     vint(count), затем vint(docΔ) vint(words) vint(titleWords) на каждый документ
+ * stopwords vint(count), затем vint(len) word: стоп-слова, отброшенные при индексации
+ * </pre>
+ */
+public class PositionalIndex {
+    static final int MAGIC = 0x4F495050; // "OIPP"
+    static final int VERSION = 3;
+    static final int HEADER_SIZE = 48;
+
+    private final ByteBuffer buffer;
+    private final int termCount;
+    private final int docCount;
+    private final int dictOffset;
+    private final int termsOffset;
+    private final int docsOffset;
+    private final StopWords stopWords;
+
+    /**
+     * @param words      число слов в документе
+     * @param titleWords сколько из них приходится на заголовок: позиции 0..titleWords-1
+     */
+    public record DocLength(int words, int titleWords) {
+    }
+
+    private PositionalIndex(ByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC) throw new IllegalStateException("Not a positional index");
+        if (buffer.getInt(4) != VERSION) throw new IllegalStateException("Unsupported index version " + buffer.getInt(4));
+        this.termCount = buffer.getInt(8);
+        this.docCount = buffer.getInt(12);
+        this.dictOffset = (int) buffer.getLong(16);
+        this.termsOffset = (int) buffer.getLong(24);
+        this.docsOffset = (int) buffer.getLong(32);
+        this.stopWords = readStopWords((int) buffer.getLong(40));
+    }
+
+    private StopWords readStopWords(int offset) {
+        Cursor c = new Cursor(offset);
+        String[] words = new String[c.readVInt()];
+        for (int i = 0; i < words.length; i++) words[i] = new String(c.readBytes(c.readVInt()), StandardCharsets.UTF_8);
+        return StopWords.of(words);
+    }
+
+    public static PositionalIndex open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new PositionalIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * @return размер отображённого файла
+     */
+    public long sizeBytes() {
+        return buffer.capacity();
+    }
+
+    public int termCount() {
+        return termCount;
+    }
+
+    public int docCount() {
+        return docCount;
+    }
+
+    /**
+     * @return стоп-слова, с которыми строился индекс: в нём их нет, но позиции они занимают
+     */
+    public StopWords stopWords() {
+        return stopWords;
+    }
+
+    /**
+     * @return длины всех документов коллекции по номеру документа
+     */
+    public SortedMap<Integer, DocLength> docLengths() {
+        SortedMap<Integer, DocLength> lengths = new TreeMap<>();
+        Cursor c = new Cursor(docsOffset);
+        int count = c.readVInt();
+        int doc = 0;
+        for (int i = 0; i < count; i++) {
+            doc += c.readVInt();
+            lengths.put(doc, new DocLength(c.readVInt(), c.readVInt()));
+        }
+        return lengths;
+    }
+
+    public int docFrequency(String term) {
+        int entry = lookup(term);
+        if (entry < 0) return 0;
+        Cursor c = new Cursor(entry);
+        c.skip(c.readVInt());
+        c.readVLong();
+        return c.readVInt();
+    }
+
+    /**
+     * @return постинги термина; пустые, если термина нет
+     */
+    public Postings postings(String term) {
+        int entry = lookup(term);
+        if (entry < 0) return new Postings(new int[0], new int[0], new int[0]);
+        Cursor c = new Cursor(entry);
+        c.skip(c.readVInt());
+        long offset = c.readVLong();
+        int df = c.readVInt();
+
+        int[] docs = new int[df];
+        int[] freqs = new int[df];
+        int[] positionOffsets = new int[df];
+        int[] lengths = new int[df];
+        c = new Cursor((int) (HEADER_SIZE + offset));
+        int doc = 0;
+        for (int i = 0; i < df; i++) {
+            doc += c.readVInt();
+            docs[i] = doc;
+            freqs[i] = c.readVInt();
+            lengths[i] = c.readVInt();
+        }
+        int position = c.pos;
+        for (int i = 0; i < df; i++) {
+            positionOffsets[i] = position;
+            position += lengths[i];
+        }
+        return new Postings(docs, freqs, positionOffsets);
+    }
+
+    /**
+     * @return смещение записи термина в dict либо -1
+     */
+    private int lookup(String term) {
+        int lo = 0;
+        int hi = termCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int entry = dictOffset + buffer.getInt(termsOffset + mid * 4);
+            Cursor c = new Cursor(entry);
+            int cmp = new String(c.readBytes(c.readVInt()), StandardCharsets.UTF_8).compareTo(term);
+            if (cmp == 0) return entry;
+            if (cmp < 0) lo = mid + 1;
+            else hi = mid - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Документы термина; позиции конкретного документа читаются по требованию.
+     */
+    public final class Postings {
+        private final int[] docs;
+        private final int[] freqs;
+        private final int[] positionOffsets;
+
+        private Postings(int[] docs, int[] freqs, int[] positionOffsets) {
+            this.docs = docs;
+            this.freqs = freqs;
+            this.positionOffsets = positionOffsets;
+        }
+
+        public int size() {
+            return docs.length;
+        }
+
+        /**
+         * @return номера документов по возрастанию
+         */
+        public int[] docs() {
+            return docs;
+        }
+
+        public int freq(int i) {
+            return freqs[i];
+        }
+
+        /**
+         * @return сколько позиций i-го документа меньше bound, без декодирования остальных
+         */
+        public int countBelow(int i, int bound) {
+            Cursor c = new Cursor(positionOffsets[i]);
+            int position = 0;
+            for (int j = 0; j < freqs[i]; j++) {
+                position += c.readVInt();
+                if (position >= bound) return j;
+            }
+            return freqs[i];
+        }
+
+        /**
+         * @return позиции термина в i-м документе по возрастанию
+         */
+        public int[] positions(int i) {
+            int[] positions = new int[freqs[i]];
+            Cursor c = new Cursor(positionOffsets[i]);
+            int position = 0;
+            for (int j = 0; j < positions.length; j++) {
+                position += c.readVInt();
+                positions[j] = position;
+            }
+            return positions;
+        }
+    }
+
+    /**
+     * Чтение по абсолютным смещениям, как в {@link BinaryInvertedIndex}.
+     */
+    private final class Cursor {
+        int pos;
+
+        Cursor(int pos) {
+            this.pos = pos;
+        }
+
+        int readVInt() {
+            return (int) readVLong();
+        }
+
+        long readVLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(pos++);
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        void skip(int length) {
+            pos += length;
+        }
+
+        byte[] readBytes(int length) {
+            byte[] bytes = new byte[length];
+            buffer.get(pos, bytes);
+            pos += length;
+            return bytes;
+        }
+    }
+}
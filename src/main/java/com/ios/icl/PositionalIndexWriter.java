@@ -0,0 +1,142 @@
+package com.ios.icl;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.List;
+
+import static com.ios.icl.BinaryIndexWriter.writeVInt;
+import static com.ios.icl.BinaryIndexWriter.writeVLong;
+
+/**
+ * Потоковая запись позиционного индекса в формат {@link PositionalIndex}.
+ * Как и в {@link BinaryIndexWriter}, термины идут в порядке {@link String#compareTo},
+ * постинги сразу уходят на диск, в памяти копится только словарь.
+ */
+public class PositionalIndexWriter implements Closeable {
+    private final FileChannel channel;
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream dict = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream termOffsets = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream positionBytes = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream docTable = new ByteArrayOutputStream();
+    private final BitSet allDocs = new BitSet();
+    private final StopWords stopWords;
+
+    private String previousTerm;
+    private int termCount;
+    private int previousDoc;
+    private int docCount;
+
+    /**
+     * @param stopWords стоп-слова, которые индексатор отбросил: запросы фраз по индексу должны
+     *                  пропускать те же слова
+     */
+    public PositionalIndexWriter(Path file, StopWords stopWords) throws IOException {
+        this.stopWords = stopWords;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+        out.write(new byte[PositionalIndex.HEADER_SIZE]);
+    }
+
+    /**
+     * @param docs      номера документов по возрастанию
+     * @param positions позиции термина в каждом документе, по возрастанию
+     */
+    public void add(String term, int[] docs, int[][] positions) throws IOException {
+        if (previousTerm != null && previousTerm.compareTo(term) >= 0) {
+            throw new IllegalArgumentException("Terms must be added in sorted order: " + term);
+        }
+        if (docs.length != positions.length) {
+            throw new IllegalArgumentException("docs and positions differ in length for " + term);
+        }
+
+        long postingsOffset = out.size() - PositionalIndex.HEADER_SIZE;
+        // Сначала блок документов, потом блок позиций: пересечение по документам не читает позиции
+        positionBytes.reset();
+        int lastDoc = 0;
+        for (int i = 0; i < docs.length; i++) {
+            if (i > 0 && docs[i] <= lastDoc) {
+                throw new IllegalArgumentException("Postings of " + term + " are not strictly ascending");
+            }
+            int start = positionBytes.size();
+            int lastPosition = 0;
+            for (int position : positions[i]) {
+                writeVInt(positionBytes, position - lastPosition);
+                lastPosition = position;
+            }
+            writeVInt(out, docs[i] - lastDoc);
+            writeVInt(out, positions[i].length);
+            writeVInt(out, positionBytes.size() - start);
+            lastDoc = docs[i];
+            allDocs.set(docs[i]);
+        }
+        positionBytes.writeTo(out);
+
+        termOffsets.write(ByteBuffer.allocate(4).putInt(dict.size()).array());
+        byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+        writeVInt(dict, bytes.length);
+        dict.write(bytes);
+        writeVLong(dict, postingsOffset);
+        writeVInt(dict, docs.length);
+
+        previousTerm = term;
+        termCount++;
+    }
+
+    /**
+     * Длина документа для BM25; документы идут по возрастанию номера, независимо от терминов.
+     */
+    public void document(int docId, int words, int titleWords) throws IOException {
+        if (docCount > 0 && docId <= previousDoc) {
+            throw new IllegalArgumentException("Documents must be added in ascending order: " + docId);
+        }
+        writeVInt(docTable, docId - previousDoc);
+        writeVInt(docTable, words);
+        writeVInt(docTable, titleWords);
+        previousDoc = docId;
+        docCount++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            long dictOffset = out.size();
+            dict.writeTo(out);
+            long termsOffset = out.size();
+            termOffsets.writeTo(out);
+            long docsOffset = out.size();
+            writeVInt(out, docCount);
+            docTable.writeTo(out);
+            long stopWordsOffset = out.size();
+            List<String> words = stopWords.words();
+            writeVInt(out, words.size());
+            for (String word : words) {
+                byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+                writeVInt(out, bytes.length);
+                out.write(bytes);
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(PositionalIndex.HEADER_SIZE);
+            header.putInt(PositionalIndex.MAGIC)
+                    .putInt(PositionalIndex.VERSION)
+                    .putInt(termCount)
+                    .putInt(Math.max(docCount, allDocs.cardinality()))
+                    .putLong(dictOffset)
+                    .putLong(termsOffset)
+                    .putLong(docsOffset)
+                    .putLong(stopWordsOffset);
+            header.clear();
+            channel.write(header, 0);
+        } finally {
+            out.close();
+        }
+    }
+}
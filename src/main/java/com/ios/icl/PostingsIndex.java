@@ -0,0 +1,467 @@
+package com.ios.icl;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Инвертированный индекс по TF-IDF векторам документов.
+ * Веса в постингах уже поделены на норму документа, поэтому косинус
+ * считается скалярным произведением только по терминам запроса
+ * и затрагивает лишь документы, в которых эти термины встречаются.
+ * Постинги упорядочены по убыванию веса (impact-ordered), рядом хранится
+ * копия, упорядоченная по номеру документа, для обхода document-at-a-time.
+ * Постинги всех терминов лежат подряд в общих массивах (как векторы в {@link DocumentVectors}):
+ * термин с номером t занимает [offsets[t], offsets[t + 1]), отдельных объектов на термин нет.
+ */
+public class PostingsIndex {
+    private final int[] docIds;
+    private final TermDictionary dictionary;
+    private final int[] offsets;
+    private final int[] impactDocs;
+    private final float[] impactWeights;
+    private final int[] sortedDocs;
+    private final float[] sortedWeights;
+    private final Accumulator.Pool accumulators;
+
+    public enum Strategy {
+        /** Полный подсчёт всех кандидатов term-at-a-time. */
+        EXHAUSTIVE,
+        /** Document-at-a-time с отсечением MaxScore. */
+        MAXSCORE
+    }
+
+    /**
+     * Постинги термина — диапазон [from, to) общих массивов индекса.
+     *
+     * @param docs          порядковые номера документов
+     * @param weights       нормированные веса tfidf / |d|, по убыванию
+     * @param sortedDocs    те же документы по возрастанию номера
+     * @param sortedWeights веса в порядке sortedDocs
+     */
+    public record Postings(int[] docs, float[] weights, int[] sortedDocs, float[] sortedWeights, int from, int to) {
+        public int size() {
+            return to - from;
+        }
+
+        /**
+         * Верхняя граница вклада термина — первый вес в impact-ordered списке.
+         */
+        public double maxWeight() {
+            return from == to ? 0 : weights[from];
+        }
+    }
+
+    /**
+     * @param postingsTotal  суммарная длина постингов терминов запроса
+     * @param postingsScored сколько постингов реально попало в подсчёт
+     * @param candidates     сколько документов получили оценку
+     * @param scoreNanos     подсчёт оценок (у MaxScore вместе с отбором в кучу)
+     * @param selectNanos    отбор top-K и выдача результатов
+     */
+    public record Hits(List<VectorSearchEngine.Result> results, long postingsTotal, long postingsScored,
+                       int candidates, long scoreNanos, long selectNanos) {
+    }
+
+    private PostingsIndex(int[] docIds, TermDictionary dictionary, int[] offsets,
+                          int[] impactDocs, float[] impactWeights, int[] sortedDocs, float[] sortedWeights) {
+        this.docIds = docIds;
+        this.dictionary = dictionary;
+        this.offsets = offsets;
+        this.impactDocs = impactDocs;
+        this.impactWeights = impactWeights;
+        this.sortedDocs = sortedDocs;
+        this.sortedWeights = sortedWeights;
+        this.accumulators = new Accumulator.Pool(docIds.length);
+    }
+
+    /**
+     * Два прохода по векторам: сначала длины списков, затем сами постинги
+     * по возрастанию номера документа; impact-ordered копия — сортировкой каждого диапазона.
+     */
+    public static PostingsIndex build(DocumentVectors vectors) {
+        int docCount = vectors.docCount();
+        int termCount = vectors.termCount();
+        int[] docIds = new int[docCount];
+        int[] offsets = new int[termCount + 1];
+        double[] norms = new double[docCount];
+        for (int doc = 0; doc < docCount; doc++) {
+            docIds[doc] = vectors.docId(doc);
+            double norm = 0;
+            for (int i = vectors.offset(doc); i < vectors.offset(doc + 1); i++) {
+                double w = vectors.weight(i);
+                norm += w * w;
+                offsets[vectors.term(i) + 1]++;
+            }
+            norms[doc] = Math.sqrt(norm);
+        }
+        for (int term = 0; term < termCount; term++) offsets[term + 1] += offsets[term];
+
+        int size = offsets[termCount];
+        int[] sortedDocs = new int[size];
+        float[] sortedWeights = new float[size];
+        int[] fill = Arrays.copyOf(offsets, termCount);
+        for (int doc = 0; doc < docCount; doc++) {
+            for (int i = vectors.offset(doc); i < vectors.offset(doc + 1); i++) {
+                int at = fill[vectors.term(i)]++;
+                sortedDocs[at] = doc;
+                sortedWeights[at] = (float) (vectors.weight(i) / norms[doc]);
+            }
+        }
+
+        int[] impactDocs = new int[size];
+        float[] impactWeights = new float[size];
+        for (int term = 0; term < termCount; term++) {
+            int from = offsets[term];
+            int length = offsets[term + 1] - from;
+            Integer[] order = new Integer[length];
+            for (int i = 0; i < length; i++) order[i] = from + i;
+            Arrays.sort(order, (a, b) -> Float.compare(sortedWeights[b], sortedWeights[a]));
+            for (int i = 0; i < length; i++) {
+                impactDocs[from + i] = sortedDocs[order[i]];
+                impactWeights[from + i] = sortedWeights[order[i]];
+            }
+        }
+        return new PostingsIndex(docIds, vectors.dictionary(), offsets, impactDocs, impactWeights, sortedDocs, sortedWeights);
+    }
+
+    public int docCount() {
+        return docIds.length;
+    }
+
+    public int termCount() {
+        return offsets.length - 1;
+    }
+
+    public long postingCount() {
+        return offsets[offsets.length - 1];
+    }
+
+    /**
+     * @return номер страницы документа с порядковым номером doc
+     */
+    public int docId(int doc) {
+        return docIds[doc];
+    }
+
+    /**
+     * @return примерный объём постингов в куче; словарь терминов общий с {@link DocumentVectors} и сюда не входит
+     */
+    public long estimatedBytes() {
+        return 4L * (docIds.length + offsets.length + impactDocs.length + impactWeights.length
+                + sortedDocs.length + sortedWeights.length);
+    }
+
+    /**
+     * @return постинги термина либо null, если его нет в словаре
+     */
+    public Postings postings(String term) {
+        int id = dictionary.id(term);
+        if (id < 0) return null;
+        return new Postings(impactDocs, impactWeights, sortedDocs, sortedWeights, offsets[id], offsets[id + 1]);
+    }
+
+    public List<VectorSearchEngine.Result> search(Map<String, Double> qVec, int topK) {
+        return search(qVec, topK, Strategy.EXHAUSTIVE).results();
+    }
+
+    /**
+     * Все документы, где есть хотя бы один термин запроса, по убыванию косинуса.
+     * Нужен для слияния списков, где обрезка до top-K искажает итог.
+     */
+    public List<VectorSearchEngine.Result> rankAll(Map<String, Double> qVec) {
+        return search(qVec, docIds.length, Strategy.EXHAUSTIVE).results();
+    }
+
+    public Hits search(Map<String, Double> qVec, int topK, Strategy strategy) {
+        double qNorm = 0;
+        for (double w : qVec.values()) qNorm += w * w;
+        qNorm = Math.sqrt(qNorm);
+        if (qNorm == 0 || topK <= 0) return new Hits(List.of(), 0, 0, 0, 0, 0);
+
+        return switch (strategy) {
+            case EXHAUSTIVE -> searchExhaustive(qVec, qNorm, topK);
+            case MAXSCORE -> searchMaxScore(qVec, qNorm, topK);
+        };
+    }
+
+    /**
+     * Полный подсчёт сразу для нескольких запросов: постинги термина, общего для нескольких
+     * запросов, читаются один раз, и вклад раскладывается по суммам каждого из них.
+     *
+     * @return top-K каждого запроса в порядке qVecs
+     */
+    public List<List<VectorSearchEngine.Result>> searchBatch(List<Map<String, Double>> qVecs, int topK) {
+        int n = qVecs.size();
+        double[] norms = new double[n];
+        // Пары (термин, номер пары) в одном long: сортировка группирует их по термину без упаковки в Integer
+        int count = 0;
+        for (Map<String, Double> qVec : qVecs) count += qVec.size();
+        long[] byTerm = new long[count];
+        int[] queryOf = new int[count];
+        double[] weightOf = new double[count];
+        int size = 0;
+        for (int q = 0; q < n; q++) {
+            for (var e : qVecs.get(q).entrySet()) {
+                norms[q] += e.getValue() * e.getValue();
+                int id = dictionary.id(e.getKey());
+                if (id < 0) continue;
+                byTerm[size] = (long) id << 32 | size;
+                queryOf[size] = q;
+                weightOf[size] = e.getValue();
+                size++;
+            }
+        }
+        Arrays.sort(byTerm, 0, size);
+
+        Accumulator[] accs = new Accumulator[n];
+        for (int q = 0; q < n; q++) accs[q] = accumulators.acquire();
+        Accumulator[] groupAccs = new Accumulator[n];
+        double[] groupWeights = new double[n];
+        try {
+            int group = 0;
+            while (group < size) {
+                int term = (int) (byTerm[group] >>> 32);
+                int members = 0;
+                for (; group < size && (int) (byTerm[group] >>> 32) == term; group++) {
+                    int pair = (int) byTerm[group];
+                    groupAccs[members] = accs[queryOf[pair]];
+                    groupWeights[members++] = weightOf[pair];
+                }
+                for (int i = offsets[term]; i < offsets[term + 1]; i++) {
+                    int doc = impactDocs[i];
+                    float w = impactWeights[i];
+                    for (int j = 0; j < members; j++) groupAccs[j].add(doc, groupWeights[j] * w);
+                }
+            }
+
+            List<List<VectorSearchEngine.Result>> out = new ArrayList<>(n);
+            for (int q = 0; q < n; q++) {
+                double qNorm = Math.sqrt(norms[q]);
+                if (qNorm == 0 || topK <= 0) {
+                    out.add(List.of());
+                    continue;
+                }
+                Accumulator acc = accs[q];
+                TopKCollector top = new TopKCollector(topK);
+                for (int i = 0; i < acc.touchedCount; i++) {
+                    int doc = acc.touched[i];
+                    top.offer(doc, acc.scores[doc] / qNorm);
+                }
+                out.add(toResults(top));
+            }
+            return out;
+        } finally {
+            for (Accumulator acc : accs) accumulators.release(acc);
+        }
+    }
+
+    /**
+     * Term-at-a-time: накапливает вклад каждого термина запроса
+     * по его постингам и отбирает top-K ограниченной кучей.
+     */
+    private Hits searchExhaustive(Map<String, Double> qVec, double qNorm, int topK) {
+        Accumulator acc = accumulators.acquire();
+        long scored = 0;
+        long start = System.nanoTime();
+        try {
+            for (var e : qVec.entrySet()) {
+                Postings p = postings(e.getKey());
+                if (p == null) continue;
+                double qw = e.getValue();
+                int[] docs = p.docs();
+                float[] weights = p.weights();
+                for (int i = p.from(); i < p.to(); i++) acc.add(docs[i], qw * weights[i]);
+                scored += p.size();
+            }
+
+            long selectStart = System.nanoTime();
+            TopKCollector top = new TopKCollector(topK);
+            for (int i = 0; i < acc.touchedCount; i++) {
+                int doc = acc.touched[i];
+                top.offer(doc, acc.scores[doc] / qNorm);
+            }
+            List<VectorSearchEngine.Result> results = toResults(top);
+            return new Hits(results, scored, scored, acc.touchedCount, selectStart - start,
+                    System.nanoTime() - selectStart);
+        } finally {
+            accumulators.release(acc);
+        }
+    }
+
+    /**
+     * Document-at-a-time с отсечением MaxScore.
+     * Термины упорядочиваются по верхней границе вклада; префикс терминов,
+     * чья суммарная граница не дотягивает до порога кучи, становится
+     * «несущественным»: по их спискам документы не перечисляются,
+     * а только дозапрашиваются для кандидатов из существенных списков,
+     * и то пока кандидат ещё может пройти порог.
+     */
+    private Hits searchMaxScore(Map<String, Double> qVec, double qNorm, int topK) {
+        long start = System.nanoTime();
+        List<Cursor> list = new ArrayList<>(qVec.size());
+        long total = 0;
+        for (var e : qVec.entrySet()) {
+            Postings p = postings(e.getKey());
+            if (p == null) continue;
+            list.add(new Cursor(p, e.getValue() / qNorm));
+            total += p.size();
+        }
+        Cursor[] cursors = list.toArray(new Cursor[0]);
+        Arrays.sort(cursors, Comparator.comparingDouble(c -> c.upperBound));
+        int n = cursors.length;
+        // Запас на ошибки округления: граница не должна оказаться ниже реальной суммы
+        double[] cumulative = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += cursors[i].upperBound;
+            cumulative[i] = sum * (1 + 1e-9);
+        }
+
+        TopKCollector top = new TopKCollector(topK);
+        double threshold = top.threshold();
+        int firstEssential = 0;
+        long scored = 0;
+        int candidates = 0;
+
+        while (firstEssential < n) {
+            int doc = Integer.MAX_VALUE;
+            for (int i = firstEssential; i < n; i++) doc = Math.min(doc, cursors[i].doc());
+            if (doc == Integer.MAX_VALUE) break;
+            candidates++;
+
+            double score = 0;
+            for (int i = firstEssential; i < n; i++) {
+                Cursor c = cursors[i];
+                if (c.doc() == doc) {
+                    score += c.score();
+                    c.next();
+                    scored++;
+                }
+            }
+            for (int i = firstEssential - 1; i >= 0; i--) {
+                // Строгое сравнение: при равенстве документ ещё может выиграть по номеру
+                if (score + cumulative[i] < threshold) break;
+                Cursor c = cursors[i];
+                c.advance(doc);
+                if (c.doc() == doc) {
+                    score += c.score();
+                    scored++;
+                }
+            }
+
+            if (top.offer(doc, score)) {
+                threshold = top.threshold();
+                while (firstEssential < n && cumulative[firstEssential] < threshold) firstEssential++;
+            }
+        }
+        long selectStart = System.nanoTime();
+        List<VectorSearchEngine.Result> results = toResults(top);
+        return new Hits(results, total, scored, candidates, selectStart - start, System.nanoTime() - selectStart);
+    }
+
+    List<VectorSearchEngine.Result> toResults(TopKCollector top) {
+        List<VectorSearchEngine.Result> out = new ArrayList<>();
+        for (TopKCollector.Entry e : top.drain()) out.add(new VectorSearchEngine.Result(docIds[e.doc()], e.score()));
+        return out;
+    }
+
+    /**
+     * Курсор по постингам термина в порядке номеров документов.
+     */
+    private static final class Cursor {
+        final int[] docs;
+        final float[] weights;
+        final double queryWeight;
+        final double upperBound;
+        final int end;
+        int pos;
+
+        Cursor(Postings p, double queryWeight) {
+            this.docs = p.sortedDocs();
+            this.weights = p.sortedWeights();
+            this.pos = p.from();
+            this.end = p.to();
+            this.queryWeight = queryWeight;
+            this.upperBound = queryWeight * p.maxWeight();
+        }
+
+        int doc() {
+            return pos < end ? docs[pos] : Integer.MAX_VALUE;
+        }
+
+        double score() {
+            return queryWeight * weights[pos];
+        }
+
+        void next() {
+            pos++;
+        }
+
+        /**
+         * Галопирующий поиск первого документа >= target.
+         */
+        void advance(int target) {
+            if (pos >= end || docs[pos] >= target) return;
+            int step = 1;
+            int lo = pos;
+            int hi = pos + 1;
+            while (hi < end && docs[hi] < target) {
+                lo = hi;
+                step <<= 1;
+                hi = pos + step;
+            }
+            int idx = Arrays.binarySearch(docs, lo + 1, Math.min(hi, end - 1) + 1, target);
+            pos = idx >= 0 ? idx : -idx - 1;
+        }
+    }
+
+    /**
+     * Плотный массив сумм, переиспользуемый между запросами.
+     * Сбрасываются только затронутые ячейки.
+     */
+    static final class Accumulator {
+        final double[] scores;
+        final int[] touched;
+        int touchedCount;
+
+        Accumulator(int size) {
+            scores = new double[size];
+            touched = new int[size];
+        }
+
+        void add(int doc, double value) {
+            if (value == 0) return;
+            if (scores[doc] == 0) touched[touchedCount++] = doc;
+            scores[doc] += value;
+        }
+
+        void reset() {
+            for (int i = 0; i < touchedCount; i++) scores[touched[i]] = 0;
+            touchedCount = 0;
+        }
+
+        /**
+         * Свободные аккумуляторы вместо ThreadLocal: на виртуальных потоках каждый запрос
+         * идёт в новом потоке, и ThreadLocal выделял бы массивы размером с коллекцию на каждый запрос.
+         * Аккумуляторов в пуле столько, сколько запросов одновременно считалось в пике.
+         */
+        static final class Pool {
+            private final int size;
+            private final Queue<Accumulator> free = new ConcurrentLinkedQueue<>();
+
+            Pool(int size) {
+                this.size = size;
+            }
+
+            Accumulator acquire() {
+                Accumulator acc = free.poll();
+                return acc != null ? acc : new Accumulator(size);
+            }
+
+            void release(Accumulator acc) {
+                acc.reset();
+                free.offer(acc);
+            }
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.ios.icl;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Ограниченный кеш с вытеснением W-TinyLFU и сроком жизни записи.
+ * <p>
+ * Новая запись сначала попадает в маленькое LRU-окно (1% ёмкости). Вытесненная из окна
+ * запись проходит в основную часть, только если по частотному скетчу к ней обращались
+ * чаще, чем к кандидату на вытеснение оттуда; так разовые запросы не вымывают популярные.
+ * Основная часть — сегментированный LRU: повторное попадание переводит запись
+ * из испытательного сегмента в защищённый (80% основной части).
+ * <p>
+ * Запись старше ttl считается отсутствующей. Все операции под одной блокировкой;
+ * значение для {@link #get(Object, Function)} вычисляется вне её, так что при
+ * одновременном промахе по одному ключу оно может посчитаться дважды.
+ */
+public final class QueryCache<K, V> {
+
+    /**
+     * @param evictions  записи, вытесненные по размеру, включая не допущенные из окна
+     * @param rejections сколько из них не прошли фильтр частоты при выходе из окна
+     */
+    public record Stats(long hits, long misses, long evictions, long rejections, long expirations, int size) {
+        public double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+    }
+
+    private enum Segment { WINDOW, PROBATION, PROTECTED }
+
+    private static final class Node<K, V> {
+        final K key;
+        V value;
+        long writtenAt;
+        Segment segment;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value, long writtenAt) {
+            this.key = key;
+            this.value = value;
+            this.writtenAt = writtenAt;
+        }
+    }
+
+    /**
+     * Двусвязный список с головой — самым свежим элементом.
+     */
+    private static final class Queue<K, V> {
+        final Segment segment;
+        Node<K, V> head;
+        Node<K, V> tail;
+        int size;
+
+        Queue(Segment segment) {
+            this.segment = segment;
+        }
+
+        void addFirst(Node<K, V> node) {
+            node.segment = segment;
+            node.prev = null;
+            node.next = head;
+            if (head != null) head.prev = node;
+            head = node;
+            if (tail == null) tail = node;
+            size++;
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.prev != null) node.prev.next = node.next;
+            else head = node.next;
+            if (node.next != null) node.next.prev = node.prev;
+            else tail = node.prev;
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+    }
+
+    private final int maximumSize;
+    private final int windowSize;
+    private final int protectedSize;
+    private final long ttlNanos;
+    private final Map<K, Node<K, V>> data = new HashMap<>();
+    private final Queue<K, V> window = new Queue<>(Segment.WINDOW);
+    private final Queue<K, V> probation = new Queue<>(Segment.PROBATION);
+    private final Queue<K, V> protectedQueue = new Queue<>(Segment.PROTECTED);
+    private final FrequencySketch sketch;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long rejections;
+    private long expirations;
+
+    /**
+     * @param ttl срок жизни записи с момента записи; {@link Duration#ZERO} — без срока
+     */
+    public QueryCache(int maximumSize, Duration ttl) {
+        if (maximumSize < 1) throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        this.maximumSize = maximumSize;
+        this.windowSize = Math.max(1, maximumSize / 100);
+        this.protectedSize = (int) ((maximumSize - windowSize) * 0.8);
+        this.ttlNanos = ttl.isZero() ? Long.MAX_VALUE : ttl.toNanos();
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        V value = getIfPresent(key);
+        if (value != null) return value;
+        value = loader.apply(key);
+        if (value != null) put(key, value);
+        return value;
+    }
+
+    public synchronized V getIfPresent(K key) {
+        sketch.increment(key.hashCode());
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            misses++;
+            return null;
+        }
+        if (System.nanoTime() - node.writtenAt > ttlNanos) {
+            unlink(node);
+            data.remove(key);
+            expirations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        onHit(node);
+        return node.value;
+    }
+
+    public synchronized void put(K key, V value) {
+        Node<K, V> node = data.get(key);
+        if (node != null) {
+            node.value = value;
+            node.writtenAt = System.nanoTime();
+            onHit(node);
+            return;
+        }
+        node = new Node<>(key, value, System.nanoTime());
+        data.put(key, node);
+        window.addFirst(node);
+        if (window.size > windowSize) evictFromWindow();
+    }
+
+    public synchronized void invalidateAll() {
+        data.clear();
+        window.head = window.tail = null;
+        probation.head = probation.tail = null;
+        protectedQueue.head = protectedQueue.tail = null;
+        window.size = probation.size = protectedQueue.size = 0;
+    }
+
+    public synchronized int size() {
+        return data.size();
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, rejections, expirations, data.size());
+    }
+
+    private void onHit(Node<K, V> node) {
+        switch (node.segment) {
+            case WINDOW -> {
+                window.remove(node);
+                window.addFirst(node);
+            }
+            case PROBATION -> {
+                probation.remove(node);
+                protectedQueue.addFirst(node);
+                if (protectedQueue.size > protectedSize) {
+                    Node<K, V> demoted = protectedQueue.tail;
+                    protectedQueue.remove(demoted);
+                    probation.addFirst(demoted);
+                }
+            }
+            case PROTECTED -> {
+                protectedQueue.remove(node);
+                protectedQueue.addFirst(node);
+            }
+        }
+    }
+
+    /**
+     * Кандидат из хвоста окна занимает свободное место в основной части или соревнуется
+     * с хвостом испытательного сегмента: проигравший вытесняется.
+     */
+    private void evictFromWindow() {
+        Node<K, V> candidate = window.tail;
+        window.remove(candidate);
+        if (data.size() <= maximumSize) {
+            probation.addFirst(candidate);
+            return;
+        }
+        Node<K, V> victim = probation.tail != null ? probation.tail : protectedQueue.tail;
+        if (victim != null && sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())) {
+            evict(victim);
+            probation.addFirst(candidate);
+        } else {
+            if (victim != null) rejections++;
+            evictions++;
+            data.remove(candidate.key);
+        }
+    }
+
+    private void evict(Node<K, V> node) {
+        unlink(node);
+        data.remove(node.key);
+        evictions++;
+    }
+
+    private void unlink(Node<K, V> node) {
+        queueOf(node).remove(node);
+    }
+
+    private Queue<K, V> queueOf(Node<K, V> node) {
+        return switch (node.segment) {
+            case WINDOW -> window;
+            case PROBATION -> probation;
+            case PROTECTED -> protectedQueue;
+        };
+    }
+
+    /**
+     * Count-min скетч из четырёх строк 4-битных счётчиков. После 10 × ёмкость
+     * обращений все счётчики делятся пополам, чтобы старая популярность затухала.
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {0x97CB3127L, 0xB9F69F93L, 0xCCF6E3ADL, 0xE3C6C4CFL};
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximumSize) {
+            int counters = Integer.highestOneBit(Math.max(maximumSize, 16) * 2 - 1) << 1;
+            // 16 счётчиков по 4 бита в одном long
+            this.table = new long[Math.max(counters / 16, 1) * 4];
+            this.mask = table.length / 4 - 1;
+            this.sampleSize = 10 * maximumSize;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int row = 0; row < 4; row++) {
+                int index = index(hash, row);
+                int shift = shift(hash, row);
+                if (((table[index] >>> shift) & 0xF) < 15) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) reset();
+        }
+
+        int frequency(int hash) {
+            int min = 15;
+            for (int row = 0; row < 4; row++) {
+                min = Math.min(min, (int) ((table[index(hash, row)] >>> shift(hash, row)) & 0xF));
+            }
+            return min;
+        }
+
+        private int index(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h += h >>> 32;
+            return row * (mask + 1) + ((int) h & mask);
+        }
+
+        private int shift(int hash, int row) {
+            int h = hash * (int) SEEDS[row];
+            return ((h >>> 28) & 0xF) << 2;
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+            additions /= 2;
+        }
+    }
+}
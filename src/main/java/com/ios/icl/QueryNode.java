@@ -0,0 +1,58 @@
+package com.ios.icl;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Синтаксическое дерево булева запроса.
+ */
+public sealed interface QueryNode {
+
+    record Term(String term) implements QueryNode {
+        @Override
+        public String toString() {
+            return term;
+        }
+    }
+
+    /**
+     * Слова подряд; слова, которые индексатор отбрасывает, совпадают с любым словом на своей позиции.
+     */
+    record Phrase(List<String> words) implements QueryNode {
+        @Override
+        public String toString() {
+            return '"' + String.join(" ", words) + '"';
+        }
+    }
+
+    /**
+     * Термины или фразы не дальше distance позиций друг от друга, в любом порядке.
+     */
+    record Near(QueryNode left, QueryNode right, int distance) implements QueryNode {
+        @Override
+        public String toString() {
+            return "(" + left + " NEAR/" + distance + " " + right + ")";
+        }
+    }
+
+    record And(List<QueryNode> children) implements QueryNode {
+        @Override
+        public String toString() {
+            return children.stream().map(Object::toString).collect(Collectors.joining(" AND ", "(", ")"));
+        }
+    }
+
+    record Or(List<QueryNode> children) implements QueryNode {
+        @Override
+        public String toString() {
+            return children.stream().map(Object::toString).collect(Collectors.joining(" OR ", "(", ")"));
+        }
+    }
+
+    record Not(QueryNode child) implements QueryNode {
+        @Override
+        public String toString() {
+            return "NOT " + child;
+        }
+    }
+}
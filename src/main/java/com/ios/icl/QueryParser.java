@@ -0,0 +1,162 @@
+package com.ios.icl;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Разбор булева запроса в {@link QueryNode} сортировочной станцией.
+ * <p>
+ * NOT после операнда — бинарная разность ({@code a NOT b} = a \ b), как и раньше;
+ * NOT в начале выражения, после оператора или скобки — унарное отрицание,
+ * так что {@code a AND NOT b} тоже работает. Префикс {@code notX} у термина
+ * по-прежнему означает отрицание термина X.
+ * <p>
+ * {@code "слова в кавычках"} — фраза, {@code a NEAR/k b} — термины или фразы не дальше
+ * k позиций друг от друга; NEAR связывает сильнее всех остальных операторов.
+ */
+public class QueryParser {
+    private static final String UNARY_NOT = "!";
+    private static final Pattern NEAR = Pattern.compile("near/\\d+");
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}']+");
+
+    public QueryNode parse(String query) {
+        List<String> tokens = tokenize(query);
+        Deque<QueryNode> operands = new ArrayDeque<>();
+        Deque<String> ops = new ArrayDeque<>();
+        boolean expectOperand = true;
+
+        for (String token : tokens) {
+            switch (token) {
+                case "(" -> {
+                    if (!expectOperand) throw new IllegalArgumentException("Unexpected '('");
+                    ops.push(token);
+                }
+                case ")" -> {
+                    if (expectOperand) throw new IllegalArgumentException("Unexpected ')'");
+                    while (!ops.isEmpty() && !ops.peek().equals("(")) apply(ops.pop(), operands);
+                    if (ops.isEmpty()) throw new IllegalArgumentException("Unbalanced ')'");
+                    ops.pop();
+                }
+                case "and", "or", "not" -> {
+                    if (expectOperand) {
+                        if (!token.equals("not")) throw new IllegalArgumentException("Unexpected operator " + token);
+                        ops.push(UNARY_NOT);
+                        continue;
+                    }
+                    while (!ops.isEmpty() && precedence(ops.peek()) >= precedence(token)) apply(ops.pop(), operands);
+                    ops.push(token);
+                    expectOperand = true;
+                }
+                default -> {
+                    if (isNear(token)) {
+                        if (expectOperand) throw new IllegalArgumentException("Unexpected operator " + token);
+                        while (!ops.isEmpty() && precedence(ops.peek()) >= precedence(token)) apply(ops.pop(), operands);
+                        ops.push(token);
+                        expectOperand = true;
+                        continue;
+                    }
+                    if (!expectOperand) throw new IllegalArgumentException("Missing operator before " + token);
+                    operands.push(term(token));
+                    expectOperand = false;
+                }
+            }
+        }
+        if (expectOperand) throw new IllegalArgumentException("Incomplete query");
+
+        while (!ops.isEmpty()) {
+            String op = ops.pop();
+            if (op.equals("(")) throw new IllegalArgumentException("Unbalanced '('");
+            apply(op, operands);
+        }
+        if (operands.size() != 1) throw new IllegalArgumentException("Malformed query");
+        return operands.pop();
+    }
+
+    /**
+     * Скобки — отдельные токены, фраза в кавычках — один токен вместе с кавычками.
+     */
+    List<String> tokenize(String query) {
+        String normalized = query.toLowerCase();
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < normalized.length()) {
+            char c = normalized.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(' || c == ')') {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '"') {
+                int end = normalized.indexOf('"', i + 1);
+                if (end < 0) throw new IllegalArgumentException("Unterminated phrase");
+                tokens.add(normalized.substring(i, end + 1));
+                i = end + 1;
+            } else {
+                int start = i;
+                while (i < normalized.length() && !Character.isWhitespace(normalized.charAt(i))
+                        && "()\"".indexOf(normalized.charAt(i)) < 0) i++;
+                tokens.add(normalized.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isNear(String token) {
+        return NEAR.matcher(token).matches();
+    }
+
+    private static QueryNode term(String token) {
+        if (token.startsWith("\"")) return phrase(token.substring(1, token.length() - 1));
+        if (token.startsWith("not")) return new QueryNode.Not(new QueryNode.Term(token.substring(3)));
+        return new QueryNode.Term(token);
+    }
+
+    private static QueryNode phrase(String text) {
+        List<String> words = Arrays.stream(NON_WORD.split(text)).filter(w -> !w.isEmpty()).toList();
+        if (words.isEmpty()) throw new IllegalArgumentException("Empty phrase");
+        return new QueryNode.Phrase(words);
+    }
+
+    private static void apply(String op, Deque<QueryNode> operands) {
+        if (op.equals(UNARY_NOT)) {
+            operands.push(new QueryNode.Not(pop(operands)));
+            return;
+        }
+        if (isNear(op)) {
+            QueryNode right = proximityOperand(pop(operands), op);
+            QueryNode left = proximityOperand(pop(operands), op);
+            int distance = Integer.parseInt(op.substring(5));
+            if (distance < 1) throw new IllegalArgumentException("NEAR distance must be positive: " + op);
+            operands.push(new QueryNode.Near(left, right, distance));
+            return;
+        }
+        QueryNode b = pop(operands);
+        QueryNode a = pop(operands);
+        switch (op) {
+            case "and" -> operands.push(new QueryNode.And(List.of(a, b)));
+            case "or" -> operands.push(new QueryNode.Or(List.of(a, b)));
+            case "not" -> operands.push(new QueryNode.And(List.of(a, new QueryNode.Not(b))));
+            default -> throw new IllegalArgumentException("Unknown operator: " + op);
+        }
+    }
+
+    private static QueryNode proximityOperand(QueryNode node, String op) {
+        if (node instanceof QueryNode.Term || node instanceof QueryNode.Phrase) return node;
+        throw new IllegalArgumentException(op.toUpperCase() + " expects terms or phrases, got " + node);
+    }
+
+    private static QueryNode pop(Deque<QueryNode> operands) {
+        if (operands.isEmpty()) throw new IllegalArgumentException("Malformed query");
+        return operands.pop();
+    }
+
+    private static int precedence(String op) {
+        return switch (op) {
+            case UNARY_NOT -> 4;
+            case "not" -> 3;
+            case "and" -> 2;
+            case "or" -> 1;
+            default -> isNear(op) ? 5 : 0;
+        };
+    }
+}
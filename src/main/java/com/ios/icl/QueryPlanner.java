@@ -0,0 +1,421 @@
+package com.ios.icl;
+
+import java.util.*;
+
+/**
+ * Строит план выполнения булева запроса по его синтаксическому дереву.
+ * <ul>
+ *     <li>вложенные AND/OR сплющиваются, двойное отрицание снимается;</li>
+ *     <li>конъюнкты сортируются по оценке мощности (длине постингов);</li>
+ *     <li>отрицания внутри AND сворачиваются в один проход вычитания;</li>
+ *     <li>пересечение прерывается, как только промежуточный результат пуст;</li>
+ *     <li>одинаковые подвыражения планируются и вычисляются один раз;</li>
+ *     <li>фраза и NEAR сначала пересекают документы своих терминов, начиная с самого
+ *     редкого, и только в общих документах сливают списки позиций.</li>
+ * </ul>
+ */
+public class QueryPlanner {
+    private final InvertedIndex index;
+    private final PositionalIndex positions;
+    private final TokenFilter filter;
+    private final int universeSize;
+
+    public QueryPlanner(InvertedIndex index) {
+        this(index, null);
+    }
+
+    /**
+     * @param positions позиционный индекс для фраз и NEAR; null, если его нет. Слова фраз
+     *                  отбрасываются по тем же стоп-словам, с которыми он строился
+     */
+    public QueryPlanner(InvertedIndex index, PositionalIndex positions) {
+        this.index = index;
+        this.positions = positions;
+        this.filter = positions == null ? TokenFilter.defaults() : TokenFilter.defaults(positions.stopWords());
+        this.universeSize = index.allDocs().length;
+    }
+
+    public Plan plan(QueryNode query) {
+        return plan(normalize(query), new HashMap<>());
+    }
+
+    /**
+     * Приводит дерево к канонической форме, чтобы равные подвыражения совпадали по equals.
+     */
+    static QueryNode normalize(QueryNode node) {
+        if (node instanceof QueryNode.Not not) {
+            QueryNode child = normalize(not.child());
+            return child instanceof QueryNode.Not inner ? inner.child() : new QueryNode.Not(child);
+        }
+        if (node instanceof QueryNode.And and) {
+            return normalizeChildren(and.children(), true);
+        }
+        if (node instanceof QueryNode.Or or) {
+            return normalizeChildren(or.children(), false);
+        }
+        if (node instanceof QueryNode.Phrase phrase && phrase.words().size() == 1) {
+            return new QueryNode.Term(phrase.words().get(0));
+        }
+        if (node instanceof QueryNode.Near near) {
+            QueryNode left = normalize(near.left());
+            QueryNode right = normalize(near.right());
+            return left.toString().compareTo(right.toString()) <= 0
+                    ? new QueryNode.Near(left, right, near.distance())
+                    : new QueryNode.Near(right, left, near.distance());
+        }
+        return node;
+    }
+
+    private static QueryNode normalizeChildren(List<QueryNode> children, boolean conjunction) {
+        Set<QueryNode> flat = new TreeSet<>(Comparator.comparing(Object::toString));
+        for (QueryNode child : children) {
+            QueryNode n = normalize(child);
+            if (conjunction && n instanceof QueryNode.And and) flat.addAll(and.children());
+            else if (!conjunction && n instanceof QueryNode.Or or) flat.addAll(or.children());
+            else flat.add(n);
+        }
+        if (flat.size() == 1) return flat.iterator().next();
+        List<QueryNode> list = List.copyOf(flat);
+        return conjunction ? new QueryNode.And(list) : new QueryNode.Or(list);
+    }
+
+    private Plan plan(QueryNode node, Map<QueryNode, Plan> planned) {
+        Plan existing = planned.get(node);
+        if (existing != null) {
+            existing.shared = true;
+            return existing;
+        }
+        Plan plan;
+        if (node instanceof QueryNode.Term term) {
+            plan = new TermPlan(term.term(), index.docFrequency(term.term()));
+        } else if (node instanceof QueryNode.Phrase phrase) {
+            plan = proximity("PHRASE " + phrase, List.of(span(phrase)), 0);
+        } else if (node instanceof QueryNode.Near near) {
+            plan = proximity("NEAR/" + near.distance() + " " + near.left() + " " + near.right(),
+                    List.of(span(near.left()), span(near.right())), near.distance());
+        } else if (node instanceof QueryNode.Not not) {
+            Plan child = plan(not.child(), planned);
+            plan = new ComplementPlan(child, universeSize - child.estimate);
+        } else if (node instanceof QueryNode.And and) {
+            List<Plan> include = new ArrayList<>();
+            List<Plan> exclude = new ArrayList<>();
+            for (QueryNode child : and.children()) {
+                if (child instanceof QueryNode.Not not) exclude.add(plan(not.child(), planned));
+                else include.add(plan(child, planned));
+            }
+            include.sort(Comparator.comparingInt(p -> p.estimate));
+            int estimate = include.isEmpty()
+                    ? Math.max(universeSize - exclude.stream().mapToInt(p -> p.estimate).max().orElse(0), 0)
+                    : include.get(0).estimate;
+            plan = new IntersectPlan(include, exclude, estimate);
+        } else {
+            List<Plan> children = new ArrayList<>();
+            for (QueryNode child : ((QueryNode.Or) node).children()) children.add(plan(child, planned));
+            int estimate = (int) Math.min(children.stream().mapToLong(p -> p.estimate).sum(), universeSize);
+            plan = new UnionPlan(children, estimate);
+        }
+        planned.put(node, plan);
+        return plan;
+    }
+
+    /**
+     * Слова фразы (или один термин) с их смещениями от начала; отбрасываемые индексатором
+     * слова не ищутся, но занимают своё место.
+     */
+    private record Span(List<String> terms, int[] offsets, int length) {
+    }
+
+    private Span span(QueryNode node) {
+        List<String> words = node instanceof QueryNode.Phrase phrase
+                ? phrase.words()
+                : List.of(((QueryNode.Term) node).term());
+        List<String> terms = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        for (int i = 0; i < words.size(); i++) {
+            if (!filter.accept(words.get(i))) continue;
+            terms.add(words.get(i));
+            offsets.add(i);
+        }
+        return new Span(terms, offsets.stream().mapToInt(Integer::intValue).toArray(), words.size());
+    }
+
+    private Plan proximity(String label, List<Span> spans, int distance) {
+        if (positions == null) {
+            throw new IllegalStateException("Phrase and NEAR queries need " + IndexBuilder.POSITIONAL_INDEX_FILE);
+        }
+        int estimate = spans.stream()
+                .flatMap(span -> span.terms().stream())
+                .mapToInt(positions::docFrequency)
+                .min().orElse(0);
+        if (spans.stream().anyMatch(span -> span.terms().isEmpty())) estimate = 0;
+        return new ProximityPlan(label, spans, distance, estimate);
+    }
+
+    /**
+     * Узел плана. Результат запоминается после первого вычисления,
+     * поэтому общий узел, на который ссылаются несколько родителей, считается один раз.
+     */
+    public abstract class Plan {
+        final int estimate;
+        boolean shared;
+        private DocIdSet result;
+        private long nanos;
+
+        Plan(int estimate) {
+            this.estimate = estimate;
+        }
+
+        public DocIdSet execute() {
+            if (result == null) {
+                long start = System.nanoTime();
+                result = compute();
+                nanos = System.nanoTime() - start;
+            }
+            return result;
+        }
+
+        abstract DocIdSet compute();
+
+        abstract String label();
+
+        List<Plan> children() {
+            return List.of();
+        }
+
+        /**
+         * Дерево плана с оценками и, если план уже выполнялся, фактическими мощностями.
+         */
+        public String explain() {
+            StringBuilder sb = new StringBuilder();
+            explain(sb, 0, new HashSet<>());
+            return sb.toString();
+        }
+
+        private void explain(StringBuilder sb, int depth, Set<Plan> printed) {
+            sb.append("  ".repeat(depth)).append(label()).append("  est=").append(estimate);
+            if (result != null) {
+                sb.append(" actual=").append(result.estimatedSize(universeSize))
+                        .append(" time=").append(nanos / 1000).append("us");
+            } else {
+                sb.append(" actual=skipped");
+            }
+            if (shared && !printed.add(this)) {
+                sb.append(" (reused)\n");
+                return;
+            }
+            sb.append('\n');
+            for (Plan child : children()) child.explain(sb, depth + 1, printed);
+        }
+    }
+
+    private final class TermPlan extends Plan {
+        private final String term;
+
+        TermPlan(String term, int estimate) {
+            super(estimate);
+            this.term = term;
+        }
+
+        @Override
+        DocIdSet compute() {
+            return DocIdSet.of(index.postings(term));
+        }
+
+        @Override
+        String label() {
+            return "TERM " + term;
+        }
+    }
+
+    /**
+     * Фраза (один отрезок) или NEAR (два отрезка). Постинги каждого термина читаются один раз;
+     * позиции декодируются только в документах, где есть все термины.
+     */
+    private final class ProximityPlan extends Plan {
+        private final String label;
+        private final List<Span> spans;
+        private final int distance;
+
+        ProximityPlan(String label, List<Span> spans, int distance, int estimate) {
+            super(estimate);
+            this.label = label;
+            this.spans = spans;
+            this.distance = distance;
+        }
+
+        @Override
+        DocIdSet compute() {
+            if (estimate == 0) return DocIdSet.EMPTY;
+            Map<String, Integer> slots = new HashMap<>();
+            List<PositionalIndex.Postings> lists = new ArrayList<>();
+            for (Span span : spans) {
+                for (String term : span.terms()) {
+                    slots.computeIfAbsent(term, t -> {
+                        lists.add(positions.postings(t));
+                        return lists.size() - 1;
+                    });
+                }
+            }
+            // Пересечение по документам: ведёт самый короткий список, остальные догоняют галопом
+            Integer[] order = new Integer[lists.size()];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, Comparator.comparingInt(i -> lists.get(i).size()));
+            int[] at = new int[lists.size()];
+            int[] lead = lists.get(order[0]).docs();
+            int[] out = new int[lead.length];
+            int n = 0;
+            candidates:
+            for (int i = 0; i < lead.length; i++) {
+                int doc = lead[i];
+                at[order[0]] = i;
+                for (int k = 1; k < order.length; k++) {
+                    int[] docs = lists.get(order[k]).docs();
+                    at[order[k]] = DocIdSet.gallop(docs, at[order[k]], doc);
+                    if (at[order[k]] == docs.length) break candidates;
+                    if (docs[at[order[k]]] != doc) continue candidates;
+                }
+                if (matches(slots, lists, at)) out[n++] = doc;
+            }
+            return DocIdSet.of(Arrays.copyOf(out, n));
+        }
+
+        private boolean matches(Map<String, Integer> slots, List<PositionalIndex.Postings> lists, int[] at) {
+            int[] first = starts(spans.get(0), slots, lists, at);
+            if (spans.size() == 1 || first.length == 0) return first.length > 0;
+            int[] second = starts(spans.get(1), slots, lists, at);
+            return within(first, spans.get(0).length(), second, spans.get(1).length(), distance);
+        }
+
+        /**
+         * Начала вхождений отрезка: позиции каждого термина, сдвинутые на его смещение, пересекаются слиянием.
+         */
+        private int[] starts(Span span, Map<String, Integer> slots, List<PositionalIndex.Postings> lists, int[] at) {
+            int[] starts = null;
+            for (int t = 0; t < span.terms().size(); t++) {
+                int slot = slots.get(span.terms().get(t));
+                int[] shifted = lists.get(slot).positions(at[slot]);
+                int offset = span.offsets()[t];
+                for (int j = 0; j < shifted.length; j++) shifted[j] -= offset;
+                starts = starts == null ? shifted : DocIdSet.intersect(starts, shifted);
+                if (starts.length == 0) break;
+            }
+            return starts;
+        }
+
+        @Override
+        String label() {
+            return label;
+        }
+    }
+
+    /**
+     * Есть ли пара отрезков длины lengthA и lengthB с началами из a и b, между которыми
+     * не больше distance позиций. Оба списка проходятся одним слиянием: отрезок, который
+     * начинается раньше, с последующими отрезками другого списка ближе уже не станет.
+     */
+    static boolean within(int[] a, int lengthA, int[] b, int lengthB, int distance) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] <= b[j]) {
+                if (b[j] - (a[i] + lengthA - 1) <= distance) return true;
+                i++;
+            } else {
+                if (a[i] - (b[j] + lengthB - 1) <= distance) return true;
+                j++;
+            }
+        }
+        return false;
+    }
+
+    private final class ComplementPlan extends Plan {
+        private final Plan child;
+
+        ComplementPlan(Plan child, int estimate) {
+            super(estimate);
+            this.child = child;
+        }
+
+        @Override
+        DocIdSet compute() {
+            return child.execute().not();
+        }
+
+        @Override
+        String label() {
+            return "NOT";
+        }
+
+        @Override
+        List<Plan> children() {
+            return List.of(child);
+        }
+    }
+
+    /**
+     * Пересечение include по возрастанию мощности и одно вычитание объединения exclude.
+     */
+    private final class IntersectPlan extends Plan {
+        private final List<Plan> include;
+        private final List<Plan> exclude;
+
+        IntersectPlan(List<Plan> include, List<Plan> exclude, int estimate) {
+            super(estimate);
+            this.include = include;
+            this.exclude = exclude;
+        }
+
+        @Override
+        DocIdSet compute() {
+            DocIdSet acc = null;
+            for (Plan p : include) {
+                DocIdSet next = p.execute();
+                acc = acc == null ? next : acc.and(next);
+                if (acc.isEmpty()) return DocIdSet.EMPTY;
+            }
+            if (exclude.isEmpty()) return acc;
+
+            DocIdSet excluded = DocIdSet.EMPTY;
+            for (Plan p : exclude) excluded = excluded.or(p.execute());
+            return acc == null ? excluded.not() : acc.andNot(excluded);
+        }
+
+        @Override
+        String label() {
+            return exclude.isEmpty() ? "AND" : include.isEmpty() ? "ALL AND NOT" : "AND NOT";
+        }
+
+        @Override
+        List<Plan> children() {
+            List<Plan> all = new ArrayList<>(include);
+            all.addAll(exclude);
+            return all;
+        }
+    }
+
+    private final class UnionPlan extends Plan {
+        private final List<Plan> children;
+
+        UnionPlan(List<Plan> children, int estimate) {
+            super(estimate);
+            this.children = children;
+        }
+
+        @Override
+        DocIdSet compute() {
+            DocIdSet acc = DocIdSet.EMPTY;
+            for (Plan p : children) acc = acc.or(p.execute());
+            return acc;
+        }
+
+        @Override
+        String label() {
+            return "OR";
+        }
+
+        @Override
+        List<Plan> children() {
+            return children;
+        }
+    }
+}
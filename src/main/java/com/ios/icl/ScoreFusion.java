@@ -0,0 +1,77 @@
+package com.ios.icl;
+
+import java.util.*;
+
+/**
+ * Слияние двух ранжированных списков (токены и леммы) в один.
+ * Списки должны быть полными, а не обрезанными до top-K: иначе документ, сильный
+ * в одном списке и чуть не прошедший в другом, теряет половину оценки.
+ * <pre>
+ * WEIGHTED  w·score_tokens + (1 − w)·score_lemmas, отсутствующий в списке документ даёт 0
+ * RRF       w / (k + rank_tokens) + (1 − w) / (k + rank_lemmas), ранги с единицы
+ * </pre>
+ * Косинусы обоих списков лежат в [0, 1], поэтому взвешенная сумма их не нормирует.
+ * RRF смотрит только на ранги и не зависит от масштаба оценок.
+ */
+public class ScoreFusion {
+
+    public enum Method {
+        WEIGHTED,
+        RRF;
+
+        public static Method parse(String name) {
+            return valueOf(name.strip().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final Method method;
+    private final double tokenWeight;
+    private final int rrfK;
+
+    /**
+     * @param tokenWeight доля списка по токенам, от 0 до 1
+     * @param rrfK        сглаживание рангов RRF; чем больше, тем ровнее вклад хвоста списка
+     */
+    public ScoreFusion(Method method, double tokenWeight, int rrfK) {
+        if (tokenWeight < 0 || tokenWeight > 1) throw new IllegalArgumentException("tokenWeight must be in [0, 1]: " + tokenWeight);
+        if (rrfK < 0) throw new IllegalArgumentException("rrfK must not be negative: " + rrfK);
+        this.method = method;
+        this.tokenWeight = tokenWeight;
+        this.rrfK = rrfK;
+    }
+
+    public Method method() {
+        return method;
+    }
+
+    /**
+     * @param tokens полный список по токенам по убыванию оценки
+     * @param lemmas полный список по леммам по убыванию оценки
+     */
+    public List<VectorSearchEngine.Result> fuse(List<VectorSearchEngine.Result> tokens,
+                                                List<VectorSearchEngine.Result> lemmas, int topK) {
+        if (topK <= 0) return List.of();
+        Map<Integer, Double> scores = new HashMap<>(Math.max(tokens.size(), lemmas.size()) * 4 / 3 + 1);
+        accumulate(scores, tokens, tokenWeight);
+        accumulate(scores, lemmas, 1 - tokenWeight);
+        // При равных оценках — по номеру документа, как в PostingsIndex
+        return scores.entrySet().stream()
+                .map(e -> new VectorSearchEngine.Result(e.getKey(), e.getValue()))
+                .sorted(Comparator.comparingDouble(VectorSearchEngine.Result::score).reversed()
+                        .thenComparingInt(VectorSearchEngine.Result::docId))
+                .limit(topK)
+                .toList();
+    }
+
+    private void accumulate(Map<Integer, Double> scores, List<VectorSearchEngine.Result> ranked, double weight) {
+        if (weight == 0) return;
+        for (int i = 0; i < ranked.size(); i++) {
+            VectorSearchEngine.Result r = ranked.get(i);
+            double score = switch (method) {
+                case WEIGHTED -> weight * r.score();
+                case RRF -> weight / (rrfK + i + 1);
+            };
+            scores.merge(r.docId(), score, Double::sum);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.ios.icl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Микропакеты косинусных запросов. Пакет считается одним проходом по постингам
+ * ({@link PostingsIndex#searchBatch}): термин, общий для нескольких запросов, читается один раз.
+ * Проход исчерпывающий, поэтому запрос, оказавшийся в пакете один, считается обычным
+ * {@link PostingsIndex#search(Map, int, PostingsIndex.Strategy)} с настроенной стратегией.
+ * <p>
+ * Отдельных потоков нет: запрос встаёт в очередь, и если свободен один из parallelism
+ * «ведущих» слотов, поток запроса сам забирает из очереди всё накопившееся и считает пакет.
+ * Остальные ждут, пока их посчитает ведущий, и не дольше окна — потом пробуют стать ведущими
+ * сами. Без нагрузки каждый запрос считается сразу и без задержки, под нагрузкой в пакет
+ * попадает всё, что пришло, пока шёл предыдущий проход.
+ */
+public class SearchBatcher {
+    private static final Logger log = LoggerFactory.getLogger(SearchBatcher.class);
+
+    private record Request(PostingsIndex index, Map<String, Double> qVec, int topK,
+                           CompletableFuture<List<VectorSearchEngine.Result>> result) {
+    }
+
+    /**
+     * @param meanBatchSize сколько запросов в среднем обслужил один проход
+     */
+    public record Stats(long batches, long queries, double meanBatchSize, long largestBatch, int queued) {
+    }
+
+    private final long windowNanos;
+    private final int maxBatch;
+    private final PostingsIndex.Strategy strategy;
+    private final Semaphore leaders;
+    private final Queue<Request> queue = new ConcurrentLinkedQueue<>();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder queries = new LongAdder();
+    private final LongAccumulator largestBatch = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param window      сколько запрос ждёт ведущего, прежде чем попробовать посчитать очередь сам
+     * @param parallelism сколько пакетов может считаться одновременно
+     * @param strategy    стратегия для одиночных запросов
+     */
+    public SearchBatcher(Duration window, int maxBatch, int parallelism, PostingsIndex.Strategy strategy) {
+        if (maxBatch < 1) throw new IllegalArgumentException("maxBatch must be positive: " + maxBatch);
+        this.windowNanos = Math.max(window.toNanos(), 1);
+        this.maxBatch = maxBatch;
+        this.strategy = strategy;
+        this.leaders = new Semaphore(Math.max(parallelism, 1));
+    }
+
+    /**
+     * @return top-K по косинусу, как {@link PostingsIndex#search(Map, int)}
+     */
+    public List<VectorSearchEngine.Result> search(PostingsIndex index, Map<String, Double> qVec, int topK) {
+        Request request = new Request(index, qVec, topK, new CompletableFuture<>());
+        queue.add(request);
+        while (!request.result().isDone()) {
+            if (leaders.tryAcquire()) {
+                boolean drained;
+                try {
+                    drained = runBatch();
+                } finally {
+                    leaders.release();
+                }
+                // Пустая очередь: свой запрос уже считает другой ведущий, ждём его, а не крутимся
+                if (drained) continue;
+            }
+            try {
+                request.result().get(windowNanos, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                // Ошибку отдаст join ниже
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while waiting for a search batch");
+            }
+        }
+        return request.result().join();
+    }
+
+    public Stats stats() {
+        long b = batches.sum();
+        long q = queries.sum();
+        return new Stats(b, q, b == 0 ? 0 : (double) q / b, largestBatch.get(), queue.size());
+    }
+
+    /**
+     * @return было ли в очереди что считать
+     */
+    private boolean runBatch() {
+        List<Request> batch = new ArrayList<>();
+        for (Request r; batch.size() < maxBatch && (r = queue.poll()) != null; ) batch.add(r);
+        if (batch.isEmpty()) return false;
+        execute(batch);
+        return true;
+    }
+
+    /**
+     * Запросы к разным поколениям индекса (во время перезагрузки) считаются отдельными проходами.
+     * Каждая группа считается с наибольшим topK в ней, а ответ обрезается до своего.
+     */
+    private void execute(List<Request> batch) {
+        Map<PostingsIndex, List<Request>> byIndex = new IdentityHashMap<>();
+        for (Request r : batch) byIndex.computeIfAbsent(r.index(), k -> new ArrayList<>()).add(r);
+        for (var group : byIndex.entrySet()) {
+            List<Request> requests = group.getValue();
+            try {
+                if (requests.size() == 1) {
+                    Request r = requests.get(0);
+                    r.result().complete(group.getKey().search(r.qVec(), r.topK(), strategy).results());
+                } else {
+                    completeBatch(group.getKey(), requests);
+                }
+            } catch (RuntimeException e) {
+                log.warn("Search batch of {} queries failed", requests.size(), e);
+                requests.forEach(r -> r.result().completeExceptionally(e));
+            }
+            batches.increment();
+            queries.add(requests.size());
+            largestBatch.accumulate(requests.size());
+        }
+    }
+
+    private static void completeBatch(PostingsIndex index, List<Request> requests) {
+        int topK = 0;
+        List<Map<String, Double>> qVecs = new ArrayList<>(requests.size());
+        for (Request r : requests) {
+            topK = Math.max(topK, r.topK());
+            qVecs.add(r.qVec());
+        }
+        List<List<VectorSearchEngine.Result>> results = index.searchBatch(qVecs, topK);
+        for (int i = 0; i < requests.size(); i++) {
+            List<VectorSearchEngine.Result> top = results.get(i);
+            int k = Math.min(requests.get(i).topK(), top.size());
+            requests.get(i).result().complete(List.copyOf(top.subList(0, k)));
+        }
+    }
+}
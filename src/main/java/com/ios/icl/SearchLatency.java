@@ -0,0 +1,81 @@
+package com.ios.icl;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Время поиска по режимам: число запросов, среднее, максимум и квантили p50/p99.
+ * Запись без блокировок, так что её можно вызывать на каждом запросе.
+ * <p>
+ * Квантили считаются по логарифмической гистограмме в микросекундах: 16 корзин на каждую
+ * степень двойки, поэтому квантиль завышается не больше чем на 1/16.
+ */
+public class SearchLatency {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) << SUB_BITS;
+
+    public record Summary(long count, double meanMillis, double maxMillis, double p50Millis, double p99Millis) {
+    }
+
+    private static final class Recorder {
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        /**
+         * @return верхняя граница корзины, в которую попал квантиль q, в миллисекундах
+         */
+        double quantileMillis(double q, long count) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * count));
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += histogram.get(b);
+                if (seen >= rank) return Math.min(lowerBound(b + 1), maxNanos.get() / 1000) / 1e3;
+            }
+            return maxNanos.get() / 1e6;
+        }
+    }
+
+    static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) return (int) Math.max(micros, 0);
+        int exp = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exp = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+        return ((long) SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << (exp - SUB_BITS);
+    }
+
+    private final Map<String, Recorder> recorders = new ConcurrentHashMap<>();
+
+    public void record(String mode, long nanos) {
+        Recorder r = recorders.computeIfAbsent(mode, k -> new Recorder());
+        r.count.increment();
+        r.totalNanos.add(nanos);
+        r.maxNanos.accumulate(nanos);
+        r.histogram.incrementAndGet(bucket(nanos / 1000));
+    }
+
+    /**
+     * @return сводка по режимам в алфавитном порядке
+     */
+    public Map<String, Summary> snapshot() {
+        Map<String, Summary> summary = new TreeMap<>();
+        recorders.forEach((mode, r) -> {
+            long count = r.count.sum();
+            summary.put(mode, new Summary(count, count == 0 ? 0 : r.totalNanos.sum() / 1e6 / count,
+                    r.maxNanos.get() / 1e6, r.quantileMillis(0.5, count), r.quantileMillis(0.99, count)));
+        });
+        return summary;
+    }
+}
@@ -0,0 +1,138 @@
+package com.ios.icl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Все данные поиска одного поколения индекса. Снимок неизменяем: новое поколение
+ * собирается целиком рядом и подменяет ссылку, а запрос, начатый на старом снимке,
+ * дорабатывает на нём.
+ * <p>
+ * При ленивом старте сначала публикуется неполный снимок того же поколения, в котором
+ * есть только токены (см. {@link #complete()}): леммы, словарь лемм и BM25 в нём null.
+ *
+ * @param bm25 null, если позиционного индекса нет
+ */
+public record SearchSnapshot(long generation, Instant loadedAt, long loadMillis, boolean complete,
+                             DocumentVectors tokenVectors, DocumentVectors lemmaVectors,
+                             PostingsIndex tokenIndex, PostingsIndex lemmaIndex,
+                             Map<String, String> lemmaMap, Bm25Scorer bm25, PositionalIndex positional) {
+
+    // Файлы tfidf_tokensN.txt и tfidf_lemmasN.txt лежат в одноимённых каталогах
+    static final String TOKENS_TFIDF_PREFIX = "tfidf_tokens";
+    static final String LEMMAS_TFIDF_PREFIX = "tfidf_lemmas";
+    static final String LEMMAS_DIR = "lemmas";
+
+    private record Terms(DocumentVectors vectors, PostingsIndex index) {
+        static Terms load(String prefix) throws IOException {
+            DocumentVectors vectors = DocumentVectors.load(Paths.get(prefix), prefix);
+            return new Terms(vectors, PostingsIndex.build(vectors));
+        }
+    }
+
+    private record Bm25(Bm25Scorer scorer, PositionalIndex positional) {
+    }
+
+    private interface Loader<T> {
+        T load() throws IOException;
+    }
+
+    /**
+     * Читает текущие файлы индекса из рабочего каталога: токены, леммы, словарь лемм
+     * и позиционный индекс грузятся одновременно.
+     *
+     * @param postingsCacheSize ёмкость кеша постингов BM25, см. {@link Bm25Scorer}
+     * @param tracker           куда отмечать готовность частей; null — не отмечать
+     * @param onTokensReady     получает неполный снимок, как только готов индекс токенов; может быть null
+     */
+    public static CompletableFuture<SearchSnapshot> loadAsync(long generation, Bm25Scorer.Parameters bm25Parameters,
+                                                              int postingsCacheSize, Executor executor,
+                                                              StartupTracker tracker,
+                                                              Consumer<SearchSnapshot> onTokensReady) {
+        long start = System.nanoTime();
+        CompletableFuture<Terms> tokens = load("tokenIndex", () -> Terms.load(TOKENS_TFIDF_PREFIX), executor, tracker);
+        CompletableFuture<Terms> lemmas = load("lemmaIndex", () -> Terms.load(LEMMAS_TFIDF_PREFIX), executor, tracker);
+        CompletableFuture<Map<String, String>> lemmaMap =
+                load("lemmaMap", () -> Lemmatizer.loadDictionary(Paths.get(LEMMAS_DIR)), executor, tracker);
+        CompletableFuture<Bm25> bm25 = load("bm25", () -> {
+            Path file = Paths.get(IndexBuilder.POSITIONAL_INDEX_FILE);
+            if (!Files.exists(file)) return null;
+            PositionalIndex positional = PositionalIndex.open(file);
+            return new Bm25(new Bm25Scorer(positional, bm25Parameters, postingsCacheSize), positional);
+        }, executor, tracker);
+
+        if (onTokensReady != null) {
+            tokens.thenAccept(t -> onTokensReady.accept(new SearchSnapshot(generation, Instant.now(),
+                    (System.nanoTime() - start) / 1_000_000, false,
+                    t.vectors(), null, t.index(), null, null, null, null)));
+        }
+        return CompletableFuture.allOf(tokens, lemmas, lemmaMap, bm25).thenApply(v -> {
+            Terms t = tokens.join();
+            Terms l = lemmas.join();
+            Bm25 b = bm25.join();
+            return new SearchSnapshot(generation, Instant.now(), (System.nanoTime() - start) / 1_000_000, true,
+                    t.vectors(), l.vectors(), t.index(), l.index(), lemmaMap.join(),
+                    b == null ? null : b.scorer(), b == null ? null : b.positional());
+        });
+    }
+
+    private static <T> CompletableFuture<T> load(String component, Loader<T> loader, Executor executor,
+                                                 StartupTracker tracker) {
+        if (tracker != null) tracker.loading(component);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                long start = System.nanoTime();
+                T value = loader.load();
+                Metrics.GLOBAL.timer("index_load_seconds", "Loading a search index part", "part", component)
+                        .recordNanos(System.nanoTime() - start);
+                if (tracker != null) {
+                    if (value == null) tracker.disabled(component, IndexBuilder.POSITIONAL_INDEX_FILE + " not found");
+                    else tracker.ready(component);
+                }
+                return value;
+            } catch (IOException e) {
+                if (tracker != null) tracker.failed(component, e);
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException e) {
+                if (tracker != null) tracker.failed(component, e);
+                throw e;
+            }
+        }, executor);
+    }
+
+    public int docCount() {
+        return tokenVectors.docCount();
+    }
+
+    /**
+     * @return примерный объём снимка в куче; позиционный индекс отображён в память и сюда не входит
+     */
+    public long estimatedBytes() {
+        long bytes = tokenVectors.estimatedBytes() + tokenIndex.estimatedBytes();
+        if (lemmaVectors != null) bytes += lemmaVectors.estimatedBytes() + lemmaIndex.estimatedBytes();
+        if (lemmaMap != null) {
+            // Узел HashMap и ячейка таблицы на каждую словоформу
+            bytes += 16 + 48L * lemmaMap.size();
+            for (var e : lemmaMap.entrySet()) {
+                bytes += TermDictionary.stringBytes(e.getKey()) + TermDictionary.stringBytes(e.getValue());
+            }
+        }
+        if (bm25 != null) bytes += bm25.estimatedBytes();
+        return bytes;
+    }
+
+    /**
+     * @return размер отображённого позиционного индекса, 0 — если его нет
+     */
+    public long mappedBytes() {
+        return positional == null ? 0 : positional.sizeBytes();
+    }
+}
@@ -0,0 +1,363 @@
+package com.ios.icl;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Инвертированный индекс по lemmas-файлам, который не обязан помещаться в кучу.
+ * Потоки разбирают файлы из общей очереди, каждый копит свой сегмент в памяти и, когда
+ * сегмент превышает свою долю бюджета, сбрасывает его на диск отсортированным по терминам.
+ * Затем сегменты сливаются k-путевым слиянием сразу в inverted_index.bin и inverted_index.txt
+ * в порядке {@link String#compareTo}; если сегментов больше {@link #MAX_FAN_IN}, сначала
+ * параллельно сливаются их группы.
+ * <p>
+ * Числа словоформ те же, что у {@link IndexBuilder#buildIndex(Path)}, бинарный индекс совпадает побайтно.
+ */
+public class SegmentedIndexBuilder {
+    /**
+     * Сколько сегментов сливается за раз: столько же открытых файлов и буферов чтения.
+     */
+    static final int MAX_FAN_IN = 64;
+
+    /**
+     * @param segments    сколько сегментов сброшено на диск
+     * @param mergePasses промежуточные проходы слияния до итогового, обычно 0
+     */
+    public record Stats(int documents, int segments, int mergePasses, long terms, long postings,
+                        long indexMillis, long mergeMillis) {
+    }
+
+    @FunctionalInterface
+    interface TermSink {
+        void add(String term, int[] docs, int[] forms) throws IOException;
+    }
+
+    private final int threads;
+    private final long segmentBytes;
+    private final Path tempParent;
+
+    /**
+     * @param memoryBudget примерный объём всех сегментов в памяти вместе, байт
+     * @param tempParent   где создать временный каталог сегментов; лучше на том же диске, что и индекс
+     */
+    public SegmentedIndexBuilder(int threads, long memoryBudget, Path tempParent) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be positive: " + threads);
+        this.threads = threads;
+        this.segmentBytes = Math.max(memoryBudget / threads, 1);
+        this.tempParent = tempParent;
+    }
+
+    public Stats build(Path dir, Path binaryFile, Path textFile) throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(p -> p.getFileName().toString().startsWith("lemmas"))
+                    .sorted(Comparator.comparingInt(IndexBuilder::extractDocId))
+                    .toList();
+        }
+        Path segmentDir = Files.createTempDirectory(tempParent, "index-segments");
+        ExecutorService pool = Executors.newFixedThreadPool(threads,
+                Thread.ofPlatform().name("index-segment-", 0).factory());
+        try {
+            long start = System.nanoTime();
+            List<Path> segments = index(files, segmentDir, pool);
+            long mergeStart = System.nanoTime();
+            int segmentCount = segments.size();
+            int passes = 0;
+            while (segments.size() > MAX_FAN_IN) {
+                segments = mergePass(segments, segmentDir, ++passes, pool);
+            }
+            long[] counts;
+            try (BinaryIndexWriter binary = new BinaryIndexWriter(binaryFile);
+                 BufferedWriter text = Files.newBufferedWriter(textFile)) {
+                StringBuilder line = new StringBuilder();
+                counts = merge(segments, (term, docs, forms) -> {
+                    binary.add(term, docs, forms);
+                    line.setLength(0);
+                    line.append(term).append(':');
+                    for (int i = 0; i < docs.length; i++) {
+                        if (i > 0) line.append(',');
+                        line.append(docs[i]);
+                    }
+                    text.append(line).append('\n');
+                });
+            }
+            long end = System.nanoTime();
+            Metrics.GLOBAL.recordStage("index", files.size(), mergeStart - start);
+            Metrics.GLOBAL.recordStage("index_merge", files.size(), end - mergeStart);
+            return new Stats(files.size(), segmentCount, passes, counts[0], counts[1],
+                    (mergeStart - start) / 1_000_000, (end - mergeStart) / 1_000_000);
+        } finally {
+            pool.shutdownNow();
+            try (Stream<Path> leftovers = Files.list(segmentDir)) {
+                for (Path file : leftovers.toList()) Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(segmentDir);
+        }
+    }
+
+    /**
+     * Каждый поток берёт следующий файл, пока они не кончатся; сегмент сбрасывается
+     * только между документами, так что документ целиком лежит в одном сегменте.
+     */
+    private List<Path> index(List<Path> files, Path segmentDir, ExecutorService pool) throws IOException {
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger segmentIds = new AtomicInteger();
+        List<Path> segments = Collections.synchronizedList(new ArrayList<>());
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(pool.submit(() -> {
+                Segment segment = new Segment();
+                for (int i = next.getAndIncrement(); i < files.size(); i = next.getAndIncrement()) {
+                    indexFile(files.get(i), segment);
+                    if (segment.bytes >= segmentBytes) {
+                        segments.add(segment.flush(segmentDir, segmentIds.getAndIncrement()));
+                        segment = new Segment();
+                    }
+                }
+                if (!segment.terms.isEmpty()) segments.add(segment.flush(segmentDir, segmentIds.getAndIncrement()));
+                return null;
+            }));
+        }
+        await(workers);
+        return new ArrayList<>(segments);
+    }
+
+    private static void indexFile(Path file, Segment segment) {
+        int docId = IndexBuilder.extractDocId(file);
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                // Как IndexBuilder.processIndexLine: значение постинга — число словоформ леммы в строке
+                String[] parts = line.split(" ");
+                segment.add(parts[0], docId, Math.max(parts.length - 1, 1));
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Error processing: " + file);
+        }
+    }
+
+    /**
+     * Сливает сегменты группами по {@link #MAX_FAN_IN}, группы — параллельно.
+     */
+    private static List<Path> mergePass(List<Path> segments, Path segmentDir, int pass,
+                                        ExecutorService pool) throws IOException {
+        List<Future<Path>> merged = new ArrayList<>();
+        for (int from = 0; from < segments.size(); from += MAX_FAN_IN) {
+            List<Path> group = segments.subList(from, Math.min(from + MAX_FAN_IN, segments.size()));
+            Path out = segmentDir.resolve("merged-" + pass + "-" + from / MAX_FAN_IN + ".seg");
+            merged.add(pool.submit(() -> {
+                try (SegmentWriter writer = new SegmentWriter(out)) {
+                    merge(group, writer::add);
+                }
+                for (Path file : group) Files.delete(file);
+                return out;
+            }));
+        }
+        await(merged);
+        List<Path> next = new ArrayList<>();
+        for (Future<Path> f : merged) next.add(f.resultNow());
+        return next;
+    }
+
+    private static void await(List<? extends Future<?>> futures) throws IOException {
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while building index segments");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException io) throw io;
+                if (e.getCause() instanceof UncheckedIOException io) throw io.getCause();
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * K-путевое слияние по терминам: куча читателей по текущему термину; постинги термина
+     * из нескольких сегментов сливаются по номеру документа.
+     *
+     * @return число терминов и постингов
+     */
+    static long[] merge(List<Path> segments, TermSink sink) throws IOException {
+        PriorityQueue<SegmentReader> queue = new PriorityQueue<>(Comparator.comparing((SegmentReader r) -> r.term));
+        List<SegmentReader> readers = new ArrayList<>();
+        long terms = 0;
+        long postings = 0;
+        try {
+            for (Path file : segments) {
+                SegmentReader reader = new SegmentReader(file);
+                readers.add(reader);
+                if (reader.next()) queue.add(reader);
+            }
+            List<SegmentReader> same = new ArrayList<>();
+            while (!queue.isEmpty()) {
+                String term = queue.peek().term;
+                same.clear();
+                while (!queue.isEmpty() && queue.peek().term.equals(term)) same.add(queue.poll());
+                if (same.size() == 1) {
+                    SegmentReader r = same.get(0);
+                    sink.add(term, r.docs, r.forms);
+                    postings += r.docs.length;
+                } else {
+                    postings += mergePostings(term, same, sink);
+                }
+                terms++;
+                for (SegmentReader r : same) {
+                    if (r.next()) queue.add(r);
+                }
+            }
+        } finally {
+            for (SegmentReader reader : readers) reader.close();
+        }
+        return new long[]{terms, postings};
+    }
+
+    /**
+     * Документ целиком лежит в одном сегменте, так что номера в разных сегментах не повторяются.
+     */
+    private static int mergePostings(String term, List<SegmentReader> readers, TermSink sink) throws IOException {
+        int n = 0;
+        for (SegmentReader r : readers) n += r.docs.length;
+        long[] packed = new long[n];
+        int k = 0;
+        for (SegmentReader r : readers) {
+            for (int i = 0; i < r.docs.length; i++) packed[k++] = (long) r.docs[i] << 32 | r.forms[i] & 0xFFFFFFFFL;
+        }
+        Arrays.sort(packed);
+        int[] docs = new int[n];
+        int[] forms = new int[n];
+        for (int i = 0; i < n; i++) {
+            docs[i] = (int) (packed[i] >>> 32);
+            forms[i] = (int) packed[i];
+        }
+        sink.add(term, docs, forms);
+        return n;
+    }
+
+    /**
+     * Сегмент в памяти: термин → пары (документ, число словоформ) подряд в одном массиве.
+     * bytes — оценка занятой кучи, по ней решается, когда сбросить сегмент.
+     */
+    static final class Segment {
+        private static final class Postings {
+            int[] pairs = new int[4];
+            int size;
+        }
+
+        // Узел HashMap, объект постингов и начальный массив на каждый новый термин
+        private static final long TERM_OVERHEAD = 48 + 24 + 32;
+
+        final Map<String, Postings> terms = new HashMap<>();
+        long bytes;
+
+        void add(String term, int doc, int forms) {
+            Postings p = terms.get(term);
+            if (p == null) {
+                p = new Postings();
+                terms.put(term, p);
+                bytes += TERM_OVERHEAD + TermDictionary.stringBytes(term);
+            }
+            // Повтор леммы в том же документе складывается, как merge в IndexBuilder
+            if (p.size > 0 && p.pairs[p.size - 2] == doc) {
+                p.pairs[p.size - 1] += forms;
+                return;
+            }
+            if (p.size == p.pairs.length) {
+                bytes += 4L * p.pairs.length;
+                p.pairs = Arrays.copyOf(p.pairs, p.pairs.length * 2);
+            }
+            p.pairs[p.size++] = doc;
+            p.pairs[p.size++] = forms;
+        }
+
+        /**
+         * Документы поток берёт по возрастанию номера, так что постинги термина уже упорядочены.
+         */
+        Path flush(Path dir, int id) throws IOException {
+            Path file = dir.resolve("segment-" + id + ".seg");
+            try (SegmentWriter writer = new SegmentWriter(file)) {
+                for (String term : new TreeSet<>(terms.keySet())) {
+                    Postings p = terms.get(term);
+                    int n = p.size / 2;
+                    int[] docs = new int[n];
+                    int[] forms = new int[n];
+                    for (int i = 0; i < n; i++) {
+                        docs[i] = p.pairs[2 * i];
+                        forms[i] = p.pairs[2 * i + 1];
+                    }
+                    writer.add(term, docs, forms);
+                }
+            }
+            return file;
+        }
+    }
+
+    /**
+     * Формат сегмента: для каждого термина по возрастанию — флаг 1, термин (writeUTF),
+     * число постингов и пары (документ, число словоформ); в конце флаг 0.
+     */
+    private static final class SegmentWriter implements Closeable {
+        private final DataOutputStream out;
+
+        SegmentWriter(Path file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        }
+
+        void add(String term, int[] docs, int[] forms) throws IOException {
+            out.writeBoolean(true);
+            out.writeUTF(term);
+            out.writeInt(docs.length);
+            for (int i = 0; i < docs.length; i++) {
+                out.writeInt(docs[i]);
+                out.writeInt(forms[i]);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.writeBoolean(false);
+            out.close();
+        }
+    }
+
+    private static final class SegmentReader implements Closeable {
+        private final DataInputStream in;
+        String term;
+        int[] docs;
+        int[] forms;
+
+        SegmentReader(Path file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        }
+
+        boolean next() throws IOException {
+            if (!in.readBoolean()) {
+                term = null;
+                return false;
+            }
+            term = in.readUTF();
+            int n = in.readInt();
+            docs = new int[n];
+            forms = new int[n];
+            for (int i = 0; i < n; i++) {
+                docs[i] = in.readInt();
+                forms[i] = in.readInt();
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.ios.icl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Готовность частей поиска при старте и время до первого запроса.
+ * Моменты считаются в миллисекундах от запуска JVM.
+ */
+@Component
+public class StartupTracker {
+    private static final Logger log = LoggerFactory.getLogger(StartupTracker.class);
+
+    /** Часть, без которой приложение не принимает запросы. */
+    static final String REQUIRED = "tokenIndex";
+
+    public enum State { LOADING, READY, DISABLED, FAILED }
+
+    /**
+     * @param sinceJvmStart когда часть перешла в это состояние
+     * @param detail        причина для DISABLED и FAILED
+     */
+    public record Status(State state, long sinceJvmStart, String detail) {
+    }
+
+    /**
+     * @param status           STARTING, пока не готов индекс токенов; PARTIAL, пока грузится остальное;
+     *                         UP, когда загружено всё; DEGRADED, если что-то не загрузилось
+     * @param firstQueryMillis время от запуска JVM до первого обслуженного запроса, -1 — запросов ещё не было
+     */
+    public record Health(String status, Map<String, Status> components, long firstQueryMillis) {
+        public boolean acceptingTraffic() {
+            return !status.equals("STARTING");
+        }
+    }
+
+    private final long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private final Map<String, Status> components = new ConcurrentHashMap<>();
+    private final AtomicLong firstQuery = new AtomicLong(-1);
+
+    private long now() {
+        return System.currentTimeMillis() - jvmStart;
+    }
+
+    public void loading(String component) {
+        components.put(component, new Status(State.LOADING, now(), null));
+    }
+
+    public void ready(String component) {
+        long at = now();
+        components.put(component, new Status(State.READY, at, null));
+        log.info("{} ready {} ms after JVM start", component, at);
+    }
+
+    public void disabled(String component, String reason) {
+        components.put(component, new Status(State.DISABLED, now(), reason));
+    }
+
+    public void failed(String component, Throwable error) {
+        components.put(component, new Status(State.FAILED, now(), String.valueOf(error.getMessage())));
+        log.warn("{} failed to load", component, error);
+    }
+
+    /**
+     * Отмечает обслуженный запрос; логируется только первый.
+     */
+    public void queryServed() {
+        if (firstQuery.get() >= 0) return;
+        long at = now();
+        if (firstQuery.compareAndSet(-1, at)) log.info("First query served {} ms after JVM start", at);
+    }
+
+    public Health health() {
+        Map<String, Status> snapshot = new TreeMap<>(components);
+        Status required = snapshot.get(REQUIRED);
+        String status;
+        if (required == null || required.state() != State.READY) {
+            status = "STARTING";
+        } else if (snapshot.values().stream().anyMatch(s -> s.state() == State.FAILED)) {
+            status = "DEGRADED";
+        } else if (snapshot.values().stream().anyMatch(s -> s.state() == State.LOADING)) {
+            status = "PARTIAL";
+        } else {
+            status = "UP";
+        }
+        return new Health(status, snapshot, firstQuery.get());
+    }
+}
@@ -0,0 +1,99 @@
+package com.ios.icl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Неизменяемое множество стоп-слов с поиском по диапазону символов без аллокаций.
+ * Сравнение без учёта регистра; хеш-таблица с открытой адресацией.
+ */
+public final class StopWords {
+
+    public static final StopWords DEFAULT = of(
+            "a", "an", "the", "and", "or", "but", "of", "at", "by", "for",
+            "with", "about", "to", "from", "in", "on", "that", "as", "it",
+            "is", "be", "are", "was", "were", "this", "which", "have", "has");
+
+    private final char[][] table;
+    private final int mask;
+    private final int size;
+
+    private StopWords(List<String> words) {
+        int capacity = Integer.highestOneBit(Math.max(words.size(), 1) * 4 - 1) << 1;
+        this.table = new char[capacity][];
+        this.mask = capacity - 1;
+        int count = 0;
+        for (String word : words) {
+            char[] lower = word.toLowerCase().toCharArray();
+            if (contains(word, 0, word.length())) continue;
+            int slot = hash(word, 0, word.length()) & mask;
+            while (table[slot] != null) slot = (slot + 1) & mask;
+            table[slot] = lower;
+            count++;
+        }
+        this.size = count;
+    }
+
+    public static StopWords of(String... words) {
+        return new StopWords(List.of(words));
+    }
+
+    /**
+     * Одно слово на строку; пустые строки и строки, начинающиеся с #, пропускаются.
+     */
+    public static StopWords load(Path file) throws IOException {
+        List<String> words = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            String word = line.strip();
+            if (!word.isEmpty() && !word.startsWith("#")) words.add(word);
+        }
+        return new StopWords(words);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return слова в нижнем регистре, по алфавиту
+     */
+    public List<String> words() {
+        List<String> words = new ArrayList<>(size);
+        for (char[] word : table) {
+            if (word != null) words.add(new String(word));
+        }
+        words.sort(null);
+        return words;
+    }
+
+    public boolean contains(CharSequence s) {
+        return contains(s, 0, s.length());
+    }
+
+    public boolean contains(CharSequence s, int start, int end) {
+        int slot = hash(s, start, end) & mask;
+        char[] candidate;
+        while ((candidate = table[slot]) != null) {
+            if (equalsIgnoreCase(candidate, s, start, end)) return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    private static int hash(CharSequence s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) h = 31 * h + Character.toLowerCase(s.charAt(i));
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equalsIgnoreCase(char[] lower, CharSequence s, int start, int end) {
+        if (lower.length != end - start) return false;
+        for (int i = 0; i < lower.length; i++) {
+            if (lower[i] != Character.toLowerCase(s.charAt(start + i))) return false;
+        }
+        return true;
+    }
+}
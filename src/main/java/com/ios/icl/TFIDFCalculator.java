@@ -1,8 +1,12 @@
 package com.ios.icl;
 
 import java.io.*;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import org.apache.commons.math3.util.FastMath;
 
 public class TFIDFCalculator {
@@ -16,10 +20,145 @@ public class TFIDFCalculator {
     private static Map<String, Integer> lemmaDocFrequency = new HashMap<>();
     private static int totalDocuments = 0;
 
+    /**
+     * {@code --single-pass}: каждый документ читается один раз, всё считается параллельно;
+     * {@code --metrics=<файл>}: записать пропускную способность этапов в формате Prometheus.
+     */
     public static void main(String[] args) throws IOException {
+        boolean singlePass = false;
+        for (String arg : args) {
+            if (arg.equals("--single-pass")) singlePass = true;
+        }
+        long start = System.nanoTime();
         Files.createDirectories(Paths.get(OUTPUT_DIR));
-        collectDocumentFrequencies();
-        processDocuments();
+        if (singlePass) {
+            singlePass();
+        } else {
+            collectDocumentFrequencies();
+            long scoresStart = System.nanoTime();
+            Metrics.GLOBAL.recordStage("tfidf_df", totalDocuments, scoresStart - start);
+            processDocuments();
+            Metrics.GLOBAL.recordStage("tfidf_scores", totalDocuments, System.nanoTime() - scoresStart);
+        }
+        System.out.printf("TF-IDF for %d documents in %d ms%n", totalDocuments, (System.nanoTime() - start) / 1_000_000);
+        Metrics.GLOBAL.writeIfRequested(args);
+    }
+
+    /**
+     * Частоты термов документа; lemmas == null, если у документа нет lemmas-файла.
+     */
+    private record DocumentTerms(String docId, TermCounts tokens, int totalTokens, TermCounts lemmas) {
+    }
+
+    /**
+     * Первая фаза параллельно читает документы и копит df в общих счётчиках;
+     * когда она закончена (toList — барьер), idf считается один раз на терм,
+     * и вторая фаза параллельно пишет оценки.
+     */
+    private static void singlePass() throws IOException {
+        long start = System.nanoTime();
+        Map<String, LongAdder> tokenDf = new ConcurrentHashMap<>();
+        Map<String, LongAdder> lemmaDf = new ConcurrentHashMap<>();
+        List<Path> tokenFiles = listFiles(TOKENS_PREFIX);
+        Set<String> docIds = ConcurrentHashMap.newKeySet();
+
+        List<DocumentTerms> documents = tokenFiles.parallelStream()
+                .map(file -> readDocument(file, tokenDf, lemmaDf))
+                .peek(doc -> docIds.add(doc.docId()))
+                .toList();
+        // lemmas-файлы без пары тоже учитываются в df, как в обычном режиме
+        listFiles(LEMMAS_PREFIX).parallelStream()
+                .filter(file -> !docIds.contains(docId(file, LEMMAS_PREFIX)))
+                .forEach(file -> readLemmas(file, null, 0, lemmaDf));
+
+        totalDocuments = documents.size();
+        long scoresStart = System.nanoTime();
+        Metrics.GLOBAL.recordStage("tfidf_df", totalDocuments, scoresStart - start);
+        Map<String, Double> tokenIdf = idf(tokenDf, totalDocuments);
+        Map<String, Double> lemmaIdf = idf(lemmaDf, totalDocuments);
+
+        documents.parallelStream().forEach(doc -> {
+            try {
+                Files.writeString(Paths.get(OUTPUT_DIR, "tfidf_tokens" + doc.docId() + ".txt"),
+                        scores(doc.tokens(), doc.totalTokens(), tokenIdf));
+                if (doc.lemmas() != null) {
+                    Files.writeString(Paths.get(OUTPUT_DIR, "tfidf_lemmas" + doc.docId() + ".txt"),
+                            scores(doc.lemmas(), doc.totalTokens(), lemmaIdf));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        Metrics.GLOBAL.recordStage("tfidf_scores", totalDocuments, System.nanoTime() - scoresStart);
+    }
+
+    private static List<Path> listFiles(String prefix) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(INPUT_DIR),
+                path -> path.getFileName().toString().startsWith(prefix) && path.toString().endsWith(".txt"))) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    private static String docId(Path file, String prefix) {
+        return file.getFileName().toString().replace(prefix, "").replace(".txt", "");
+    }
+
+    private static DocumentTerms readDocument(Path tokenFile, Map<String, LongAdder> tokenDf,
+                                              Map<String, LongAdder> lemmaDf) {
+        try {
+            String docId = docId(tokenFile, TOKENS_PREFIX);
+            List<String> lines = Files.readAllLines(tokenFile);
+            TermCounts tokens = new TermCounts(lines.size());
+            for (String line : lines) tokens.add(line.trim(), 1);
+            tokens.forEach((token, count) -> tokenDf.computeIfAbsent(token, k -> new LongAdder()).increment());
+
+            Path lemmaFile = tokenFile.resolveSibling(LEMMAS_PREFIX + docId + ".txt");
+            TermCounts lemmas = Files.exists(lemmaFile) ? readLemmas(lemmaFile, tokens, lines.size(), lemmaDf) : null;
+            return new DocumentTerms(docId, tokens, lines.size(), lemmas);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Частота леммы — сумма частот её словоформ среди tokens; без tokens считается только df.
+     */
+    private static TermCounts readLemmas(Path lemmaFile, TermCounts tokens, int expected,
+                                         Map<String, LongAdder> lemmaDf) {
+        try {
+            TermCounts lemmas = new TermCounts(expected);
+            for (String line : Files.readAllLines(lemmaFile)) {
+                String[] parts = line.split(" ");
+                int sum = 0;
+                if (tokens != null) {
+                    for (int i = 1; i < parts.length; i++) sum += tokens.get(parts[i].trim());
+                }
+                lemmas.put(parts[0].trim(), sum);
+            }
+            lemmas.forEach((lemma, count) -> lemmaDf.computeIfAbsent(lemma, k -> new LongAdder()).increment());
+            return lemmas;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Map<String, Double> idf(Map<String, LongAdder> df, int totalDocuments) {
+        Map<String, Double> idf = new HashMap<>(df.size() * 2);
+        df.forEach((term, count) -> idf.put(term, FastMath.log((double) totalDocuments / count.sum())));
+        return idf;
+    }
+
+    private static String scores(TermCounts counts, int totalTokens, Map<String, Double> idf) {
+        StringBuilder sb = new StringBuilder(counts.size() * 24);
+        String newline = System.lineSeparator();
+        counts.forEach((term, count) -> {
+            double termIdf = idf.get(term);
+            double tf = (double) count / totalTokens;
+            appendScore(sb, term, termIdf, tf * termIdf).append(newline);
+        });
+        return sb.toString();
     }
 
     private static void collectDocumentFrequencies() throws IOException {
@@ -59,59 +198,111 @@ public class TFIDFCalculator {
                 Path lemmaFile = tokenFile.resolveSibling(LEMMAS_PREFIX + docId + ".txt");
 
                 // Частоты токенов
-                Map<String, Integer> tokenFreq = new HashMap<>();
-                int totalTokens = 0;
                 List<String> tokens = Files.readAllLines(tokenFile);
-                for (String token : tokens) {
-                    token = token.trim();
-                    tokenFreq.put(token, tokenFreq.getOrDefault(token, 0) + 1);
-                    totalTokens++;
-                }
-
-                // TF-IDF для токенов
-                List<String> tokenResults = new ArrayList<>();
-                for (Map.Entry<String, Integer> entry : tokenFreq.entrySet()) {
-                    String token = entry.getKey();
-                    double tf = (double) entry.getValue() / totalTokens;
-                    int df = tokenDocFrequency.getOrDefault(token, 1);
-                    double idf = FastMath.log((double) totalDocuments / df);
-                    double tfidf = tf * idf;
-                    tokenResults.add(String.format("%s %.4f %.4f", token, idf, tfidf));
-                }
+                Map<String, Integer> tokenFreq = termFrequencies(tokens);
 
                 Path outTokenFile = Paths.get(OUTPUT_DIR, "tfidf_tokens" + docId + ".txt");
-                Files.write(outTokenFile, tokenResults);
+                Files.write(outTokenFile,
+                        tokenScores(tokenFreq, tokens.size(), tokenDocFrequency, totalDocuments));
 
                 // Обработка лемм
                 if (Files.exists(lemmaFile)) {
-                    Map<String, Double> lemmaTf = new HashMap<>();
-                    List<String> lemmaLines = Files.readAllLines(lemmaFile);
-                    for (String line : lemmaLines) {
+                    Map<String, List<String>> lemmas = new LinkedHashMap<>();
+                    for (String line : Files.readAllLines(lemmaFile)) {
                         String[] parts = line.split(" ");
                         if (parts.length < 1) continue;
-                        String lemma = parts[0].trim();
-                        int sum = 0;
-                        for (int i = 1; i < parts.length; i++) {
-                            sum += tokenFreq.getOrDefault(parts[i].trim(), 0);
-                        }
-                        lemmaTf.put(lemma, (double) sum / totalTokens);
-                    }
-
-                    // TF-IDF для лемм
-                    List<String> lemmaResults = new ArrayList<>();
-                    for (Map.Entry<String, Double> entry : lemmaTf.entrySet()) {
-                        String lemma = entry.getKey();
-                        double tf = entry.getValue();
-                        int df = lemmaDocFrequency.getOrDefault(lemma, 1);
-                        double idf = FastMath.log((double) totalDocuments / df);
-                        double tfidf = tf * idf;
-                        lemmaResults.add(String.format("%s %.4f %.4f", lemma, idf, tfidf));
+                        List<String> forms = new ArrayList<>();
+                        for (int i = 1; i < parts.length; i++) forms.add(parts[i].trim());
+                        lemmas.put(parts[0].trim(), forms);
                     }
 
                     Path outLemmaFile = Paths.get(OUTPUT_DIR, "tfidf_lemmas" + docId + ".txt");
-                    Files.write(outLemmaFile, lemmaResults);
+                    Files.write(outLemmaFile,
+                            lemmaScores(lemmas, tokenFreq, tokens.size(), lemmaDocFrequency, totalDocuments));
                 }
             }
         }
     }
-}
\ No newline at end of file
+
+    static Map<String, Integer> termFrequencies(Collection<String> tokens) {
+        Map<String, Integer> tokenFreq = new HashMap<>();
+        for (String token : tokens) {
+            tokenFreq.merge(token.trim(), 1, Integer::sum);
+        }
+        return tokenFreq;
+    }
+
+    /**
+     * Строки «токен idf tf-idf» одного документа.
+     */
+    static List<String> tokenScores(Map<String, Integer> tokenFreq, int totalTokens,
+                                    Map<String, Integer> docFrequency, int totalDocuments) {
+        List<String> tokenResults = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : tokenFreq.entrySet()) {
+            String token = entry.getKey();
+            double tf = (double) entry.getValue() / totalTokens;
+            int df = docFrequency.getOrDefault(token, 1);
+            double idf = FastMath.log((double) totalDocuments / df);
+            double tfidf = tf * idf;
+            tokenResults.add(appendScore(new StringBuilder(), token, idf, tfidf).toString());
+        }
+        return tokenResults;
+    }
+
+    /**
+     * Строки «лемма idf tf-idf»; частота леммы — сумма частот её словоформ.
+     */
+    static List<String> lemmaScores(Map<String, ? extends Collection<String>> lemmas, Map<String, Integer> tokenFreq,
+                                    int totalTokens, Map<String, Integer> docFrequency, int totalDocuments) {
+        List<String> lemmaResults = new ArrayList<>();
+        for (Map.Entry<String, ? extends Collection<String>> entry : lemmas.entrySet()) {
+            String lemma = entry.getKey();
+            int sum = 0;
+            for (String form : entry.getValue()) {
+                sum += tokenFreq.getOrDefault(form, 0);
+            }
+            double tf = (double) sum / totalTokens;
+            int df = docFrequency.getOrDefault(lemma, 1);
+            double idf = FastMath.log((double) totalDocuments / df);
+            double tfidf = tf * idf;
+            lemmaResults.add(appendScore(new StringBuilder(), lemma, idf, tfidf).toString());
+        }
+        return lemmaResults;
+    }
+
+    /**
+     * Строка «терм idf tf-idf», как {@code String.format("%s %.4f %.4f")}, но без разбора
+     * шаблона и всегда с точкой в дробной части, независимо от локали.
+     */
+    static StringBuilder appendScore(StringBuilder sb, String term, double idf, double tfidf) {
+        sb.append(term).append(' ');
+        appendFixed4(sb, idf);
+        sb.append(' ');
+        appendFixed4(sb, tfidf);
+        return sb;
+    }
+
+    /**
+     * Четыре знака после точки с округлением HALF_UP, как у {@link Formatter}.
+     * Formatter округляет кратчайшую десятичную запись числа, а не его точное двоичное
+     * значение, поэтому значения у самой границы округления идут через {@link BigDecimal#valueOf(double)}.
+     */
+    static void appendFixed4(StringBuilder sb, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= 1e14) {
+            sb.append(String.format(Locale.ROOT, "%.4f", value));
+            return;
+        }
+        if (Double.doubleToRawLongBits(value) < 0) sb.append('-');
+        double scaled = Math.abs(value) * 10_000;
+        double fraction = scaled - Math.floor(scaled);
+        long units = Math.abs(fraction - 0.5) < 1e-6
+                ? BigDecimal.valueOf(Math.abs(value)).setScale(4, RoundingMode.HALF_UP).unscaledValue().longValueExact()
+                : (long) Math.floor(scaled + 0.5);
+        sb.append(units / 10_000).append('.');
+        long frac = units % 10_000;
+        if (frac < 1000) sb.append('0');
+        if (frac < 100) sb.append('0');
+        if (frac < 10) sb.append('0');
+        sb.append(frac);
+    }
+}
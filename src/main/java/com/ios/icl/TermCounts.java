@@ -0,0 +1,83 @@
+package com.ios.icl;
+
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Счётчики термов одного документа: открытая адресация, значения в int[] без упаковки в Integer.
+ */
+final class TermCounts {
+    private String[] keys;
+    private int[] values;
+    private int size;
+
+    TermCounts() {
+        this(16);
+    }
+
+    TermCounts(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+        keys = new String[capacity];
+        values = new int[capacity];
+    }
+
+    void add(String key, int delta) {
+        int slot = slot(key);
+        if (keys[slot] == null) {
+            insert(slot, key, delta);
+        } else {
+            values[slot] += delta;
+        }
+    }
+
+    void put(String key, int value) {
+        int slot = slot(key);
+        if (keys[slot] == null) {
+            insert(slot, key, value);
+        } else {
+            values[slot] = value;
+        }
+    }
+
+    int get(String key) {
+        int slot = slot(key);
+        return keys[slot] == null ? 0 : values[slot];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void forEach(ObjIntConsumer<String> action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) action.accept(keys[i], values[i]);
+        }
+    }
+
+    private int slot(String key) {
+        int mask = keys.length - 1;
+        int h = key.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (keys[slot] != null && !keys[slot].equals(key)) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void insert(int slot, String key, int value) {
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > keys.length) grow();
+    }
+
+    private void grow() {
+        String[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new String[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
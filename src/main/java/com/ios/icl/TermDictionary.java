@@ -0,0 +1,88 @@
+package com.ios.icl;
+
+import java.util.Arrays;
+
+/**
+ * Термин ↔ порядковый номер 0..size-1 в порядке добавления. Открытая адресация,
+ * как в {@link TermCounts}: в таблице лежат номера, строки — один раз в {@link #term(int)}.
+ */
+final class TermDictionary {
+    private String[] terms = new String[16];
+    private int[] slots;
+    private int size;
+
+    TermDictionary() {
+        this(16);
+    }
+
+    TermDictionary(int expected) {
+        slots = new int[Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1];
+        Arrays.fill(slots, -1);
+    }
+
+    /**
+     * @return номер термина либо -1, если его нет
+     */
+    int id(String term) {
+        return slots[slot(term)];
+    }
+
+    /**
+     * @return номер термина, новый термин получает следующий свободный
+     */
+    int add(String term) {
+        int slot = slot(term);
+        if (slots[slot] >= 0) return slots[slot];
+        if (size == terms.length) terms = Arrays.copyOf(terms, Math.max(size * 2, 16));
+        terms[size] = term;
+        slots[slot] = size;
+        if (++size * 2 > slots.length) grow();
+        return size - 1;
+    }
+
+    String term(int id) {
+        return terms[id];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return примерный объём в куче: таблица, массив терминов и сами строки
+     */
+    long estimatedBytes() {
+        long bytes = 16 + 4L * slots.length + 16 + 4L * terms.length;
+        for (int id = 0; id < size; id++) bytes += stringBytes(terms[id]);
+        return bytes;
+    }
+
+    /**
+     * Объект String и его массив: байт на символ для латиницы, два — для остального (кириллицы).
+     */
+    static long stringBytes(String s) {
+        boolean latin1 = s.chars().allMatch(c -> c < 0x100);
+        return 24 + 16 + (long) s.length() * (latin1 ? 1 : 2);
+    }
+
+    /**
+     * Подрезает массив терминов под фактический размер, когда словарь больше не растёт.
+     */
+    void trim() {
+        terms = Arrays.copyOf(terms, size);
+    }
+
+    private int slot(String term) {
+        int mask = slots.length - 1;
+        int h = term.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (slots[slot] >= 0 && !terms[slots[slot]].equals(term)) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void grow() {
+        slots = new int[slots.length * 2];
+        Arrays.fill(slots, -1);
+        for (int id = 0; id < size; id++) slots[slot(terms[id])] = id;
+    }
+}
@@ -0,0 +1,65 @@
+package com.ios.icl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Индекс в текстовом формате {@code term:1,2,3}, целиком разбираемый в память.
+ */
+public class TextInvertedIndex implements InvertedIndex {
+    private final Map<String, int[]> index = new HashMap<>();
+    private final int[] allDocs;
+
+    private TextInvertedIndex(Path file) throws IOException {
+        Set<Integer> docs = new TreeSet<>();
+        try (Stream<String> lines = Files.lines(file)) {
+            lines.forEach(line -> {
+                String[] parts = line.split(":");
+                if (parts.length != 2) return;
+
+                int[] postings = Arrays.stream(parts[1].split(","))
+                        .mapToInt(Integer::parseInt)
+                        .sorted()
+                        .distinct()
+                        .toArray();
+                index.put(parts[0], postings);
+                for (int doc : postings) docs.add(doc);
+            });
+        }
+        this.allDocs = docs.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public static TextInvertedIndex load(Path file) throws IOException {
+        return new TextInvertedIndex(file);
+    }
+
+    /**
+     * @return термины в лексикографическом порядке вместе с постингами
+     */
+    public SortedMap<String, int[]> sortedTerms() {
+        return new TreeMap<>(index);
+    }
+
+    @Override
+    public int[] postings(String term) {
+        return index.getOrDefault(term, new int[0]);
+    }
+
+    @Override
+    public int docFrequency(String term) {
+        return postings(term).length;
+    }
+
+    @Override
+    public int[] allDocs() {
+        return allDocs;
+    }
+
+    @Override
+    public int termCount() {
+        return index.size();
+    }
+}
@@ -1,88 +1,122 @@
 package com.ios.icl;
 
-import edu.stanford.nlp.util.CoreMap;
-
 import java.util.*;
 import java.io.*;
 import java.nio.file.*;
-
-import edu.stanford.nlp.pipeline.*;
-import edu.stanford.nlp.ling.*;
+import java.util.concurrent.CompletableFuture;
 
 public class TextProcessor {
 
-    private static StanfordCoreNLP pipeline;
-    private static Set<String> stopWords = new HashSet<>(Arrays.asList(
-            "a", "an", "the", "and", "or", "but", "of", "at", "by", "for",
-            "with", "about", "to", "from", "in", "on", "that", "as", "it",
-            "is", "be", "are", "was", "were", "this", "which", "have", "has"
-    ));
+    /**
+     * Уникальные токены документа и словоформы каждой леммы, по алфавиту;
+     * positions — номера слов, на которых стоит каждая лемма, по возрастанию;
+     * length — сколько всего слов в тексте, включая отброшенные фильтром.
+     */
+    public record Analysis(Set<String> tokens, Map<String, Set<String>> lemmas, Map<String, int[]> positions,
+                           int length) {
+    }
 
+    /**
+     * Заголовок стоит первым абзацем текста, так что его слова занимают первые позиции.
+     */
+    static CompletableFuture<Integer> titleLength(Lemmatizer lemmatizer, String title) {
+        return title.isBlank()
+                ? CompletableFuture.completedFuture(0)
+                : lemmatizer.submit(title).thenApply(Analysis::length);
+    }
+
+    /**
+     * {@code --fast}: леммы из словаря по каталогу lemmas вместо разметки частей речи;
+     * {@code --stopwords=<файл>}: свой список стоп-слов, по слову на строку;
+     * {@code --metrics=<файл>}: записать пропускную способность этапов в формате Prometheus.
+     */
     public static void main(String[] args) throws Exception {
-        Properties props = new Properties();
-        props.setProperty("annotators", "tokenize, ssplit, pos, lemma");
-        pipeline = new StanfordCoreNLP(props);
+        boolean fast = false;
+        StopWords stopWords = StopWords.DEFAULT;
+        for (String arg : args) {
+            if (arg.equals("--fast")) fast = true;
+            else if (arg.startsWith("--stopwords=")) stopWords = StopWords.load(Paths.get(arg.substring(12)));
+        }
+        Lemmatizer.Mode mode = fast ? Lemmatizer.Mode.DICTIONARY : Lemmatizer.Mode.FULL;
+        Map<String, String> dictionary = fast ? Lemmatizer.loadDictionary(Paths.get("lemmas")) : Map.of();
+        try (Lemmatizer lemmatizer = new Lemmatizer(mode, Runtime.getRuntime().availableProcessors(), dictionary,
+                TokenFilter.defaults(stopWords))) {
+            Map<String, SortedMap<Integer, int[]>> positional = new HashMap<>();
+            SortedMap<Integer, PositionalIndex.DocLength> lengths = new TreeMap<>();
+            processFiles("выкачка", lemmatizer, positional, lengths);
+            long start = System.nanoTime();
+            IndexBuilder.savePositionalIndex(positional, lengths, stopWords);
+            Metrics.GLOBAL.recordStage("positional_index", lengths.size(), System.nanoTime() - start);
+        }
+        Metrics.GLOBAL.writeIfRequested(args);
+    }
 
-        processFiles("выкачка");
+    private record Pending(CompletableFuture<Analysis> text, CompletableFuture<Integer> titleLength) {
     }
 
-    private static void processFiles(String inputDir) throws Exception {
-        Files.list(Paths.get(inputDir))
-                .filter(Files::isRegularFile)
-                .parallel()
-                .forEach(file -> processFile(file));
+    /**
+     * Заодно собирает позиционный индекс и длины документов по обработанным файлам.
+     */
+    private static void processFiles(String inputDir, Lemmatizer lemmatizer,
+                                     Map<String, SortedMap<Integer, int[]>> positional,
+                                     SortedMap<Integer, PositionalIndex.DocLength> lengths) throws Exception {
+        List<Path> files;
+        try (var list = Files.list(Paths.get(inputDir))) {
+            files = list.filter(Files::isRegularFile)
+                    .filter(file -> file.getFileName().toString().matches("\\d+\\.txt"))
+                    .toList();
+        }
+        long start = System.nanoTime();
+        Map<Path, Pending> pending = new LinkedHashMap<>();
+        for (Path file : files) {
+            HtmlTextExtractor.Extracted extracted = HtmlTextExtractor.extract(Files.readAllBytes(file));
+            pending.put(file, new Pending(lemmatizer.submit(extracted.text()), titleLength(lemmatizer, extracted.title())));
+        }
+        Metrics.GLOBAL.recordStage("extract", files.size(), System.nanoTime() - start);
+        pending.forEach((file, result) -> processFile(file, result, positional, lengths));
+        long nanos = System.nanoTime() - start;
+        Metrics.GLOBAL.recordStage("analyze", lengths.size(), nanos);
+        double seconds = nanos / 1e9;
+        System.out.printf("Processed %d files in %.1f s (%.2f docs/s, %s mode)%n",
+                files.size(), seconds, files.size() / seconds, lemmatizer.mode());
     }
 
-    private static void processFile(Path file) {
+    private static void processFile(Path file, Pending result, Map<String, SortedMap<Integer, int[]>> positional,
+                                    SortedMap<Integer, PositionalIndex.DocLength> lengths) {
         try {
-            String content = new String(Files.readAllBytes(file));
-            Set<String> uniqueTokens = new TreeSet<>();
-            Map<String, Set<String>> lemmaMap = new TreeMap<>();
-
-            Annotation annotation = new Annotation(content);
-            pipeline.annotate(annotation);
-
-            for (CoreMap sentence : annotation.get(CoreAnnotations.SentencesAnnotation.class)) {
-                for (CoreLabel token : sentence.get(CoreAnnotations.TokensAnnotation.class)) {
-                    String word = token.word().toLowerCase();
-                    String lemma = token.lemma().toLowerCase();
-
-                    if (isValidToken(word)) {
-                        uniqueTokens.add(word);
-                        lemmaMap.computeIfAbsent(lemma, k -> new TreeSet<>()).add(word);
-                    }
-                }
-            }
+            Analysis analysis = result.text().get();
 
             // Генерация имен выходных файлов
             String baseName = file.getFileName().toString().replaceFirst("[.][^.]+$", "");
-            Path tokensFile = file.resolveSibling("tokens" + baseName + ".txt");
-            Path lemmasFile = file.resolveSibling("lemmas" + baseName + ".txt");
-
-            // Запись токенов
-            try (BufferedWriter writer = Files.newBufferedWriter(tokensFile)) {
-                for (String token : uniqueTokens) {
-                    writer.write(token + "\n");
-                }
-            }
-
-            // Запись лемм
-            try (BufferedWriter writer = Files.newBufferedWriter(lemmasFile)) {
-                for (Map.Entry<String, Set<String>> entry : lemmaMap.entrySet()) {
-                    writer.write(entry.getKey() + " " + String.join(" ", entry.getValue()) + "\n");
-                }
-            }
+            write(analysis, file.resolveSibling("tokens" + baseName + ".txt"),
+                    file.resolveSibling("lemmas" + baseName + ".txt"));
+            int docId = Integer.parseInt(baseName);
+            IndexBuilder.addPositions(positional, docId, analysis.positions());
+            lengths.put(docId, new PositionalIndex.DocLength(analysis.length(), result.titleLength().get()));
 
             System.out.println("Processed: " + file.getFileName());
         } catch (Exception e) {
+            Metrics.GLOBAL.counter("pipeline_errors_total", "Documents a batch stage failed on", "stage", "analyze").increment();
             System.err.println("Error processing " + file.getFileName() + ": " + e.getMessage());
         }
     }
 
-    private static boolean isValidToken(String token) {
-        return !stopWords.contains(token) &&
-                !token.matches(".*\\d.*") &&
-                token.matches("^[a-zA-Z']+$") &&
-                token.length() > 2;
+    static void write(Analysis analysis, Path tokensFile, Path lemmasFile) throws IOException {
+        // Запись токенов
+        try (BufferedWriter writer = Files.newBufferedWriter(tokensFile)) {
+            for (String token : analysis.tokens()) {
+                writer.write(token + "\n");
+            }
+        }
+
+        writeLemmas(analysis, lemmasFile);
+    }
+
+    static void writeLemmas(Analysis analysis, Path lemmasFile) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(lemmasFile)) {
+            for (Map.Entry<String, Set<String>> entry : analysis.lemmas().entrySet()) {
+                writer.write(entry.getKey() + " " + String.join(" ", entry.getValue()) + "\n");
+            }
+        }
     }
-}
\ No newline at end of file
+}
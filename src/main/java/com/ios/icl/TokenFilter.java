@@ -0,0 +1,77 @@
+package com.ios.icl;
+
+/**
+ * Фильтр токенов, проверяющий диапазон символов без создания строк.
+ * Фильтры собираются в цепочку через {@link #and(TokenFilter)}; дешёвые проверки
+ * лучше ставить первыми.
+ */
+@FunctionalInterface
+public interface TokenFilter {
+
+    boolean accept(CharSequence s, int start, int end);
+
+    default boolean accept(CharSequence s) {
+        return accept(s, 0, s.length());
+    }
+
+    default TokenFilter and(TokenFilter next) {
+        return (s, start, end) -> accept(s, start, end) && next.accept(s, start, end);
+    }
+
+    /**
+     * Цепочка, которой индексатор пользовался всегда: длиннее двух символов,
+     * только латиница и апострофы, без цифр и стоп-слов.
+     */
+    static TokenFilter defaults() {
+        return defaults(StopWords.DEFAULT);
+    }
+
+    static TokenFilter defaults(StopWords stopWords) {
+        return length(3, Integer.MAX_VALUE)
+                .and(charset("a-zA-Z'"))
+                .and(noDigits())
+                .and(stopWords(stopWords));
+    }
+
+    static TokenFilter length(int min, int max) {
+        return (s, start, end) -> end - start >= min && end - start <= max;
+    }
+
+    /**
+     * Все символы из набора ASCII-символов и диапазонов вида {@code a-z}; остальные отвергаются.
+     */
+    static TokenFilter charset(String spec) {
+        boolean[] allowed = new boolean[128];
+        for (int i = 0; i < spec.length(); i++) {
+            char from = spec.charAt(i);
+            char to = from;
+            if (i + 2 < spec.length() && spec.charAt(i + 1) == '-') {
+                to = spec.charAt(i + 2);
+                i += 2;
+            }
+            if (to >= 128) throw new IllegalArgumentException("Only ASCII is supported: " + spec);
+            for (char c = from; c <= to; c++) allowed[c] = true;
+        }
+        return (s, start, end) -> {
+            for (int i = start; i < end; i++) {
+                char c = s.charAt(i);
+                if (c >= 128 || !allowed[c]) return false;
+            }
+            return true;
+        };
+    }
+
+    static TokenFilter noDigits() {
+        return (s, start, end) -> {
+            for (int i = start; i < end; i++) {
+                char c = s.charAt(i);
+                if ((c >= '0' && c <= '9') || (c >= 128 && Character.isDigit(c))) return false;
+            }
+            return true;
+        };
+    }
+
+    static TokenFilter stopWords(StopWords stopWords) {
+        return (s, start, end) -> !stopWords.contains(s, start, end);
+    }
+}
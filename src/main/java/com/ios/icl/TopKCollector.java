@@ -0,0 +1,102 @@
+package com.ios.icl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ограниченная куча для отбора top-K документов.
+ * Хранит не больше k элементов: в корне лежит худший из отобранных,
+ * поэтому каждый новый кандидат сравнивается только с ним.
+ * При равных оценках выигрывает документ с меньшим порядковым номером.
+ */
+public class TopKCollector {
+    private final int k;
+    private final int[] docs;
+    private final double[] scores;
+    private int size;
+
+    public TopKCollector(int k) {
+        this.k = Math.max(k, 0);
+        this.docs = new int[this.k];
+        this.scores = new double[this.k];
+    }
+
+    public boolean isFull() {
+        return size == k;
+    }
+
+    /**
+     * @return оценка, которую должен превзойти кандидат, чтобы попасть в кучу
+     */
+    public double threshold() {
+        return isFull() && k > 0 ? scores[0] : Double.NEGATIVE_INFINITY;
+    }
+
+    public boolean offer(int doc, double score) {
+        if (k == 0) return false;
+        if (size < k) {
+            docs[size] = doc;
+            scores[size] = score;
+            siftUp(size++);
+            return true;
+        }
+        if (!better(doc, score, docs[0], scores[0])) return false;
+        docs[0] = doc;
+        scores[0] = score;
+        siftDown(0);
+        return true;
+    }
+
+    /**
+     * Забирает содержимое кучи в порядке убывания оценки.
+     */
+    public List<Entry> drain() {
+        Entry[] out = new Entry[size];
+        for (int i = size - 1; i >= 0; i--) {
+            out[i] = new Entry(docs[0], scores[0]);
+            size--;
+            docs[0] = docs[size];
+            scores[0] = scores[size];
+            siftDown(0);
+        }
+        return new ArrayList<>(List.of(out));
+    }
+
+    private static boolean better(int docA, double scoreA, int docB, double scoreB) {
+        return scoreA > scoreB || (scoreA == scoreB && docA < docB);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!better(docs[parent], scores[parent], docs[i], scores[i])) break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) break;
+            int worst = left;
+            int right = left + 1;
+            if (right < size && better(docs[left], scores[left], docs[right], scores[right])) worst = right;
+            if (!better(docs[i], scores[i], docs[worst], scores[worst])) break;
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int d = docs[a];
+        docs[a] = docs[b];
+        docs[b] = d;
+        double s = scores[a];
+        scores[a] = scores[b];
+        scores[b] = s;
+    }
+
+    public record Entry(int doc, double score) {
+    }
+}
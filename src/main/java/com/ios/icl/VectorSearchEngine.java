@@ -1,42 +1,492 @@
 package com.ios.icl;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
 
 @Controller
 @RequestMapping("/")
 public class VectorSearchEngine {
-    private static final String INPUT_DIR = "tfidf_tokens";
-    private static final String TOKENS_TFIDF_PREFIX = "tfidf_tokens";
-    private static final String LEMMAS_TFIDF_PREFIX = "tfidf_lemmas";
-    private static final String LEMMAS_MAP_PREFIX = "lemmas";
-
-    private final Map<String, Map<String, Double>> tokenVectors = new HashMap<>();
-    private final Map<String, Map<String, Double>> lemmaVectors = new HashMap<>();
-    private final Map<String, Double> tokenIdf = new HashMap<>();
-    private final Map<String, Double> lemmaIdf = new HashMap<>();
-    private final Map<String, List<String>> lemmaMap = new HashMap<>();
-    private final int totalDocs;
+    private static final Logger log = LoggerFactory.getLogger(VectorSearchEngine.class);
+
+    /**
+     * Текущее поколение данных поиска. Запрос читает ссылку один раз и работает с этим снимком
+     * до конца, поэтому перезагрузка не мешает уже начатым запросам.
+     */
+    private volatile SearchSnapshot snapshot;
+    private ScoreFusion fusion;
+    private final SearchLatency latency = new SearchLatency();
+    private final Metrics metrics = Metrics.GLOBAL;
+    private final Map<String, Metrics.Histogram> requestTimers = new ConcurrentHashMap<>();
+    private final Metrics.Histogram[] vectorizeTimers = {
+            metrics.timer("search_vectorize_seconds", "Query vectorization on a query vector cache miss", "terms", "tokens"),
+            metrics.timer("search_vectorize_seconds", "Query vectorization on a query vector cache miss", "terms", "lemmas")};
+    private final Phases tokenPhases = new Phases(metrics, "tokens", "tokens");
+    private final Phases lemmaPhases = new Phases(metrics, "lemmas", "lemmas");
+    private final Phases bothTokenPhases = new Phases(metrics, "both", "tokens");
+    private final Phases bothLemmaPhases = new Phases(metrics, "both", "lemmas");
+    private final Metrics.Histogram mergeTimer =
+            metrics.timer("search_merge_seconds", "Fusion of token and lemma candidate lists in mode both");
+    /**
+     * Токены и леммы режима both считаются параллельно: списки по токенам уходят сюда,
+     * леммы — в потоке запроса.
+     */
+    private final ExecutorService fusionPool = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), Thread.ofPlatform().name("search-fusion-", 0).daemon().factory());
+
+    /**
+     * Части снимка (токены, леммы, словарь лемм, BM25) грузятся одновременно.
+     */
+    private final ExecutorService loadPool = Executors.newFixedThreadPool(4,
+            Thread.ofPlatform().name("index-load-", 0).daemon().factory());
+    /**
+     * Новое поколение собирается здесь по одному, пока поиск обслуживает текущее.
+     */
+    private final ExecutorService reloadPool = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("index-reload").daemon().factory());
+    private CompletableFuture<ReloadStats> pendingReload;
+    // Перезагрузка, запрошенная во время идущей: стоит в очереди reloadPool и копит страницы
+    private CompletableFuture<ReloadStats> followUpReload;
+    private final Set<Integer> followUpDocs = new TreeSet<>();
+    private volatile ReloadStats lastReload;
+    private final AtomicLong reloads = new AtomicLong();
+    private final Map<Long, LongAdder> queriesByGeneration = new ConcurrentHashMap<>();
+    private SearchBatcher batcher;
+    private Semaphore inFlight;
+    private final LongAdder rejected = new LongAdder();
+
+    // Ключи кешей включают поколение, так что после перезагрузки старые результаты не выдаются,
+    // даже если запрос на старом снимке положил их уже после сброса
+    private QueryCache<QueryKey, List<Result>> resultCache;
+    private QueryCache<VectorKey, Map<String, Double>> vectorCache;
+
+    /**
+     * @param query запрос после {@link #normalize(String)}
+     * @param mode  tokens, lemmas, both, bm25 или bm25f
+     */
+    record QueryKey(String query, String mode, int topK, long generation) {
+    }
+
+    /**
+     * @param query запрос после {@link #normalize(String)}
+     */
+    private record VectorKey(String query, boolean lemmas, long generation) {
+    }
+
+    /**
+     * Этапы косинусного поиска по одному индексу: сколько документов получили оценку,
+     * подсчёт оценок и отбор top-K, см. {@link PostingsIndex.Hits}.
+     */
+    private record Phases(Metrics.Histogram candidates, Metrics.Histogram score, Metrics.Histogram topK) {
+        Phases(Metrics metrics, String mode, String index) {
+            this(metrics.histogram("search_candidates", "Documents scored per query", Metrics.COUNTS,
+                            "mode", mode, "index", index),
+                    metrics.timer("search_score_seconds", "Accumulating cosine scores over postings",
+                            "mode", mode, "index", index),
+                    metrics.timer("search_topk_seconds", "Top-K selection over scored documents",
+                            "mode", mode, "index", index));
+        }
+
+        PostingsIndex.Hits record(PostingsIndex.Hits hits) {
+            candidates.observe(hits.candidates());
+            score.recordNanos(hits.scoreNanos());
+            topK.recordNanos(hits.selectNanos());
+            return hits;
+        }
+    }
+
+    /**
+     * @param loadMillis     чтение векторов и индексов нового поколения
+     * @param pageRankMillis пересчёт PageRank от текущего вектора рангов
+     * @param totalMillis    от начала сборки до публикации снимка
+     * @param estimatedBytes примерный объём снимка в куче, см. {@link SearchSnapshot#estimatedBytes()}
+     */
+    public record ReloadStats(long generation, long loadMillis, long pageRankMillis, long totalMillis,
+                              int docs, long estimatedBytes, long mappedBytes) {
+    }
+
+    /**
+     * @param queriesByGeneration сколько запросов обслужило каждое поколение
+     */
+    public record GenerationStats(long generation, Instant loadedAt, int docs, long estimatedBytes, long mappedBytes,
+                                  long reloads, ReloadStats lastReload, Map<Long, Long> queriesByGeneration) {
+    }
+
+    /**
+     * @param inFlight запросы /api/search, которые обслуживаются сейчас
+     * @param rejected сколько запросов не дождались места и получили 503
+     * @param batching null, если пакеты выключены
+     */
+    public record ServingStats(int inFlight, int maxInFlight, long rejected, SearchBatcher.Stats batching) {
+    }
+
+    /**
+     * @param pageRank второй ключ сортировки при равной оценке
+     */
+    public record Hit(int docId, String url, double score, double pageRank) {
+    }
+
+    public record SearchResponse(String query, String scoring, long generation, List<Hit> results) {
+    }
+
+    public enum Scoring {
+        /** косинус по готовым TF-IDF векторам */
+        COSINE,
+        /** BM25 по частотам лемм из позиционного индекса */
+        BM25,
+        /** BM25F: заголовок и тело страницы — отдельные поля */
+        BM25F,
+        /** слияние косинусов по токенам и по леммам, см. {@link ScoreFusion} */
+        FUSED;
+
+        public static Scoring parse(String name) {
+            return valueOf(name.strip().toUpperCase(Locale.ROOT));
+        }
+    }
 
     @Autowired
     private PageRankProcessor pageRankProcessor;
 
-    public VectorSearchEngine() throws IOException {
-        loadLemmaMapping();
-        this.totalDocs = loadTfIdfVectors(TOKENS_TFIDF_PREFIX, tokenVectors, tokenIdf);
-        loadTfIdfVectors(LEMMAS_TFIDF_PREFIX, lemmaVectors, lemmaIdf);
+    @Autowired
+    private StartupTracker startup = new StartupTracker();
+
+    /**
+     * Принимать запросы, как только готов индекс токенов; леммы, словарь лемм и BM25 догружаются в фоне.
+     * Иначе старт ждёт все части (они всё равно грузятся параллельно).
+     */
+    @Value("${search.startup.lazy:true}")
+    private boolean lazyStartup = true;
+
+    @Value("${search.vector.strategy:maxscore}")
+    private PostingsIndex.Strategy strategy = PostingsIndex.Strategy.MAXSCORE;
+
+    /**
+     * Прогонять каждый запрос ещё и полным подсчётом, сверять top-K и логировать время обоих путей.
+     */
+    @Value("${search.vector.compare-exhaustive:false}")
+    private boolean compareExhaustive;
+
+    /**
+     * Ранжирование для запросов, в которых оно не указано явно.
+     */
+    @Value("${search.scoring:cosine}")
+    private String defaultScoring = "cosine";
+
+    @Value("${search.bm25.k1:1.2}")
+    private double k1 = Bm25Scorer.Parameters.DEFAULT.k1();
+
+    @Value("${search.bm25.b:0.75}")
+    private double b = Bm25Scorer.Parameters.DEFAULT.b();
+
+    @Value("${search.bm25.title-weight:3.0}")
+    private double titleWeight = Bm25Scorer.Parameters.DEFAULT.titleWeight();
+
+    @Value("${search.bm25.title-b:0.5}")
+    private double titleB = Bm25Scorer.Parameters.DEFAULT.titleB();
+
+    @Value("${search.fusion.method:weighted}")
+    private String fusionMethod = "weighted";
+
+    /**
+     * Доля оценки по токенам в режиме both; остальное — по леммам.
+     */
+    @Value("${search.fusion.token-weight:0.5}")
+    private double fusionTokenWeight = 0.5;
+
+    @Value("${search.fusion.rrf-k:60}")
+    private int rrfK = 60;
+
+    @Value("${search.cache.enabled:true}")
+    private boolean cacheEnabled = true;
+
+    @Value("${search.cache.max-size:10000}")
+    private int cacheSize = 10_000;
+
+    @Value("${search.cache.ttl:10m}")
+    private Duration cacheTtl = Duration.ofMinutes(10);
+
+    /**
+     * Сколько декодированных постингов терминов держит BM25; 0 — не кешировать.
+     */
+    @Value("${search.cache.postings-size:10000}")
+    private int postingsCacheSize = 10_000;
+
+    /**
+     * Косинусные запросы /api/search, накопившиеся, пока считался предыдущий пакет, считаются
+     * одним проходом по постингам; окно — сколько запрос ждёт, прежде чем посчитать очередь сам.
+     */
+    @Value("${search.batch.enabled:false}")
+    private boolean batchEnabled = false;
+
+    @Value("${search.batch.window:500us}")
+    private Duration batchWindow = Duration.ofNanos(500_000);
+
+    @Value("${search.batch.max-size:32}")
+    private int batchMaxSize = 32;
+
+    /**
+     * Сколько запросов /api/search обслуживается одновременно; остальные ждут место
+     * не дольше admission-timeout и получают 503.
+     */
+    @Value("${search.serve.max-in-flight:256}")
+    private int maxInFlight = 256;
+
+    @Value("${search.serve.admission-timeout:100ms}")
+    private Duration admissionTimeout = Duration.ofMillis(100);
+
+    /**
+     * Наибольший topK в /api/search: под него выделяется куча отбора, поэтому больше — 400.
+     */
+    @Value("${search.serve.max-top-k:1000}")
+    private int maxTopK = 1000;
+
+    /**
+     * Кеши и первое поколение создаются после подстановки настроек. BM25 читает частоты
+     * и длины документов из позиционного индекса; без него доступен только косинус.
+     * Если не загрузился индекс токенов, приложение не стартует.
+     */
+    @PostConstruct
+    public void init() {
+        resultCache = new QueryCache<>(cacheSize, cacheTtl);
+        vectorCache = new QueryCache<>(cacheSize, cacheTtl);
+        fusion = new ScoreFusion(ScoreFusion.Method.parse(fusionMethod), fusionTokenWeight, rrfK);
+        Scoring.parse(defaultScoring);
+        inFlight = new Semaphore(maxInFlight);
+        if (batchEnabled) batcher = new SearchBatcher(batchWindow, batchMaxSize, Runtime.getRuntime().availableProcessors(), strategy);
+        registerMetrics();
+
+        CompletableFuture<SearchSnapshot> tokensReady = new CompletableFuture<>();
+        CompletableFuture<SearchSnapshot> full = SearchSnapshot.loadAsync(1, bm25Parameters(), postingsCacheSize,
+                loadPool, startup, lazyStartup ? tokensReady::complete : null);
+        if (lazyStartup) tokensReady.thenAccept(this::publish);
+        full.whenComplete((loaded, error) -> {
+            if (error != null) {
+                tokensReady.completeExceptionally(error);
+                log.error("Search generation 1 did not load completely", error);
+                return;
+            }
+            publish(loaded);
+            log.info("Search generation 1: {} docs, ~{} MB on heap, loaded in {} ms", loaded.docCount(),
+                    loaded.estimatedBytes() >> 20, loaded.loadMillis());
+        });
+        (lazyStartup ? tokensReady : full).join();
+    }
+
+    /**
+     * Датчики читают текущий снимок и счётчики при каждой выдаче /metrics; до публикации
+     * первого снимка и для ещё не загруженных лемм они равны NaN.
+     */
+    private void registerMetrics() {
+        metrics.gauge("index_generation", "Search index generation being served", () -> fromSnapshot(SearchSnapshot::generation));
+        metrics.gauge("index_documents", "Documents in the served generation", () -> fromSnapshot(SearchSnapshot::docCount));
+        metrics.gauge("index_heap_bytes", "Estimated heap size of the served generation",
+                () -> fromSnapshot(SearchSnapshot::estimatedBytes));
+        metrics.gauge("index_mapped_bytes", "Memory-mapped positional index size", () -> fromSnapshot(SearchSnapshot::mappedBytes));
+        for (boolean lemmas : new boolean[]{false, true}) {
+            String name = lemmas ? "lemmas" : "tokens";
+            Function<SearchSnapshot, PostingsIndex> index = lemmas ? SearchSnapshot::lemmaIndex : SearchSnapshot::tokenIndex;
+            metrics.gauge("index_terms", "Distinct terms in the served generation",
+                    () -> fromIndex(index, PostingsIndex::termCount), "index", name);
+            metrics.gauge("index_postings", "Postings in the served generation",
+                    () -> fromIndex(index, PostingsIndex::postingCount), "index", name);
+        }
+        metrics.counter("index_reloads_total", "Search index generations built by reload", reloads::get);
+
+        Map<String, Supplier<QueryCache.Stats>> caches = Map.of("results", () -> resultCache.stats(),
+                "queryVectors", () -> vectorCache.stats());
+        caches.forEach((cache, stats) -> {
+            metrics.counter("search_cache_hits_total", "Search cache hits", () -> stats.get().hits(), "cache", cache);
+            metrics.counter("search_cache_misses_total", "Search cache misses", () -> stats.get().misses(), "cache", cache);
+            metrics.counter("search_cache_evictions_total", "Search cache evictions", () -> stats.get().evictions(),
+                    "cache", cache);
+        });
+        metrics.gauge("search_in_flight", "Searches being served by /api/search",
+                () -> maxInFlight - inFlight.availablePermits());
+        metrics.counter("search_rejected_total", "Searches rejected by admission control", rejected::sum);
+        if (batcher != null) {
+            metrics.counter("search_batches_total", "Batches scored by SearchBatcher", () -> batcher.stats().batches());
+            metrics.counter("search_batched_queries_total", "Queries scored in batches", () -> batcher.stats().queries());
+        }
+    }
+
+    private double fromSnapshot(ToDoubleFunction<SearchSnapshot> value) {
+        SearchSnapshot s = snapshot;
+        return s == null ? Double.NaN : value.applyAsDouble(s);
+    }
+
+    private double fromIndex(Function<SearchSnapshot, PostingsIndex> index, ToDoubleFunction<PostingsIndex> value) {
+        SearchSnapshot s = snapshot;
+        PostingsIndex i = s == null ? null : index.apply(s);
+        return i == null ? Double.NaN : value.applyAsDouble(i);
+    }
+
+    private Bm25Scorer.Parameters bm25Parameters() {
+        return new Bm25Scorer.Parameters(k1, b, titleWeight, titleB);
+    }
+
+    /**
+     * Новый снимок заменяет текущий, только если он новее: полный снимок первого поколения,
+     * догрузившийся после перезагрузки, не откатит её.
+     */
+    private synchronized boolean publish(SearchSnapshot next) {
+        SearchSnapshot current = snapshot;
+        if (current != null && (current.generation() > next.generation()
+                || current.generation() == next.generation() && current.complete())) {
+            return false;
+        }
+        snapshot = next;
+        return true;
+    }
+
+    /**
+     * Неполный снимок ленивого старта обслуживает только запросы по токенам.
+     */
+    private static void requireComplete(SearchSnapshot s, String what) {
+        if (!s.complete()) throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, what + " is still loading");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        fusionPool.shutdownNow();
+        loadPool.shutdownNow();
+        reloadPool.shutdownNow();
+    }
+
+    public long generation() {
+        return snapshot.generation();
+    }
+
+    /**
+     * Собирает новое поколение из текущих файлов индекса в фоне и атомарно публикует его.
+     * Вызов во время сборки ставит после неё ещё одну: она перечитает файлы, которые могли
+     * смениться после начала текущей, и страницы всех вызовов, пришедших за это время.
+     * Такие вызовы получают одну общую повторную сборку.
+     *
+     * @param changedDocs перекачанные страницы, ссылки которых нужно перечитать для PageRank;
+     *                    новые документы из index.txt подхватываются и без этого
+     */
+    public synchronized CompletableFuture<ReloadStats> reload(Collection<Integer> changedDocs) {
+        if (followUpReload == null && (pendingReload == null || pendingReload.isDone())) {
+            List<Integer> docs = List.copyOf(changedDocs);
+            pendingReload = CompletableFuture.supplyAsync(() -> rebuild(docs), reloadPool);
+            return pendingReload;
+        }
+        followUpDocs.addAll(changedDocs);
+        // reloadPool однопоточный, так что повторная сборка начнётся после текущей
+        if (followUpReload == null) followUpReload = CompletableFuture.supplyAsync(this::rebuildFollowUp, reloadPool);
+        return followUpReload;
+    }
+
+    private ReloadStats rebuildFollowUp() {
+        List<Integer> docs;
+        synchronized (this) {
+            docs = List.copyOf(followUpDocs);
+            followUpDocs.clear();
+            pendingReload = followUpReload;
+            followUpReload = null;
+        }
+        return rebuild(docs);
+    }
+
+    private ReloadStats rebuild(List<Integer> changedDocs) {
+        long start = System.nanoTime();
+        long next = snapshot.generation() + 1;
+        try {
+            SearchSnapshot fresh = SearchSnapshot.loadAsync(next, bm25Parameters(), postingsCacheSize, loadPool, null, null).join();
+            long pageRankStart = System.nanoTime();
+            // Ранги пересчитываются до публикации, чтобы новые документы сразу получили адрес и ранг
+            pageRankProcessor.refreshPages(changedDocs);
+            long pageRankMillis = (System.nanoTime() - pageRankStart) / 1_000_000;
+
+            publish(fresh);
+            resultCache.invalidateAll();
+            vectorCache.invalidateAll();
+            reloads.incrementAndGet();
+
+            ReloadStats stats = new ReloadStats(next, fresh.loadMillis(), pageRankMillis,
+                    (System.nanoTime() - start) / 1_000_000, fresh.docCount(), fresh.estimatedBytes(), fresh.mappedBytes());
+            lastReload = stats;
+            log.info("Published search generation {}", stats);
+            return stats;
+        } catch (IOException | CompletionException e) {
+            log.warn("Reload of generation {} failed, keeping generation {}: {}", next, snapshot.generation(), e.getMessage());
+            throw e instanceof CompletionException c ? c : new CompletionException(e);
+        }
+    }
+
+    /**
+     * Перечитать индекс после нового обхода без перезапуска приложения.
+     */
+    @PostMapping("/api/index/reload")
+    @ResponseBody
+    public CompletableFuture<ReloadStats> reloadIndex(@RequestParam(value = "docs", required = false) List<Integer> docs) {
+        return reload(docs == null ? List.of() : docs);
+    }
+
+    @GetMapping("/api/index/generation")
+    @ResponseBody
+    public GenerationStats generationStats() {
+        SearchSnapshot s = snapshot;
+        Map<Long, Long> served = new TreeMap<>();
+        queriesByGeneration.forEach((generation, count) -> served.put(generation, count.sum()));
+        return new GenerationStats(s.generation(), s.loadedAt(), s.docCount(), s.estimatedBytes(), s.mappedBytes(),
+                reloads.get(), lastReload, served);
+    }
+
+    /**
+     * Попадания, промахи и вытеснения кешей результатов, векторов запросов и постингов BM25.
+     */
+    @GetMapping("/api/search/cache")
+    @ResponseBody
+    public Map<String, QueryCache.Stats> cacheStats() {
+        Map<String, QueryCache.Stats> stats = new LinkedHashMap<>();
+        if (resultCache != null) stats.put("results", resultCache.stats());
+        if (vectorCache != null) stats.put("queryVectors", vectorCache.stats());
+        Bm25Scorer bm25 = snapshot.bm25();
+        if (bm25 != null && bm25.postingsCacheStats() != null) stats.put("bm25Postings", bm25.postingsCacheStats());
+        return stats;
+    }
+
+    /**
+     * Время поиска по режимам, включая попадания в кеш. Для both отдельно видно
+     * время полных списков по токенам и леммам и их слияния (both.tokens, both.lemmas, both.merge).
+     */
+    @GetMapping("/api/search/latency")
+    @ResponseBody
+    public Map<String, SearchLatency.Summary> latencyStats() {
+        return latency.snapshot();
     }
 
     @GetMapping
@@ -45,157 +495,308 @@ public class VectorSearchEngine {
     }
 
     @GetMapping("/search")
-    public String getPages(@RequestParam("query") String query, Model model) {
-        List<String> pages = searchByTokens(query, 10).stream()
-                .sorted(Comparator
-                        .comparing(Result::score, Comparator.reverseOrder())
-                        .thenComparing(r -> pageRankProcessor.pageRanks.get(Integer.parseInt(r.docId())), Comparator.reverseOrder()))
-                .map(r -> pageRankProcessor.indexMap.get(Integer.parseInt(r.docId())).pageUrl())
-                .toList();
+    public String getPages(@RequestParam("query") String query,
+                           @RequestParam(value = "scoring", required = false) String scoring,
+                           Model model, HttpServletResponse response) {
+        Scoring selected = parseScoring(scoring);
+        SearchSnapshot s = snapshot;
+        List<String> pages = toHits(search(s, query, 10, selected)).stream().map(Hit::url).toList();
         model.addAttribute("pages", pages);
+        model.addAttribute("scoring", selected.name().toLowerCase(Locale.ROOT));
+        response.setHeader("X-Index-Generation", Long.toString(s.generation()));
 
         return "index";
     }
 
 
-    private void loadLemmaMapping() throws IOException {
-        Path dir = Paths.get(INPUT_DIR);
-        try (var files = Files.list(dir)) {
-            files.filter(p -> p.getFileName().toString().startsWith(LEMMAS_MAP_PREFIX)
-                            && p.toString().endsWith(".txt"))
-                    .forEach(path -> {
-                        try (BufferedReader reader = Files.newBufferedReader(path)) {
-                            String line;
-                            while ((line = reader.readLine()) != null) {
-                                String[] parts = line.strip().split("\\s+");
-                                if (parts.length >= 2) {
-                                    String token = parts[0].toLowerCase();
-                                    List<String> lemmas = new ArrayList<>();
-                                    for (int i = 1; i < parts.length; i++) {
-                                        lemmas.add(parts[i].toLowerCase());
-                                    }
-                                    lemmaMap.put(token, lemmas);
-                                }
-                            }
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    });
-        }
-    }
-
-    private int loadTfIdfVectors(String prefix,
-                                 Map<String, Map<String, Double>> docVectors,
-                                 Map<String, Double> globalIdf) throws IOException {
-        Path dir = Paths.get(INPUT_DIR);
-        int docs = 0;
-        try (var files = Files.list(dir)) {
-            for (Path path : (Iterable<Path>) files::iterator) {
-                String fileName = path.getFileName().toString();
-                if (!fileName.startsWith(prefix) || !fileName.endsWith(".txt")) continue;
-                String docId = fileName.substring(prefix.length(), fileName.length() - 4);
-                Map<String, Double> vec = new HashMap<>();
-                try (BufferedReader reader = Files.newBufferedReader(path)) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        String[] parts = line.strip().split("\\s+");
-                        if (parts.length >= 3) {
-                            String term = parts[0].toLowerCase();
-                            double idf = Double.parseDouble(parts[1]);
-                            double tfidf = Double.parseDouble(parts[2]);
-                            vec.put(term, tfidf);
-                            globalIdf.putIfAbsent(term, idf);
-                        }
-                    }
-                }
-                docVectors.put(docId, vec);
-                docs++;
-            }
+    /**
+     * JSON-выдача с оценками. Рассчитана на много одновременных запросов: обработчики идут
+     * на виртуальных потоках (spring.threads.virtual.enabled), косинусные запросы собираются
+     * в пакеты {@link SearchBatcher}, а число одновременно обслуживаемых ограничено.
+     * topK вне [1, search.serve.max-top-k] — 400, больше числа документов — урезается до него.
+     */
+    @GetMapping("/api/search")
+    @ResponseBody
+    public SearchResponse searchApi(@RequestParam("query") String query,
+                                    @RequestParam(value = "scoring", required = false) String scoring,
+                                    @RequestParam(value = "topK", defaultValue = "10") int topK,
+                                    HttpServletResponse response) throws InterruptedException {
+        if (topK < 1 || topK > maxTopK)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "topK must be between 1 and " + maxTopK);
+        long start = System.nanoTime();
+        if (!inFlight.tryAcquire(admissionTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+            rejected.increment();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many searches in flight");
+        }
+        try {
+            Scoring selected = parseScoring(scoring);
+            SearchSnapshot s = snapshot;
+            int k = Math.max(1, Math.min(topK, s.docCount()));
+            List<Result> results = selected == Scoring.COSINE && batcher != null && !compareExhaustive
+                    ? cached(s, "tokens", query, k,
+                            q -> batcher.search(s.tokenIndex(), vectorizeQuery(s, q, false), k))
+                    : search(s, query, k, selected);
+            response.setHeader("X-Index-Generation", Long.toString(s.generation()));
+            return new SearchResponse(query, selected.name().toLowerCase(Locale.ROOT), s.generation(), toHits(results));
+        } finally {
+            inFlight.release();
+            latency.record("api", System.nanoTime() - start);
         }
-        return docs;
     }
 
+    /**
+     * Занятость /api/search, отказы и размеры пакетов. Задержки (p50/p99) — в {@code /api/search/latency} под ключом api.
+     */
+    @GetMapping("/api/search/serving")
+    @ResponseBody
+    public ServingStats servingStats() {
+        return new ServingStats(maxInFlight - inFlight.availablePermits(), maxInFlight, rejected.sum(),
+                batcher == null ? null : batcher.stats());
+    }
 
-    private Map<String, Double> vectorizeQuery(String query, boolean useLemmas) {
-        List<String> tokens = tokenize(query);
+    /**
+     * Неизвестное ранжирование в запросе — 400; значение по умолчанию проверяется при запуске.
+     */
+    Scoring parseScoring(String scoring) {
+        if (scoring == null || scoring.isBlank()) return Scoring.parse(defaultScoring);
+        try {
+            return Scoring.parse(scoring);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown scoring '" + scoring + "', expected one of "
+                    + Arrays.stream(Scoring.values()).map(v -> v.name().toLowerCase(Locale.ROOT)).toList());
+        }
+    }
+
+    /**
+     * Адреса и PageRank результатов, по убыванию оценки, а при равной — ранга. Ранг достаётся
+     * один раз на документ, а не в каждом сравнении. Документ, которого уже нет в index.txt
+     * после нового обхода, пропускается.
+     */
+    private List<Hit> toHits(List<Result> results) {
+        PageRankProcessor.Ranks ranks = pageRankProcessor.ranks();
+        List<Hit> hits = new ArrayList<>(results.size());
+        for (Result r : results) {
+            PageRankProcessor.PageRank page = ranks.pages().get(r.docId());
+            if (page == null) continue;
+            hits.add(new Hit(r.docId(), page.pageUrl(), r.score(), ranks.scores().getOrDefault(r.docId(), 0.0)));
+        }
+        hits.sort(Comparator.comparingDouble(Hit::score).thenComparingDouble(Hit::pageRank).reversed());
+        return hits;
+    }
+
+    /**
+     * Термины запроса (токены или леммы) и сколько раз каждый встретился.
+     */
+    private static Map<String, Integer> queryTerms(SearchSnapshot s, String query, boolean useLemmas) {
         Map<String, Integer> counts = new HashMap<>();
-        for (String token : tokens) {
+        for (String token : tokenize(query)) {
             String t = token.toLowerCase();
-            if (useLemmas) {
-                List<String> lemmas = lemmaMap.getOrDefault(t, List.of(t));
-                for (String lemma : lemmas) counts.merge(lemma, 1, Integer::sum);
-            } else {
-                counts.merge(t, 1, Integer::sum);
-            }
+            counts.merge(useLemmas ? s.lemmaMap().getOrDefault(t, t) : t, 1, Integer::sum);
         }
+        return counts;
+    }
+
+    /**
+     * Вектор запроса общий для режимов tokens и both (и lemmas и both), поэтому кешируется отдельно от результатов.
+     */
+    private Map<String, Double> vectorizeQuery(SearchSnapshot s, String query, boolean useLemmas) {
+        if (!cacheEnabled || vectorCache == null) return timedQueryVector(s, query, useLemmas);
+        return vectorCache.get(new VectorKey(normalize(query), useLemmas, s.generation()),
+                key -> Map.copyOf(timedQueryVector(s, query, useLemmas)));
+    }
+
+    private Map<String, Double> timedQueryVector(SearchSnapshot s, String query, boolean useLemmas) {
+        long start = System.nanoTime();
+        Map<String, Double> qVec = computeQueryVector(s, query, useLemmas);
+        vectorizeTimers[useLemmas ? 1 : 0].recordNanos(System.nanoTime() - start);
+        return qVec;
+    }
+
+    private static Map<String, Double> computeQueryVector(SearchSnapshot s, String query, boolean useLemmas) {
+        Map<String, Integer> counts = queryTerms(s, query, useLemmas);
         Map<String, Double> qVec = new HashMap<>();
-        Map<String, Double> idfMap = useLemmas ? lemmaIdf : tokenIdf;
+        DocumentVectors vectors = useLemmas ? s.lemmaVectors() : s.tokenVectors();
         for (var entry : counts.entrySet()) {
             String term = entry.getKey();
             double tf = 1 + Math.log(entry.getValue());
-            double idf = idfMap.getOrDefault(term, Math.log((double) (totalDocs + 1)) + 1);
+            double idf = vectors.idf(term);
+            if (Double.isNaN(idf)) idf = Math.log((double) (s.docCount() + 1)) + 1;
             qVec.put(term, tf * idf);
         }
         return qVec;
     }
 
 
-    private double cosineSimilarity(Map<String, Double> v1, Map<String, Double> v2) {
-        double dot = 0, norm1 = 0, norm2 = 0;
-        Set<String> terms = new HashSet<>(v1.keySet());
-        terms.addAll(v2.keySet());
-        for (String t : terms) {
-            double a = v1.getOrDefault(t, 0.0);
-            double b = v2.getOrDefault(t, 0.0);
-            dot += a * b;
-            norm1 += a * a;
-            norm2 += b * b;
-        }
-        return dot / (Math.sqrt(norm1) * Math.sqrt(norm2) + 1e-10);
-    }
-
-    private List<String> tokenize(String text) {
+    private static List<String> tokenize(String text) {
         return Arrays.stream(text.split("\\W+"))
                 .filter(s -> !s.isBlank())
                 .toList();
     }
 
-    private List<Result> searchInternal(String query, boolean useLemmas, int topK) {
-        Map<String, Double> qVec = vectorizeQuery(query, useLemmas);
-        Map<String, Map<String, Double>> docs = useLemmas ? lemmaVectors : tokenVectors;
-        PriorityQueue<Result> pq = new PriorityQueue<>(Comparator.comparingDouble(r -> -r.score));
-        for (var e : docs.entrySet()) {
-            double score = cosineSimilarity(e.getValue(), qVec);
-            pq.add(new Result(e.getKey(), score));
+    /**
+     * Ключ кеша. Все режимы считают запрос мешком слов, поэтому регистр, порядок слов
+     * и разделители на результат не влияют, а повторы влияют (tf запроса в косинусе и BM25)
+     * и сохраняются: слова сортируются, но не схлопываются.
+     */
+    static String normalize(String query) {
+        return Arrays.stream(query.toLowerCase().split("\\W+"))
+                .filter(s -> !s.isBlank())
+                .sorted()
+                .collect(Collectors.joining(" "));
+    }
+
+    /**
+     * Результат из кеша по нормализованному запросу либо поиск по исходному. Режим сверки
+     * с полным подсчётом кеш обходит, иначе сверка шла бы только на первом запросе.
+     */
+    private List<Result> cached(SearchSnapshot s, String mode, String query, int topK,
+                                Function<String, List<Result>> search) {
+        long start = System.nanoTime();
+        queriesByGeneration.computeIfAbsent(s.generation(), g -> new LongAdder()).increment();
+        try {
+            List<Result> results = !cacheEnabled || compareExhaustive || resultCache == null
+                    ? search.apply(query)
+                    : resultCache.get(new QueryKey(normalize(query), mode, topK, s.generation()),
+                            key -> List.copyOf(search.apply(query)));
+            startup.queryServed();
+            return results;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            latency.record(mode, nanos);
+            requestTimers.computeIfAbsent(mode, m -> metrics.timer("search_request_seconds",
+                    "Search time by mode, including cache hits", "mode", m)).recordNanos(nanos);
+        }
+    }
+
+    private List<Result> searchInternal(SearchSnapshot s, String query, boolean useLemmas, int topK) {
+        Map<String, Double> qVec = vectorizeQuery(s, query, useLemmas);
+        PostingsIndex index = useLemmas ? s.lemmaIndex() : s.tokenIndex();
+        Phases phases = useLemmas ? lemmaPhases : tokenPhases;
+        if (!compareExhaustive) return phases.record(index.search(qVec, topK, strategy)).results();
+
+        long start = System.nanoTime();
+        PostingsIndex.Hits pruned = index.search(qVec, topK, PostingsIndex.Strategy.MAXSCORE);
+        long prunedNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        PostingsIndex.Hits exhaustive = index.search(qVec, topK, PostingsIndex.Strategy.EXHAUSTIVE);
+        long exhaustiveNanos = System.nanoTime() - start;
+
+        boolean same = sameRanking(pruned.results(), exhaustive.results());
+        log.info("query='{}' lemmas={} maxscore={}us ({} of {} postings) exhaustive={}us same={}",
+                query, useLemmas, prunedNanos / 1000, pruned.postingsScored(), pruned.postingsTotal(),
+                exhaustiveNanos / 1000, same);
+        if (!same) log.warn("MaxScore mismatch: maxscore={} exhaustive={}", pruned.results(), exhaustive.results());
+        return exhaustive.results();
+    }
+
+    /**
+     * Оценки должны совпасть позиционно, а документы — с точностью до перестановки
+     * внутри групп равных (с учётом округления) оценок.
+     */
+    private static boolean sameRanking(List<Result> a, List<Result> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (Math.abs(a.get(i).score() - b.get(i).score()) > 1e-9) return false;
         }
-        List<Result> out = new ArrayList<>();
-        for (int i = 0; i < topK && !pq.isEmpty(); i++) out.add(pq.poll());
-        return out;
+        if (a.isEmpty()) return true;
+        double last = a.get(a.size() - 1).score();
+        Set<Integer> docsA = new HashSet<>();
+        Set<Integer> docsB = new HashSet<>();
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i).score() > last + 1e-9) docsA.add(a.get(i).docId());
+            if (b.get(i).score() > last + 1e-9) docsB.add(b.get(i).docId());
+        }
+        return docsA.equals(docsB);
     }
 
 
+    /**
+     * Поиск с выбранным ранжированием: косинус по токенам, слияние токенов и лемм либо BM25/BM25F по леммам.
+     */
+    public List<Result> search(String query, int topK, Scoring scoring) {
+        return search(snapshot, query, topK, scoring);
+    }
+
+    /**
+     * BM25 без позиционного индекса — 503: ранжирование известное, но в этой сборке данных его нет.
+     */
+    List<Result> search(SearchSnapshot s, String query, int topK, Scoring scoring) {
+        return switch (scoring) {
+            case COSINE -> searchByTokens(s, query, topK);
+            case FUSED -> searchByBoth(s, query, topK);
+            case BM25, BM25F -> {
+                requireComplete(s, "BM25 index");
+                Bm25Scorer bm25 = s.bm25();
+                if (bm25 == null) throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                        scoring.name().toLowerCase(Locale.ROOT) + " needs " + IndexBuilder.POSITIONAL_INDEX_FILE);
+                boolean fields = scoring == Scoring.BM25F;
+                yield cached(s, fields ? "bm25f" : "bm25", query, topK,
+                        q -> bm25.search(queryTerms(s, q, true), topK, fields));
+            }
+        };
+    }
+
     public List<Result> searchByTokens(String query, int topK) {
-        return searchInternal(query, false, topK);
+        return searchByTokens(snapshot, query, topK);
     }
 
     public List<Result> searchByLemmas(String query, int topK) {
-        return searchInternal(query, true, topK);
+        SearchSnapshot s = snapshot;
+        requireComplete(s, "Lemma index");
+        return cached(s, "lemmas", query, topK, q -> searchInternal(s, q, true, topK));
     }
 
     public List<Result> searchByBoth(String query, int topK) {
-        var t = searchByTokens(query, topK);
-        var l = searchByLemmas(query, topK);
-        Map<String, Double> merged = new HashMap<>();
-        t.forEach(r -> merged.put(r.docId, r.score / 2));
-        l.forEach(r -> merged.merge(r.docId, r.score / 2, Double::sum));
-        PriorityQueue<Result> pq = new PriorityQueue<>(Comparator.comparingDouble(r -> -r.score));
-        merged.forEach((d, s) -> pq.add(new Result(d, s)));
-        List<Result> res = new ArrayList<>();
-        for (int i = 0; i < topK && !pq.isEmpty(); i++) res.add(pq.poll());
-        return res;
-    }
-
-    public record Result(String docId, double score) {
+        return searchByBoth(snapshot, query, topK);
+    }
+
+    private List<Result> searchByTokens(SearchSnapshot s, String query, int topK) {
+        return cached(s, "tokens", query, topK, q -> searchInternal(s, q, false, topK));
+    }
+
+    private List<Result> searchByBoth(SearchSnapshot s, String query, int topK) {
+        requireComplete(s, "Lemma index");
+        return cached(s, "both", query, topK, q -> fuseBoth(s, q, topK));
+    }
+
+    /**
+     * Полные списки кандидатов по токенам и по леммам считаются параллельно
+     * и сливаются до обрезки до top-K.
+     */
+    private List<Result> fuseBoth(SearchSnapshot s, String query, int topK) {
+        long start = System.nanoTime();
+        CompletableFuture<List<Result>> tokens = CompletableFuture.supplyAsync(() -> {
+            long t = System.nanoTime();
+            List<Result> ranked = rankAll(s.tokenIndex(), vectorizeQuery(s, query, false), bothTokenPhases);
+            latency.record("both.tokens", System.nanoTime() - t);
+            return ranked;
+        }, fusionPool);
+        long lemmaStart = System.nanoTime();
+        List<Result> lemmas = rankAll(s.lemmaIndex(), vectorizeQuery(s, query, true), bothLemmaPhases);
+        latency.record("both.lemmas", System.nanoTime() - lemmaStart);
+
+        List<Result> tokenResults = tokens.join();
+        long mergeStart = System.nanoTime();
+        List<Result> fused = fusion.fuse(tokenResults, lemmas, topK);
+        long end = System.nanoTime();
+        latency.record("both.merge", end - mergeStart);
+        mergeTimer.recordNanos(end - mergeStart);
+        log.debug("query='{}' both/{}: {} token and {} lemma candidates, {}us",
+                query, fusion.method(), tokenResults.size(), lemmas.size(), (end - start) / 1000);
+        return fused;
+    }
+
+    /**
+     * То же, что {@link PostingsIndex#rankAll}, но с записью этапов.
+     */
+    private static List<Result> rankAll(PostingsIndex index, Map<String, Double> qVec, Phases phases) {
+        return phases.record(index.search(qVec, index.docCount(), PostingsIndex.Strategy.EXHAUSTIVE)).results();
+    }
+
+    /**
+     * @param docId номер страницы, как в index.txt
+     */
+    public record Result(int docId, double score) {
     }
 
 }
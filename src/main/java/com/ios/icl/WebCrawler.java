@@ -1,16 +1,19 @@
 package com.ios.icl;
 
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 public class WebCrawler {
 
-    public static void main(String[] args) {
+    /**
+     * Аргументы (необязательные): число страниц, глубина перехода по ссылкам.
+     */
+    public static void main(String[] args) throws InterruptedException {
         List<String> urls = readUrlsFromFile("urls.txt");
         if (urls == null) {
             System.err.println("Не удалось прочитать URL из файла.");
@@ -20,47 +23,32 @@ public class WebCrawler {
         String outputDir = "выкачка";
         createDirectory(outputDir);
 
-        String indexFile = "index.txt";
-        int count = 0;
-
-        try (BufferedWriter indexWriter = new BufferedWriter(new FileWriter(indexFile))) {
-            for (String urlStr : urls) {
-                if (count >= 100) break;
+        CrawlEngine.Config config = CrawlEngine.Config.defaults()
+                .withMaxPages(args.length > 0 ? Integer.parseInt(args[0]) : 100)
+                .withMaxDepth(args.length > 1 ? Integer.parseInt(args[1]) : 0);
+        Map<Integer, String> index = new ConcurrentSkipListMap<>();
 
-                try {
-                    URL url = new URL(urlStr);
-                    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                    conn.setRequestMethod("GET");
-                    conn.setConnectTimeout(5000);
-                    conn.setReadTimeout(5000);
-                    conn.setRequestProperty("User-Agent", "Mozilla/5.0");
-
-                    String contentType = conn.getContentType();
-                    if (contentType == null || !contentType.startsWith("text/html")) {
-                        System.out.println("Пропускаем URL: " + urlStr);
-                        conn.disconnect();
-                        continue;
-                    }
-
-                    try (InputStream inputStream = conn.getInputStream()) {
-                        byte[] contentBytes = readAllBytes(inputStream);
-                        String fileName = (count + 1) + ".txt";
-                        Files.write(Paths.get(outputDir, fileName), contentBytes);
+        CrawlEngine.Stats stats;
+        try (CrawlEngine engine = new CrawlEngine(config)) {
+            stats = engine.crawl(urls, (docId, url, body) -> {
+                String fileName = docId + ".txt";
+                Files.write(Paths.get(outputDir, fileName), body);
+                index.put(docId, url);
+                System.out.println("Скачано: " + fileName);
+            });
+        }
 
-                        indexWriter.write((count + 1) + " " + urlStr + "\n");
-                        count++;
-                        System.out.println("Скачано: " + fileName);
-                    }
-                    conn.disconnect();
-                } catch (Exception e) {
-                    System.err.println("Ошибка при обработке " + urlStr + ": " + e.getMessage());
-                }
+        String indexFile = "index.txt";
+        try (BufferedWriter indexWriter = new BufferedWriter(new FileWriter(indexFile))) {
+            for (Map.Entry<Integer, String> entry : index.entrySet()) {
+                indexWriter.write(entry.getKey() + " " + entry.getValue() + "\n");
             }
         } catch (IOException e) {
             System.err.println("Ошибка записи в index.txt: " + e.getMessage());
         }
 
-        System.out.println("Готово. Скачано страниц: " + count);
+        System.out.printf("Готово. Скачано страниц: %d, ошибок: %d, пропущено: %d, %.1f стр/с%n",
+                stats.pages(), stats.errors(), stats.skipped(), stats.pagesPerSecond());
     }
 
     private static List<String> readUrlsFromFile(String filename) {
@@ -84,14 +72,4 @@ public class WebCrawler {
             System.err.println("Не удалось создать директорию: " + dirName);
         }
     }
-
-    private static byte[] readAllBytes(InputStream inputStream) throws IOException {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        byte[] data = new byte[4096];
-        int bytesRead;
-        while ((bytesRead = inputStream.read(data)) != -1) {
-            buffer.write(data, 0, bytesRead);
-        }
-        return buffer.toByteArray();
-    }
-}
\ No newline at end of file
+}
@@ -15,6 +15,12 @@
             Найдется все!
             <input type="text" name="query">
         </label>
+        <select name="scoring">
+            <option value="cosine" <#if scoring?? && scoring == "cosine">selected</#if>>TF-IDF</option>
+            <option value="fused" <#if scoring?? && scoring == "fused">selected</#if>>TF-IDF токены + леммы</option>
+            <option value="bm25" <#if scoring?? && scoring == "bm25">selected</#if>>BM25</option>
+            <option value="bm25f" <#if scoring?? && scoring == "bm25f">selected</#if>>BM25F</option>
+        </select>
         <br><br>
         <button type="submit">Поиск</button>
         <br><br>
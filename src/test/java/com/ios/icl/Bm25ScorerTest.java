@@ -0,0 +1,138 @@
+package com.ios.icl;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * BM25 и BM25F по постингам сверяются с подсчётом по формулам прямо по словам документов.
+ */
+class Bm25ScorerTest {
+    private static final Bm25Scorer.Parameters PARAMS = Bm25Scorer.Parameters.DEFAULT;
+
+    @TempDir
+    static Path dir;
+    private static final SortedMap<Integer, String[]> documents = new TreeMap<>();
+    private static final Map<Integer, Integer> titles = new HashMap<>();
+    private static final Map<String, Integer> docFrequencies = new HashMap<>();
+    private static Bm25Scorer scorer;
+
+    @BeforeAll
+    static void buildIndex() throws IOException {
+        Random random = new Random(11);
+        for (int doc = 1; doc <= 500; doc++) {
+            if (doc % 7 == 0) continue;
+            String[] words = new String[5 + random.nextInt(80)];
+            for (int i = 0; i < words.length; i++) words[i] = "term" + (int) Math.pow(200, random.nextDouble());
+            documents.put(doc, words);
+            titles.put(doc, Math.min(words.length, random.nextInt(6)));
+        }
+
+        SortedMap<String, SortedMap<Integer, List<Integer>>> positions = new TreeMap<>();
+        documents.forEach((doc, words) -> {
+            for (int i = 0; i < words.length; i++) {
+                positions.computeIfAbsent(words[i], w -> new TreeMap<>()).computeIfAbsent(doc, d -> new ArrayList<>()).add(i);
+            }
+        });
+        positions.forEach((term, docs) -> docFrequencies.put(term, docs.size()));
+        Path file = dir.resolve("positional_index.bin");
+        try (PositionalIndexWriter writer = new PositionalIndexWriter(file, StopWords.DEFAULT)) {
+            for (var entry : positions.entrySet()) {
+                int[] docs = entry.getValue().keySet().stream().mapToInt(Integer::intValue).toArray();
+                int[][] docPositions = entry.getValue().values().stream()
+                        .map(list -> list.stream().mapToInt(Integer::intValue).toArray())
+                        .toArray(int[][]::new);
+                writer.add(entry.getKey(), docs, docPositions);
+            }
+            for (var entry : documents.entrySet()) {
+                writer.document(entry.getKey(), entry.getValue().length, titles.get(entry.getKey()));
+            }
+        }
+        scorer = new Bm25Scorer(PositionalIndex.open(file), PARAMS);
+    }
+
+    /**
+     * Оценки всех документов по формулам из описания {@link Bm25Scorer}, нулевые не выдаются.
+     */
+    private static List<VectorSearchEngine.Result> direct(Map<String, Integer> query, int topK, boolean fields) {
+        int n = documents.size();
+        double avgLength = documents.values().stream().mapToInt(w -> w.length).average().orElseThrow();
+        double avgTitle = titles.values().stream().mapToInt(Integer::intValue).average().orElseThrow();
+        double avgBody = documents.entrySet().stream()
+                .mapToInt(e -> e.getValue().length - titles.get(e.getKey())).average().orElseThrow();
+        double k1 = PARAMS.k1();
+        double b = PARAMS.b();
+
+        List<VectorSearchEngine.Result> all = new ArrayList<>();
+        documents.forEach((doc, words) -> {
+            int title = titles.get(doc);
+            double score = 0;
+            for (var e : query.entrySet()) {
+                int df = docFrequencies.getOrDefault(e.getKey(), 0);
+                int tf = 0;
+                int inTitle = 0;
+                for (int i = 0; i < words.length; i++) {
+                    if (!words[i].equals(e.getKey())) continue;
+                    tf++;
+                    if (i < title) inTitle++;
+                }
+                if (tf == 0) continue;
+                double idf = Math.log(1 + (n - df + 0.5) / (df + 0.5));
+                double saturated;
+                if (fields) {
+                    double pseudo = PARAMS.titleWeight() * inTitle / (1 - PARAMS.titleB() + PARAMS.titleB() * title / avgTitle)
+                            + (tf - inTitle) / (1 - b + b * (words.length - title) / avgBody);
+                    saturated = pseudo * (k1 + 1) / (pseudo + k1);
+                } else {
+                    saturated = tf * (k1 + 1) / (tf + k1 * (1 - b + b * words.length / avgLength));
+                }
+                score += e.getValue() * idf * saturated;
+            }
+            if (score > 0) all.add(new VectorSearchEngine.Result(doc, score));
+        });
+        all.sort(Comparator.comparingDouble(VectorSearchEngine.Result::score).reversed());
+        return all.subList(0, Math.min(topK, all.size()));
+    }
+
+    @Test
+    void matchesDirectFormulas() {
+        Random random = new Random(4);
+        for (int q = 0; q < 200; q++) {
+            Map<String, Integer> query = new HashMap<>();
+            for (int i = random.nextInt(4); i >= 0; i--) query.merge("term" + (int) Math.pow(200, random.nextDouble()), 1, Integer::sum);
+            if (q % 10 == 0) query.put("unknown", 1);
+            for (boolean fields : new boolean[]{false, true}) {
+                PostingsIndexTest.assertSameRanking(direct(query, 10, fields), scorer.search(query, 10, fields));
+            }
+        }
+    }
+
+    @Test
+    void idfFollowsDocumentFrequency() {
+        int n = documents.size();
+        assertEquals(Math.log(1 + (n - 0.5) / 1.5), scorer.idf(1), 1e-12);
+        assertTrue(scorer.idf(1) > scorer.idf(n / 2));
+        assertTrue(scorer.idf(n) > 0);
+    }
+
+    @Test
+    void emptyQueries() {
+        assertTrue(scorer.search(Map.of(), 10, false).isEmpty());
+        assertTrue(scorer.search(Map.of("unknown", 1), 10, true).isEmpty());
+        assertTrue(scorer.search(Map.of("term1", 1), 0, false).isEmpty());
+    }
+}
@@ -0,0 +1,81 @@
+package com.ios.icl;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Обход локального сервера: номера документов идут по порядку обнаружения адресов,
+ * даже если первая страница отвечает последней.
+ */
+class CrawlEngineTest {
+    private static HttpServer server;
+    private static String base;
+
+    @BeforeAll
+    static void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        page("/a", "text/html", 300, "<a href=\"/c\">c</a> <a href=\"d#top\">d</a>");
+        page("/b", "text/html", 0, "<a href=\"/d\">d</a> <a href=\"/e\">e</a> <a href=\"mailto:x@y\">mail</a>");
+        page("/c", "text/plain", 0, "not html");
+        page("/d", "text/html", 100, "<a href=\"/f\">f</a>");
+        page("/e", "text/html", 0, "<a href=\"/f\">f</a>");
+        page("/f", "text/html", 0, "too deep");
+        server.start();
+        base = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    private static void page(String path, String contentType, long delayMillis, String body) {
+        server.createContext(path, exchange -> {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void docIdsFollowDiscoveryOrder() throws InterruptedException {
+        CrawlEngine.Config config = CrawlEngine.Config.defaults()
+                .withMaxDepth(1)
+                .withPerHost(8, Duration.ZERO);
+        for (int run = 0; run < 3; run++) {
+            Map<Integer, String> pages = new ConcurrentSkipListMap<>();
+            CrawlEngine.Stats stats;
+            try (CrawlEngine engine = new CrawlEngine(config)) {
+                stats = engine.crawl(List.of(base + "/a", base + "/b"), (docId, url, body) -> pages.put(docId, url));
+            }
+            // 3 — /c: не HTML, номер остаётся пропуском; /f глубже maxDepth
+            assertEquals(Map.of(1, base + "/a", 2, base + "/b", 4, base + "/d", 5, base + "/e"), pages);
+            assertEquals(4, stats.pages());
+            assertEquals(1, stats.skipped());
+        }
+    }
+}
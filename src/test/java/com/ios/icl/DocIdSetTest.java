@@ -0,0 +1,124 @@
+package com.ios.icl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Галопирующие пересечение и вычитание, а также отложенные дополнения сверяются
+ * с наивными операциями над множествами на списках сильно разной длины.
+ */
+class DocIdSetTest {
+    private static final int UNIVERSE = 5_000;
+    private static final int[] ALL = IntStream.range(0, UNIVERSE).toArray();
+
+    private final Random random = new Random(11);
+
+    private int[] randomDocs(int size) {
+        TreeSet<Integer> docs = new TreeSet<>();
+        while (docs.size() < size) docs.add(random.nextInt(UNIVERSE));
+        return docs.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static TreeSet<Integer> set(int[] docs) {
+        TreeSet<Integer> set = new TreeSet<>();
+        for (int doc : docs) set.add(doc);
+        return set;
+    }
+
+    private static int[] array(TreeSet<Integer> set) {
+        return set.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static final int[] SIZES = {0, 1, 2, 7, 50, 400, 3_000, UNIVERSE};
+
+    @Test
+    void gallopFindsFirstNotLess() {
+        for (int size : SIZES) {
+            int[] docs = randomDocs(size);
+            for (int from = 0; from <= docs.length; from += Math.max(1, docs.length / 7)) {
+                for (int target = -1; target <= UNIVERSE; target += 37) {
+                    int expected = from;
+                    while (expected < docs.length && docs[expected] < target) expected++;
+                    assertEquals(expected, DocIdSet.gallop(docs, from, target), "from=" + from + " target=" + target);
+                }
+            }
+        }
+    }
+
+    @Test
+    void setOperationsMatchNaive() {
+        for (int sizeA : SIZES) {
+            for (int sizeB : SIZES) {
+                int[] a = randomDocs(sizeA);
+                int[] b = randomDocs(sizeB);
+
+                TreeSet<Integer> and = set(a);
+                and.retainAll(set(b));
+                TreeSet<Integer> or = set(a);
+                or.addAll(set(b));
+                TreeSet<Integer> minus = set(a);
+                minus.removeAll(set(b));
+
+                assertArrayEquals(array(and), DocIdSet.intersect(a, b), sizeA + " AND " + sizeB);
+                assertArrayEquals(array(and), DocIdSet.intersect(b, a), sizeB + " AND " + sizeA);
+                assertArrayEquals(array(or), DocIdSet.union(a, b), sizeA + " OR " + sizeB);
+                assertArrayEquals(array(minus), DocIdSet.difference(a, b), sizeA + " MINUS " + sizeB);
+            }
+        }
+    }
+
+    @Test
+    void complementsMaterializeLikeNaive() {
+        for (int sizeA : SIZES) {
+            for (int sizeB : SIZES) {
+                int[] a = randomDocs(sizeA);
+                int[] b = randomDocs(sizeB);
+                TreeSet<Integer> notA = set(ALL);
+                notA.removeAll(set(a));
+                TreeSet<Integer> notB = set(ALL);
+                notB.removeAll(set(b));
+
+                DocIdSet setA = DocIdSet.of(a);
+                DocIdSet setB = DocIdSet.of(b);
+
+                TreeSet<Integer> expected = set(a);
+                expected.retainAll(notB);
+                assertArrayEquals(array(expected), setA.andNot(setB).materialize(ALL));
+
+                expected = new TreeSet<>(notA);
+                expected.retainAll(notB);
+                assertArrayEquals(array(expected), setA.not().and(setB.not()).materialize(ALL));
+
+                expected = new TreeSet<>(notA);
+                expected.addAll(set(b));
+                assertArrayEquals(array(expected), setA.not().or(setB).materialize(ALL));
+
+                expected = new TreeSet<>(notA);
+                expected.addAll(notB);
+                assertArrayEquals(array(expected), setA.not().or(setB.not()).materialize(ALL));
+            }
+        }
+    }
+
+    @Test
+    void intersectAllMatchesPairwise() {
+        for (int round = 0; round < 50; round++) {
+            int[] a = randomDocs(SIZES[random.nextInt(SIZES.length)]);
+            int[] b = randomDocs(SIZES[random.nextInt(SIZES.length)]);
+            int[] c = randomDocs(SIZES[random.nextInt(SIZES.length)]);
+            int[] d = randomDocs(SIZES[random.nextInt(SIZES.length)]);
+            List<DocIdSet> sets = List.of(DocIdSet.of(a), DocIdSet.of(b).not(), DocIdSet.of(c), DocIdSet.of(d).not());
+
+            DocIdSet pairwise = sets.get(0);
+            for (int i = 1; i < sets.size(); i++) pairwise = pairwise.and(sets.get(i));
+            assertArrayEquals(pairwise.materialize(ALL), DocIdSet.intersectAll(sets).materialize(ALL));
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.ios.icl;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HtmlTextExtractorTest {
+
+    @Test
+    void titleAndBlocksBecomeParagraphs() {
+        HtmlTextExtractor.Extracted page = HtmlTextExtractor.extract("""
+                <html><head><title> Python &amp; Java </title><style>p { color: red }</style></head>
+                <body><h1>Languages</h1><p>First   paragraph
+                spans lines.</p><ul><li>One</li><li>Two</li></ul>
+                <table><tr><td>Cell A</td><td>Cell B</td></tr></table>
+                <script>var x = "<p>not text</p>";</script></body></html>""");
+        assertEquals("Python & Java", page.title());
+        assertEquals("Python & Java\n\nLanguages\n\nFirst paragraph spans lines.\n\nOne\n\nTwo\n\nCell A\n\nCell B",
+                page.text());
+    }
+
+    @Test
+    void boilerplateIsSkipped() {
+        String text = HtmlTextExtractor.extract("""
+                <body><nav>Menu <div>nested</div></nav>
+                <div class="mw-body">Article <span class="mw-editsection">[edit]</span>text</div>
+                <div class="navbox noprint"><div>Related</div><div>links</div></div>
+                <footer>Footer</footer><p>End</p></body>""").text();
+        assertEquals("Article text\n\nEnd", text);
+    }
+
+    @Test
+    void hrefsAreCollectedInOrderAndDecoded() {
+        HtmlTextExtractor.Extracted page = HtmlTextExtractor.extract("""
+                <nav><a href="/wiki/Main_Page">Main</a></nav>
+                <p><a class='x' href='/w/index.php?a=1&amp;b=2'>query</a> <a name="anchor">no href</a>
+                <A HREF=/wiki/Upper>upper</A></p>""");
+        assertEquals(List.of("/wiki/Main_Page", "/w/index.php?a=1&b=2", "/wiki/Upper"), page.hrefs());
+        assertEquals("query no href upper", page.text());
+    }
+
+    @Test
+    void entitiesAndUtf8() {
+        String html = "<p>AT&T &#x41;&#66;&nbsp;c &unknown; 1 &lt; 2</p><p>Привет, мир</p>";
+        String text = HtmlTextExtractor.extract(html.getBytes(StandardCharsets.UTF_8)).text();
+        assertEquals("AT&T AB c &unknown; 1 < 2\n\nПривет, мир", text);
+    }
+
+    @Test
+    void commentsAndDoctypeAreDropped() {
+        String text = HtmlTextExtractor.extract("<!DOCTYPE html><!-- <p>hidden</p> --><p>shown</p>").text();
+        assertEquals("shown", text);
+    }
+}
@@ -0,0 +1,29 @@
+package com.ios.icl;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+import edu.stanford.nlp.util.CoreMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LemmatizerTest {
+
+    /**
+     * Блоки без точки в конце — заголовок и пункты списка — остаются отдельными предложениями.
+     */
+    @Test
+    void extractedBlocksAreSeparateSentences() {
+        String text = HtmlTextExtractor.extract("<h1>Python functions</h1><ul><li>Defining a function</li>"
+                + "<li>Calling it twice</li></ul>").text();
+        Annotation annotation = new Annotation(text);
+        new StanfordCoreNLP(Lemmatizer.pipelineProperties(Lemmatizer.Mode.FULL)).annotate(annotation);
+        List<String> sentences = annotation.get(CoreAnnotations.SentencesAnnotation.class).stream()
+                .map(CoreMap::toString)
+                .toList();
+        assertEquals(List.of("Python functions", "Defining a function", "Calling it twice"), sentences);
+    }
+}
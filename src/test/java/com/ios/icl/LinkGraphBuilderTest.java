@@ -0,0 +1,76 @@
+package com.ios.icl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Сохранённый граф ссылок используется, пока ни index.txt, ни страницы не новее его.
+ */
+class LinkGraphBuilderTest {
+    private static final FileTime BEFORE = FileTime.from(Instant.parse("2026-01-01T00:00:00Z"));
+    private static final FileTime SAVED = FileTime.from(Instant.parse("2026-01-02T00:00:00Z"));
+    private static final FileTime AFTER = FileTime.from(Instant.parse("2026-01-03T00:00:00Z"));
+
+    @TempDir
+    Path dir;
+    private Path index;
+    private Path pages;
+    private Path graph;
+
+    @BeforeEach
+    void writeCrawl() throws IOException {
+        index = Files.write(dir.resolve("index.txt"),
+                List.of("1 https://example.org/a", "2 https://example.org/b", "3 https://example.org/c"));
+        pages = Files.createDirectory(dir.resolve("pages"));
+        Files.writeString(pages.resolve("1.txt"), "<a href=\"/b\">b</a>");
+        Files.writeString(pages.resolve("2.txt"), "<a href=\"/c\">c</a>");
+        Files.writeString(pages.resolve("3.txt"), "no links");
+        graph = dir.resolve("link_graph.bin");
+
+        assertEquals(2, LinkGraphBuilder.loadOrBuild(index, pages, graph).edgeCount());
+        for (Path p : List.of(index, pages, pages.resolve("1.txt"), pages.resolve("2.txt"), pages.resolve("3.txt"))) {
+            Files.setLastModifiedTime(p, BEFORE);
+        }
+        Files.setLastModifiedTime(graph, SAVED);
+    }
+
+    @Test
+    void unchangedInputsLoadSavedGraph() throws IOException {
+        // Содержимое изменилось, но время — нет: граф берётся из файла
+        Files.writeString(pages.resolve("3.txt"), "<a href=\"/a\">a</a>");
+        Files.setLastModifiedTime(pages.resolve("3.txt"), BEFORE);
+        assertEquals(2, LinkGraphBuilder.loadOrBuild(index, pages, graph).edgeCount());
+    }
+
+    @Test
+    void newerPageRebuilds() throws IOException {
+        Files.writeString(pages.resolve("3.txt"), "<a href=\"/a\">a</a>");
+        Files.setLastModifiedTime(pages.resolve("3.txt"), AFTER);
+        assertEquals(3, LinkGraphBuilder.loadOrBuild(index, pages, graph).edgeCount());
+        assertEquals(3, LinkGraph.load(graph).edgeCount());
+    }
+
+    @Test
+    void removedPageRebuilds() throws IOException {
+        Files.delete(pages.resolve("2.txt"));
+        Files.setLastModifiedTime(pages, AFTER);
+        assertEquals(1, LinkGraphBuilder.loadOrBuild(index, pages, graph).edgeCount());
+    }
+
+    @Test
+    void newerIndexRebuilds() throws IOException {
+        Files.write(index, List.of("1 https://example.org/a", "2 https://example.org/b"));
+        Files.setLastModifiedTime(index, AFTER);
+        assertEquals(1, LinkGraphBuilder.loadOrBuild(index, pages, graph).edgeCount());
+    }
+}
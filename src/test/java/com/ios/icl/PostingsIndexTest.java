@@ -0,0 +1,165 @@
+package com.ios.icl;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Поиск по постингам сверяется с прямым подсчётом косинуса по векторам документов,
+ * а MaxScore и пакетный подсчёт — с полным подсчётом, на случайной коллекции: частоты
+ * терминов распределены по Ципфу, так что есть и длинные списки, которые MaxScore отсекает,
+ * и редкие термины.
+ */
+class PostingsIndexTest {
+    private static final int DOCS = 2_000;
+    private static final int TERMS = 500;
+
+    @TempDir
+    static Path dir;
+    private static Map<Integer, Map<String, Float>> vectors;
+    private static PostingsIndex index;
+    private static List<Map<String, Double>> queries;
+
+    @BeforeAll
+    static void buildIndex() throws IOException {
+        Random random = new Random(7);
+        vectors = new HashMap<>();
+        for (int doc = 0; doc < DOCS; doc++) {
+            Map<String, Float> vector = new HashMap<>();
+            for (int i = 5 + random.nextInt(40); i > 0; i--) vector.put("t" + zipf(random), random.nextFloat() + 0.01f);
+            // Номера страниц с пропусками, как после неудачных скачиваний
+            int docId = doc * 3 + 1;
+            vectors.put(docId, vector);
+            List<String> lines = new ArrayList<>();
+            vector.forEach((term, weight) -> lines.add(term + " 1.0 " + weight));
+            Files.write(dir.resolve("tfidf_tokens" + docId + ".txt"), lines);
+        }
+        index = PostingsIndex.build(DocumentVectors.load(dir, "tfidf_tokens"));
+
+        queries = new ArrayList<>();
+        for (int q = 0; q < 200; q++) {
+            Map<String, Double> qVec = new HashMap<>();
+            for (int i = random.nextInt(5); i >= 0; i--) qVec.put("t" + zipf(random), 0.1 + random.nextDouble());
+            if (q % 10 == 0) qVec.put("unknown" + q, 1.0);
+            queries.add(qVec);
+        }
+    }
+
+    private static int zipf(Random random) {
+        return (int) Math.min(TERMS - 1, Math.floor(Math.pow(TERMS, random.nextDouble())) - 1);
+    }
+
+    /**
+     * Косинус запроса с каждым документом напрямую, без постингов; нулевые оценки не выдаются.
+     */
+    private static List<VectorSearchEngine.Result> bruteForce(Map<String, Double> qVec, int topK) {
+        double qNorm = Math.sqrt(qVec.values().stream().mapToDouble(w -> w * w).sum());
+        List<VectorSearchEngine.Result> all = new ArrayList<>();
+        vectors.forEach((docId, vector) -> {
+            double dot = 0;
+            double norm = 0;
+            for (var e : vector.entrySet()) {
+                double weight = e.getValue();
+                norm += weight * weight;
+                dot += weight * qVec.getOrDefault(e.getKey(), 0.0);
+            }
+            if (dot > 0) all.add(new VectorSearchEngine.Result(docId, dot / Math.sqrt(norm) / qNorm));
+        });
+        all.sort(Comparator.comparingDouble(VectorSearchEngine.Result::score).reversed());
+        return all.subList(0, Math.min(topK, all.size()));
+    }
+
+    static void assertSameRanking(List<VectorSearchEngine.Result> expected, List<VectorSearchEngine.Result> actual) {
+        assertSameRanking(expected, actual, 1e-9);
+    }
+
+    /**
+     * Оценки совпадают позиционно, документы — с точностью до порядка равных оценок на границе top-K.
+     */
+    static void assertSameRanking(List<VectorSearchEngine.Result> expected, List<VectorSearchEngine.Result> actual,
+                                  double tolerance) {
+        assertEquals(expected.size(), actual.size(), () -> expected + " vs " + actual);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).score(), actual.get(i).score(), tolerance, () -> expected + " vs " + actual);
+        }
+        if (expected.isEmpty()) return;
+        double last = expected.get(expected.size() - 1).score();
+        Set<Object> expectedDocs = new HashSet<>();
+        Set<Object> actualDocs = new HashSet<>();
+        for (int i = 0; i < expected.size(); i++) {
+            if (expected.get(i).score() > last + tolerance) expectedDocs.add(expected.get(i).docId());
+            if (actual.get(i).score() > last + tolerance) actualDocs.add(actual.get(i).docId());
+        }
+        assertEquals(expectedDocs, actualDocs);
+    }
+
+    @Test
+    void matchesBruteForceCosine() {
+        // Нормированные веса постингов хранятся во float
+        for (int topK : new int[]{1, 10, 100}) {
+            for (Map<String, Double> qVec : queries) {
+                assertSameRanking(bruteForce(qVec, topK), index.search(qVec, topK), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    void maxScoreMatchesExhaustive() {
+        for (int topK : new int[]{1, 10, 100}) {
+            for (Map<String, Double> qVec : queries) {
+                var exhaustive = index.search(qVec, topK, PostingsIndex.Strategy.EXHAUSTIVE);
+                var maxScore = index.search(qVec, topK, PostingsIndex.Strategy.MAXSCORE);
+                assertSameRanking(exhaustive.results(), maxScore.results());
+                assertTrue(maxScore.postingsScored() <= exhaustive.postingsScored());
+            }
+        }
+    }
+
+    @Test
+    void maxScoreSkipsPostings() {
+        long exhaustive = 0;
+        long maxScore = 0;
+        for (Map<String, Double> qVec : queries) {
+            exhaustive += index.search(qVec, 10, PostingsIndex.Strategy.EXHAUSTIVE).postingsScored();
+            maxScore += index.search(qVec, 10, PostingsIndex.Strategy.MAXSCORE).postingsScored();
+        }
+        assertTrue(maxScore < exhaustive, maxScore + " of " + exhaustive);
+    }
+
+    @Test
+    void searchBatchMatchesPerQuery() {
+        for (int topK : new int[]{1, 10, 100}) {
+            List<List<VectorSearchEngine.Result>> batch = index.searchBatch(queries, topK);
+            assertEquals(queries.size(), batch.size());
+            for (int q = 0; q < queries.size(); q++) {
+                assertSameRanking(index.search(queries.get(q), topK), batch.get(q));
+            }
+        }
+    }
+
+    @Test
+    void emptyAndUnknownQueries() {
+        assertTrue(index.search(Map.of(), 10).isEmpty());
+        assertTrue(index.search(Map.of("unknown", 1.0), 10).isEmpty());
+        assertTrue(index.search(Map.of("t0", 1.0), 0).isEmpty());
+        assertTrue(index.search(Map.of("unknown", 1.0), 10, PostingsIndex.Strategy.MAXSCORE).results().isEmpty());
+        List<List<VectorSearchEngine.Result>> batch = index.searchBatch(List.of(Map.of(), Map.of("t0", 1.0)), 5);
+        assertTrue(batch.get(0).isEmpty());
+        assertEquals(index.search(Map.of("t0", 1.0), 5), batch.get(1));
+    }
+}
@@ -0,0 +1,90 @@
+package com.ios.icl;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryCacheTest {
+
+    @Test
+    void loaderRunsOnlyOnMiss() {
+        QueryCache<String, String> cache = new QueryCache<>(100, Duration.ZERO);
+        AtomicInteger loads = new AtomicInteger();
+        for (int i = 0; i < 5; i++) {
+            assertEquals("A", cache.get("a", k -> {
+                loads.incrementAndGet();
+                return k.toUpperCase();
+            }));
+        }
+        assertEquals(1, loads.get());
+        QueryCache.Stats stats = cache.stats();
+        assertEquals(4, stats.hits());
+        assertEquals(1, stats.misses());
+        assertEquals(1, stats.size());
+    }
+
+    @Test
+    void sizeStaysWithinMaximum() {
+        QueryCache<Integer, Integer> cache = new QueryCache<>(50, Duration.ZERO);
+        for (int i = 0; i < 1_000; i++) cache.put(i, i);
+        assertEquals(50, cache.size());
+        assertEquals(950, cache.stats().evictions());
+    }
+
+    /**
+     * Частотный фильтр W-TinyLFU: между обращениями к популярным ключам проходит больше
+     * разовых, чем вмещает кеш (LRU промахивался бы каждый раз), но популярные остаются.
+     */
+    @Test
+    void scanDoesNotEvictPopularKeys() {
+        QueryCache<String, Integer> cache = new QueryCache<>(100, Duration.ZERO);
+        AtomicInteger hotMisses = new AtomicInteger();
+        int cold = 0;
+        for (int round = 0; round < 50; round++) {
+            if (round == 2) hotMisses.set(0);
+            for (int i = 0; i < 20; i++) {
+                cache.get("hot" + i, k -> {
+                    hotMisses.incrementAndGet();
+                    return 1;
+                });
+            }
+            for (int i = 0; i < 100; i++) cache.get("cold" + cold++, k -> 0);
+        }
+        assertEquals(0, hotMisses.get());
+        assertTrue(cache.stats().rejections() > 0);
+    }
+
+    @Test
+    void expiredEntriesAreMisses() throws InterruptedException {
+        QueryCache<String, String> cache = new QueryCache<>(10, Duration.ofMillis(1));
+        cache.put("a", "A");
+        Thread.sleep(5);
+        assertNull(cache.getIfPresent("a"));
+        assertEquals(1, cache.stats().expirations());
+    }
+
+    @Test
+    void invalidateAllClears() {
+        QueryCache<String, String> cache = new QueryCache<>(10, Duration.ZERO);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertNull(cache.getIfPresent("a"));
+    }
+
+    /**
+     * Ключ результатов поиска: порядок и регистр слов не важны, повторы — важны.
+     */
+    @Test
+    void normalizedQueryKeepsRepeats() {
+        assertEquals("functions python", VectorSearchEngine.normalize("Python, functions"));
+        assertEquals(VectorSearchEngine.normalize("python functions"), VectorSearchEngine.normalize("functions PYTHON"));
+        assertEquals("functions python python", VectorSearchEngine.normalize("python functions python"));
+    }
+}
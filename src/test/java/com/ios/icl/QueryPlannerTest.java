@@ -0,0 +1,216 @@
+package com.ios.icl;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Фразы, NEAR/k и булевы запросы по позиционному индексу сверяются с прямым просмотром
+ * последовательностей слов каждого документа. Стоп-слова в индекс не попадают, но занимают
+ * позиции, и во фразе совпадают с любым словом.
+ */
+class QueryPlannerTest {
+    private static final String[] WORDS = {"alpha", "beta", "gamma", "delta", "epsilon"};
+    private static final String[] STOP_WORDS = {"the", "of"};
+
+    @TempDir
+    static Path dir;
+    private static final SortedMap<Integer, String[]> documents = new TreeMap<>();
+    private static int[] allDocs;
+    private static QueryPlanner planner;
+    private final QueryParser parser = new QueryParser();
+
+    @BeforeAll
+    static void buildIndex() throws IOException {
+        Random random = new Random(5);
+        for (int doc = 1; doc <= 300; doc++) {
+            if (doc % 13 == 0) continue;
+            String[] words = new String[3 + random.nextInt(25)];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = random.nextInt(5) == 0 ? STOP_WORDS[random.nextInt(STOP_WORDS.length)]
+                        : WORDS[(int) Math.pow(WORDS.length + 1, random.nextDouble()) - 1];
+            }
+            documents.put(doc, words);
+        }
+        allDocs = documents.keySet().stream().mapToInt(Integer::intValue).toArray();
+        planner = planner(StopWords.of(STOP_WORDS), "positional_index.bin");
+    }
+
+    /**
+     * Индекс без стоп-слов: они пропускаются, но позиции остальных слов не сдвигаются.
+     */
+    private static QueryPlanner planner(StopWords stop, String name) throws IOException {
+        SortedMap<String, SortedMap<Integer, List<Integer>>> positions = new TreeMap<>();
+        documents.forEach((doc, words) -> {
+            for (int i = 0; i < words.length; i++) {
+                if (stop.contains(words[i])) continue;
+                positions.computeIfAbsent(words[i], w -> new TreeMap<>()).computeIfAbsent(doc, d -> new ArrayList<>()).add(i);
+            }
+        });
+        Path file = dir.resolve(name);
+        Map<String, int[]> postings = new HashMap<>();
+        try (PositionalIndexWriter writer = new PositionalIndexWriter(file, stop)) {
+            for (var entry : positions.entrySet()) {
+                int[] docs = entry.getValue().keySet().stream().mapToInt(Integer::intValue).toArray();
+                int[][] docPositions = entry.getValue().values().stream()
+                        .map(list -> list.stream().mapToInt(Integer::intValue).toArray())
+                        .toArray(int[][]::new);
+                writer.add(entry.getKey(), docs, docPositions);
+                postings.put(entry.getKey(), docs);
+            }
+        }
+        return new QueryPlanner(new MapIndex(postings, allDocs), PositionalIndex.open(file));
+    }
+
+    private record MapIndex(Map<String, int[]> postings, int[] allDocs) implements InvertedIndex {
+        @Override
+        public int[] postings(String term) {
+            return postings.getOrDefault(term, new int[0]);
+        }
+
+        @Override
+        public int docFrequency(String term) {
+            return postings(term).length;
+        }
+
+        @Override
+        public int termCount() {
+            return postings.size();
+        }
+    }
+
+    private int[] search(String query) {
+        return search(planner, query);
+    }
+
+    private int[] search(QueryPlanner planner, String query) {
+        return planner.plan(parser.parse(query)).execute().materialize(allDocs);
+    }
+
+    private static int[] naive(IntPredicate matches) {
+        return Arrays.stream(allDocs).filter(matches).toArray();
+    }
+
+    /**
+     * Начала вхождений фразы: все слова, кроме стоп-слов, стоят на своих местах.
+     */
+    private static List<Integer> starts(String[] doc, String[] phrase) {
+        return starts(doc, phrase, Set.of(STOP_WORDS));
+    }
+
+    private static List<Integer> starts(String[] doc, String[] phrase, Set<String> stopWords) {
+        List<Integer> starts = new ArrayList<>();
+        for (int s = -phrase.length; s < doc.length; s++) {
+            boolean match = true;
+            for (int i = 0; i < phrase.length && match; i++) {
+                if (stopWords.contains(phrase[i])) continue;
+                match = s + i >= 0 && s + i < doc.length && doc[s + i].equals(phrase[i]);
+            }
+            if (match) starts.add(s);
+        }
+        return starts;
+    }
+
+    private static boolean near(String[] doc, String[] a, String[] b, int distance) {
+        for (int sa : starts(doc, a)) {
+            for (int sb : starts(doc, b)) {
+                int gap = sa <= sb ? sb - (sa + a.length - 1) : sa - (sb + b.length - 1);
+                if (gap <= distance) return true;
+            }
+        }
+        return false;
+    }
+
+    private static String[] randomPhrase(Random random) {
+        String[] phrase = new String[1 + random.nextInt(3)];
+        for (int i = 0; i < phrase.length; i++) {
+            phrase[i] = random.nextInt(4) == 0 ? STOP_WORDS[random.nextInt(STOP_WORDS.length)]
+                    : WORDS[random.nextInt(WORDS.length)];
+        }
+        phrase[random.nextInt(phrase.length)] = WORDS[random.nextInt(WORDS.length)];
+        return phrase;
+    }
+
+    private static String quote(String[] phrase) {
+        return '"' + String.join(" ", phrase) + '"';
+    }
+
+    @Test
+    void phrasesMatchDirectScan() {
+        Random random = new Random(1);
+        for (int q = 0; q < 300; q++) {
+            String[] phrase = randomPhrase(random);
+            assertArrayEquals(naive(doc -> !starts(documents.get(doc), phrase).isEmpty()), search(quote(phrase)),
+                    quote(phrase));
+        }
+    }
+
+    @Test
+    void nearMatchesDirectScan() {
+        Random random = new Random(2);
+        for (int q = 0; q < 300; q++) {
+            String[] a = randomPhrase(random);
+            String[] b = randomPhrase(random);
+            int distance = 1 + random.nextInt(5);
+            String query = quote(a) + " NEAR/" + distance + " " + quote(b);
+            assertArrayEquals(naive(doc -> near(documents.get(doc), a, b, distance)), search(query), query);
+        }
+    }
+
+    @Test
+    void phrasesCombineWithBooleanOperators() {
+        String[] phrase = {"alpha", "the", "beta"};
+        assertArrayEquals(naive(doc -> !starts(documents.get(doc), phrase).isEmpty()
+                        && !Arrays.asList(documents.get(doc)).contains("epsilon")),
+                search("\"alpha the beta\" AND NOT epsilon"));
+        assertArrayEquals(naive(doc -> near(documents.get(doc), new String[]{"gamma"}, new String[]{"delta"}, 1)
+                        || Arrays.asList(documents.get(doc)).contains("epsilon")),
+                search("(gamma NEAR/1 delta) OR epsilon"));
+    }
+
+    @Test
+    void absentTermMatchesNothing() {
+        assertArrayEquals(new int[0], search("\"alpha missing\""));
+        assertArrayEquals(new int[0], search("missing NEAR/3 alpha"));
+    }
+
+    @Test
+    void withinMeasuresGapBetweenSpans() {
+        assertTrue(QueryPlanner.within(new int[]{0}, 2, new int[]{3}, 1, 2));
+        assertTrue(QueryPlanner.within(new int[]{5}, 1, new int[]{3}, 2, 1));
+        assertFalse(QueryPlanner.within(new int[]{0}, 1, new int[]{4}, 1, 2));
+        // Перекрывающиеся отрезки
+        assertTrue(QueryPlanner.within(new int[]{2}, 3, new int[]{3}, 1, 0));
+    }
+
+    /**
+     * Стоп-слова берутся из самого индекса: слово, которое индексатор отбросил, во фразе
+     * совпадает с любым словом, хотя фильтр по умолчанию его не знает.
+     */
+    @Test
+    void customStopWordsComeFromIndex() throws IOException {
+        QueryPlanner custom = planner(StopWords.of("the", "of", "beta"), "custom_stop_words.bin");
+        String[] phrase = {"alpha", "beta", "gamma"};
+        int[] expected = naive(doc -> !starts(documents.get(doc), phrase, Set.of("the", "of", "beta")).isEmpty());
+        assertTrue(expected.length > 0);
+        assertArrayEquals(expected, search(custom, "\"alpha beta gamma\""));
+        assertArrayEquals(expected, search(custom, "\"alpha the gamma\""));
+    }
+}
@@ -0,0 +1,78 @@
+package com.ios.icl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScoreFusionTest {
+    private static final List<VectorSearchEngine.Result> TOKENS = List.of(
+            result(1, 0.9), result(2, 0.5), result(3, 0.1));
+    private static final List<VectorSearchEngine.Result> LEMMAS = List.of(
+            result(3, 0.8), result(4, 0.6), result(1, 0.2));
+
+    private static VectorSearchEngine.Result result(int docId, double score) {
+        return new VectorSearchEngine.Result(docId, score);
+    }
+
+    private static void assertFused(List<VectorSearchEngine.Result> expected, List<VectorSearchEngine.Result> actual) {
+        assertEquals(expected.size(), actual.size(), () -> expected + " vs " + actual);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).docId(), actual.get(i).docId(), () -> expected + " vs " + actual);
+            assertEquals(expected.get(i).score(), actual.get(i).score(), 1e-12, () -> expected + " vs " + actual);
+        }
+    }
+
+    @Test
+    void weightedSumsScoresOfBothLists() {
+        ScoreFusion fusion = new ScoreFusion(ScoreFusion.Method.WEIGHTED, 0.25, 60);
+        assertFused(List.of(
+                        result(3, 0.25 * 0.1 + 0.75 * 0.8),
+                        result(4, 0.75 * 0.6),
+                        result(1, 0.25 * 0.9 + 0.75 * 0.2),
+                        result(2, 0.25 * 0.5)),
+                fusion.fuse(TOKENS, LEMMAS, 10));
+    }
+
+    @Test
+    void rrfUsesRanksOnly() {
+        ScoreFusion fusion = new ScoreFusion(ScoreFusion.Method.RRF, 0.5, 60);
+        assertFused(List.of(
+                        result(1, 0.5 / 61 + 0.5 / 63),
+                        result(3, 0.5 / 63 + 0.5 / 61),
+                        result(2, 0.5 / 62),
+                        result(4, 0.5 / 62)),
+                fusion.fuse(TOKENS, LEMMAS, 10));
+    }
+
+    /**
+     * При равных оценках документы идут по возрастанию номера.
+     */
+    @Test
+    void tiesAreOrderedByDocNumber() {
+        ScoreFusion fusion = new ScoreFusion(ScoreFusion.Method.WEIGHTED, 0.5, 60);
+        List<VectorSearchEngine.Result> fused = fusion.fuse(
+                List.of(result(10, 0.4), result(9, 0.4)), List.of(result(100, 0.4), result(2, 0.4)), 10);
+        assertEquals(List.of(2, 9, 10, 100), fused.stream().map(VectorSearchEngine.Result::docId).toList());
+    }
+
+    @Test
+    void topKAndSingleListWeights() {
+        ScoreFusion tokensOnly = new ScoreFusion(ScoreFusion.Method.WEIGHTED, 1, 60);
+        assertFused(TOKENS.subList(0, 2), tokensOnly.fuse(TOKENS, LEMMAS, 2));
+        ScoreFusion lemmasOnly = new ScoreFusion(ScoreFusion.Method.WEIGHTED, 0, 60);
+        assertFused(LEMMAS, lemmasOnly.fuse(TOKENS, LEMMAS, 10));
+        assertTrue(lemmasOnly.fuse(TOKENS, LEMMAS, 0).isEmpty());
+        assertTrue(lemmasOnly.fuse(List.of(), List.of(), 10).isEmpty());
+    }
+
+    @Test
+    void invalidParameters() {
+        assertThrows(IllegalArgumentException.class, () -> new ScoreFusion(ScoreFusion.Method.RRF, 1.5, 60));
+        assertThrows(IllegalArgumentException.class, () -> new ScoreFusion(ScoreFusion.Method.RRF, 0.5, -1));
+        assertEquals(ScoreFusion.Method.RRF, ScoreFusion.Method.parse(" rrf "));
+    }
+}
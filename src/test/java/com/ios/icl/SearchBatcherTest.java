@@ -0,0 +1,57 @@
+package com.ios.icl;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Запросы из многих потоков при нескольких ведущих получают тот же top-K, что и по отдельности.
+ */
+class SearchBatcherTest {
+
+    @Test
+    void concurrentQueriesMatchSingleSearch() throws Exception {
+        Random random = new Random(9);
+        DocumentVectors.Builder builder = new DocumentVectors.Builder();
+        for (int doc = 1; doc <= 1_000; doc++) {
+            Map<Integer, Float> terms = new HashMap<>();
+            for (int i = 5 + random.nextInt(30); i > 0; i--) terms.put((int) Math.pow(300, random.nextDouble()), random.nextFloat() + 0.01f);
+            terms.forEach((t, w) -> builder.add("t" + t, 1, w));
+            builder.endDocument(doc);
+        }
+        PostingsIndex index = PostingsIndex.build(builder.build());
+        List<Map<String, Double>> queries = new ArrayList<>();
+        for (int q = 0; q < 400; q++) {
+            Map<String, Double> qVec = new HashMap<>();
+            for (int i = random.nextInt(4); i >= 0; i--) qVec.put("t" + (int) Math.pow(300, random.nextDouble()), 1.0);
+            queries.add(qVec);
+        }
+
+        SearchBatcher batcher = new SearchBatcher(Duration.ofMillis(1), 32, 3, PostingsIndex.Strategy.MAXSCORE);
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<List<VectorSearchEngine.Result>>> futures = new ArrayList<>();
+            for (Map<String, Double> qVec : queries) futures.add(pool.submit(() -> batcher.search(index, qVec, 10)));
+            for (int q = 0; q < queries.size(); q++) {
+                PostingsIndexTest.assertSameRanking(index.search(queries.get(q), 10), futures.get(q).get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        SearchBatcher.Stats stats = batcher.stats();
+        assertEquals(queries.size(), stats.queries());
+        assertEquals(0, stats.queued());
+        assertTrue(stats.batches() <= queries.size());
+    }
+}
@@ -0,0 +1,94 @@
+package com.ios.icl;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Сегментная сборка должна давать тот же бинарный индекс байт в байт, что и сборка
+ * одного словаря в куче, при любом числе сегментов и проходов слияния.
+ */
+class SegmentedIndexBuilderTest {
+    private static final int DOCS = 300;
+
+    @TempDir
+    static Path dir;
+    private static Path pages;
+    private static byte[] expected;
+
+    @BeforeAll
+    static void writeCorpus() throws IOException {
+        pages = Files.createDirectory(dir.resolve("pages"));
+        Random random = new Random(3);
+        for (int doc = 1; doc <= DOCS; doc++) {
+            // Пропуски в номерах, как после неудачных скачиваний
+            if (doc % 17 == 0) continue;
+            List<String> lines = new ArrayList<>();
+            for (int i = 5 + random.nextInt(60); i > 0; i--) {
+                StringBuilder line = new StringBuilder("lemma" + (int) Math.pow(2_000, random.nextDouble()));
+                for (int forms = random.nextInt(4); forms > 0; forms--) line.append(" form").append(random.nextInt(100));
+                lines.add(line.toString());
+            }
+            Files.write(pages.resolve("lemmas" + doc + ".txt"), lines);
+        }
+        Map<String, SortedMap<Integer, Integer>> index = IndexBuilder.buildIndex(pages);
+        Path inMemory = dir.resolve("in-memory.bin");
+        IndexBuilder.saveBinaryIndex(index, inMemory);
+        expected = Files.readAllBytes(inMemory);
+    }
+
+    private SegmentedIndexBuilder.Stats build(int threads, long memoryBudget, String name) throws IOException {
+        Path binary = dir.resolve(name + ".bin");
+        Path text = dir.resolve(name + ".txt");
+        SegmentedIndexBuilder.Stats stats = new SegmentedIndexBuilder(threads, memoryBudget, dir).build(pages, binary, text);
+        assertArrayEquals(expected, Files.readAllBytes(binary), name);
+        return stats;
+    }
+
+    @Test
+    void singleSegment() throws IOException {
+        SegmentedIndexBuilder.Stats stats = build(1, 1L << 30, "single");
+        assertEquals(1, stats.segments());
+        assertEquals(0, stats.mergePasses());
+    }
+
+    @Test
+    void segmentPerDocumentWithMergePasses() throws IOException {
+        // Бюджет в байт: каждый документ — свой сегмент, сегментов больше MAX_FAN_IN
+        SegmentedIndexBuilder.Stats stats = build(4, 1, "per-document");
+        assertTrue(stats.segments() > SegmentedIndexBuilder.MAX_FAN_IN, stats.toString());
+        assertTrue(stats.mergePasses() > 0, stats.toString());
+    }
+
+    @Test
+    void fewSegments() throws IOException {
+        SegmentedIndexBuilder.Stats stats = build(3, 64 << 10, "few");
+        assertTrue(stats.segments() > 1 && stats.segments() <= SegmentedIndexBuilder.MAX_FAN_IN, stats.toString());
+    }
+
+    @Test
+    void textIndexListsSameTerms() throws IOException {
+        build(2, 16 << 10, "text");
+        List<String> lines = Files.readAllLines(dir.resolve("text.txt"));
+        Map<String, SortedMap<Integer, Integer>> index = IndexBuilder.buildIndex(pages);
+        assertEquals(index.size(), lines.size());
+        for (String line : lines) {
+            String term = line.substring(0, line.indexOf(':'));
+            String docs = String.join(",", index.get(term).keySet().stream().map(String::valueOf).toList());
+            assertEquals(term + ":" + docs, line);
+        }
+    }
+}
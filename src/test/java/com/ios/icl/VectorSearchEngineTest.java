@@ -0,0 +1,33 @@
+package com.ios.icl;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class VectorSearchEngineTest {
+    private final VectorSearchEngine engine = new VectorSearchEngine();
+
+    @Test
+    void scoringParameter() {
+        assertEquals(VectorSearchEngine.Scoring.COSINE, engine.parseScoring(null));
+        assertEquals(VectorSearchEngine.Scoring.BM25F, engine.parseScoring(" BM25f "));
+        var e = assertThrows(ResponseStatusException.class, () -> engine.parseScoring("pagerank"));
+        assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+    }
+
+    @Test
+    void bm25WithoutPositionalIndexIsUnavailable() {
+        SearchSnapshot withoutBm25 = new SearchSnapshot(1, Instant.now(), 0, true,
+                null, null, null, null, Map.of(), null, null);
+        for (var scoring : new VectorSearchEngine.Scoring[]{VectorSearchEngine.Scoring.BM25, VectorSearchEngine.Scoring.BM25F}) {
+            var e = assertThrows(ResponseStatusException.class, () -> engine.search(withoutBm25, "python", 10, scoring));
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatusCode());
+        }
+    }
+}